@@ -0,0 +1,118 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.automl.v1beta1.AnnotationPayload;
+import com.google.cloud.automl.v1beta1.ExamplePayload;
+import com.google.cloud.automl.v1beta1.ModelName;
+import com.google.cloud.automl.v1beta1.PredictRequest;
+import com.google.cloud.automl.v1beta1.PredictResponse;
+import com.google.cloud.automl.v1beta1.PredictionServiceClient;
+import com.google.cloud.automl.v1beta1.PredictionServiceGrpc;
+import com.google.cloud.automl.v1beta1.PredictionServiceSettings;
+import com.google.cloud.automl.v1beta1.TextSnippet;
+import com.google.cloud.automl.v1beta1.TranslationAnnotation;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predictions with a shared PredictionServiceClient and with a client created for every prediction.
+ *
+ * The client calls a PredictionService served by an in-process gRPC server on localhost, without TLS nor credentials,
+ * that answers every prediction with the same translation, so the figures are those of the client, its channel and
+ * its threads, not of AutoML. The client of every prediction is closed and awaited after it, as a leaked client keeps
+ * its threads the figures of the client per prediction are a lower bound.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ClientReuseBenchmark {
+
+    private static final ModelName MODEL = ModelName.of("project", "us-central1", "model");
+    private static final ExamplePayload PAYLOAD = ExamplePayload.newBuilder()
+            .setTextSnippet(TextSnippet.newBuilder().setContent("Hello world"))
+            .build();
+
+    private Server server;
+    private PredictionServiceSettings settings;
+    private PredictionServiceClient sharedClient;
+
+    @Setup
+    public void setup() throws IOException {
+        final PredictResponse response = PredictResponse.newBuilder()
+                .addPayload(AnnotationPayload.newBuilder()
+                        .setTranslation(TranslationAnnotation.newBuilder()
+                                .setTranslatedContent(TextSnippet.newBuilder().setContent("Hallo Welt"))))
+                .build();
+        server = ServerBuilder.forPort(0)
+                .addService(new PredictionServiceGrpc.PredictionServiceImplBase() {
+                    @Override
+                    public void predict(PredictRequest request, StreamObserver<PredictResponse> responseObserver) {
+                        responseObserver.onNext(response);
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+
+        settings = PredictionServiceSettings.newBuilder()
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .setTransportChannelProvider(InstantiatingGrpcChannelProvider.newBuilder()
+                        .setEndpoint("localhost:" + server.getPort())
+                        .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                        .build())
+                .build();
+        sharedClient = PredictionServiceClient.create(settings);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        sharedClient.shutdown();
+        sharedClient.awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdown();
+        server.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public String sharedClient() {
+        return predict(sharedClient);
+    }
+
+    @Benchmark
+    public String clientPerPrediction() throws IOException, InterruptedException {
+        final PredictionServiceClient client = PredictionServiceClient.create(settings);
+        try {
+            return predict(client);
+        } finally {
+            client.shutdown();
+            client.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String predict(PredictionServiceClient client) {
+        return client.predict(MODEL, PAYLOAD, Collections.emptyMap())
+                .getPayload(0).getTranslation().getTranslatedContent().getContent();
+    }
+}
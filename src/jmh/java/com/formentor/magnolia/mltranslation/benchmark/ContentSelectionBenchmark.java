@@ -0,0 +1,92 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import com.formentor.magnolia.mltranslation.dataset.ContentNodes;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.TransientRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the nodes of a tree by traversal and by JCR-SQL2 query, see {@link ContentNodes}.
+ *
+ * Queries need a real repository, the tree is stored in a Jackrabbit repository created in a temporary directory
+ * with its default configuration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentSelectionBenchmark {
+
+    private static final int CHILDREN_PER_NODE = 10;
+
+    @Param({"10000", "100000"})
+    private int nodes;
+
+    @Param({ContentNodes.MODE_TRAVERSAL, ContentNodes.MODE_QUERY})
+    private String mode;
+
+    private File home;
+    private TransientRepository repository;
+    private Session session;
+    private Node root;
+
+    @Setup
+    public void setup() throws IOException, RepositoryException {
+        home = Files.createTempDirectory("translationml-jcr").toFile();
+        repository = new TransientRepository(home);
+        session = repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+
+        // tree where every node has CHILDREN_PER_NODE children
+        root = session.getRootNode().addNode("site", "nt:unstructured");
+        List<Node> tree = new ArrayList<>(nodes);
+        tree.add(root);
+        for (int i = 1; i < nodes; i++) {
+            Node node = tree.get((i - 1) / CHILDREN_PER_NODE).addNode("node" + i, "nt:unstructured");
+            node.setProperty("title", "Title " + i);
+            tree.add(node);
+            if (i % 1000 == 0) {
+                session.save();
+            }
+        }
+        session.save();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        session.logout();
+        repository.shutdown();
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Benchmark
+    public void select(Blackhole blackhole) throws RepositoryException {
+        for (Node node : ContentNodes.select(root, "nt:unstructured", mode)) {
+            blackhole.consume(node);
+        }
+    }
+}
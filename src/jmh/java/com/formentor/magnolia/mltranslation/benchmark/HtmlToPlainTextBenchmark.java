@@ -0,0 +1,69 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import com.formentor.magnolia.mltranslation.parser.HtmlToPlainText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of html to plain-text, the cost paid for every source and target property of the training datasets.
+ *
+ * getPlainTextFromDom is the reference: setup fails if getPlainText does not return the same text for every
+ * document of the corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlToPlainTextBenchmark {
+
+    private static final int CORPUS_SIZE = 1000;
+
+    @Param({HtmlCorpus.PLAIN, HtmlCorpus.RICH_TEXT, HtmlCorpus.MIXED})
+    private String corpus;
+
+    private List<String> documents;
+
+    @Setup
+    public void setup() {
+        documents = HtmlCorpus.generate(corpus, CORPUS_SIZE, 42);
+        for (String document : documents) {
+            final String expected = HtmlToPlainText.getPlainTextFromDom(document);
+            final String actual = HtmlToPlainText.getPlainText(document);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("getPlainText differs from getPlainTextFromDom for [" + document + "]: [" + actual + "] != [" + expected + "]");
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void getPlainText(Blackhole blackhole) {
+        for (String document : documents) {
+            blackhole.consume(HtmlToPlainText.getPlainText(document));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void getPlainTextFromDom(Blackhole blackhole) {
+        for (String document : documents) {
+            blackhole.consume(HtmlToPlainText.getPlainTextFromDom(document));
+        }
+    }
+}
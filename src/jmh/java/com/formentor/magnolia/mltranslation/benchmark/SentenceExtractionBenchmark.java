@@ -0,0 +1,140 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import com.formentor.magnolia.mltranslation.dataset.ContentNodes;
+import com.formentor.magnolia.mltranslation.dataset.Sentence;
+import com.formentor.magnolia.mltranslation.dataset.SentenceExtractor;
+import com.formentor.magnolia.mltranslation.dataset.SentenceWriter;
+import info.magnolia.test.mock.jcr.MockNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the sentences of a tree of contents as done by ImportTrainingCommand: traversal of the tree,
+ * conversion of the i18n properties to plain-text and pairing of the source with every target language.
+ *
+ * The tree is built in memory with MockNode, pages of 10 components with a title and a rich-text property
+ * translated to every locale.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SentenceExtractionBenchmark {
+
+    /**
+     * Suffixes of the locales of the site, the first one is the fallback locale
+     */
+    private static final List<String> LOCALES = Arrays.asList("", "es", "de", "fr", "it", "pt_BR", "ca", "nl");
+
+    private static final int COMPONENTS_PER_PAGE = 10;
+
+    @Param({"1000", "10000"})
+    private int nodes;
+
+    /**
+     * Number of locales including the source one
+     */
+    @Param({"2", "5", "8"})
+    private int locales;
+
+    private Node root;
+
+    private List<String> targetSuffixes;
+
+    @Setup
+    public void setup() throws RepositoryException {
+        targetSuffixes = new ArrayList<>(LOCALES.subList(1, locales));
+
+        Iterator<String> texts = HtmlCorpus.generate(HtmlCorpus.MIXED, 1000, 42).iterator();
+        Iterator<String> titles = HtmlCorpus.generate(HtmlCorpus.PLAIN, 1000, 43).iterator();
+
+        root = new MockNode("site", "mgnl:page");
+        Node page = root;
+        for (int i = 0; i < nodes; i++) {
+            if (i % COMPONENTS_PER_PAGE == 0) {
+                page = root.addNode("page" + i, "mgnl:page");
+                continue;
+            }
+            Node component = page.addNode("component" + i, "mgnl:component");
+            for (String suffix : LOCALES.subList(0, locales)) {
+                if (!texts.hasNext()) {
+                    texts = HtmlCorpus.generate(HtmlCorpus.MIXED, 1000, i).iterator();
+                    titles = HtmlCorpus.generate(HtmlCorpus.PLAIN, 1000, i + 1).iterator();
+                }
+                final String name = suffix.isEmpty() ? "" : "_" + suffix;
+                component.setProperty("title" + name, titles.next());
+                component.setProperty("text" + name, texts.next());
+            }
+            component.setProperty("link", "/home/page" + i);
+        }
+    }
+
+    @Benchmark
+    public void extract(Blackhole blackhole) throws RepositoryException, IOException {
+        Map<String, SentenceWriter> writers = new LinkedHashMap<>();
+        for (String targetSuffix : targetSuffixes) {
+            writers.put(targetSuffix, new BlackholeSentenceWriter(blackhole));
+        }
+
+        final SentenceExtractor extractor = new SentenceExtractor("", targetSuffixes);
+        for (Node node : ContentNodes.select(root, null, ContentNodes.MODE_TRAVERSAL)) {
+            extractor.extract(node, writers);
+        }
+    }
+
+    /**
+     * Writer that only counts the sentences
+     */
+    private static class BlackholeSentenceWriter implements SentenceWriter {
+
+        private final Blackhole blackhole;
+        private long sentenceCount = 0;
+
+        BlackholeSentenceWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(Sentence sentence) {
+            blackhole.consume(sentence);
+            sentenceCount++;
+        }
+
+        @Override
+        public long getSentenceCount() {
+            return sentenceCount;
+        }
+
+        @Override
+        public long getByteCount() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import com.formentor.magnolia.mltranslation.dataset.DeduplicatingSentenceWriter;
+import com.formentor.magnolia.mltranslation.dataset.Sentence;
+import com.formentor.magnolia.mltranslation.dataset.SentenceWriter;
+import com.formentor.magnolia.mltranslation.dataset.TsvSentenceWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of sentences to the tsv file uploaded to Google Cloud Storage.
+ *
+ * The writer streams to an output stream that discards the bytes, so the figures are those of escaping and
+ * encoding the sentences, not of the upload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TsvSerializationBenchmark {
+
+    @Param({"10000", "100000"})
+    private int sentences;
+
+    /**
+     * Percentage of repeated sentences
+     */
+    @Param({"30"})
+    private int duplicates;
+
+    private List<Sentence> corpus;
+
+    @Setup
+    public void setup() {
+        final List<String> sources = HtmlCorpus.generate(HtmlCorpus.PLAIN, sentences, 42);
+        final List<String> targets = HtmlCorpus.generate(HtmlCorpus.PLAIN, sentences, 43);
+        corpus = new ArrayList<>(sentences);
+        for (int i = 0; i < sentences; i++) {
+            final int index = (i % 100 < duplicates && i > 0) ? i / 2 : i;
+            corpus.add(Sentence.builder()
+                    .source(sources.get(index))
+                    .target(targets.get(index))
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public long tsv() throws IOException {
+        return write(new TsvSentenceWriter(new NullOutputStream()));
+    }
+
+    @Benchmark
+    public long tsvDeduplicated() throws IOException {
+        return write(new DeduplicatingSentenceWriter(new TsvSentenceWriter(new NullOutputStream()), true, false));
+    }
+
+    private long write(SentenceWriter writer) throws IOException {
+        try (SentenceWriter sentenceWriter = writer) {
+            for (Sentence sentence : corpus) {
+                sentenceWriter.write(sentence);
+            }
+        }
+        return writer.getByteCount();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
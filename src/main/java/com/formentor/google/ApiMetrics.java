@@ -0,0 +1,95 @@
+package com.formentor.google;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latencies of the calls to Google Cloud, one {@link LatencyHistogram} per call, i.e. "DatasetApi.createDataset"
+ */
+public class ApiMetrics {
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call recording its latency, or its failure
+     * @param name name of the call
+     * @param call
+     * @param <T>
+     * @param <E>
+     * @return the result of the call
+     * @throws E
+     */
+    public <T, E extends Exception> T time(String name, Call<T, E> call) throws E {
+        final LatencyHistogram histogram = getHistogram(name);
+        final long start = System.nanoTime();
+        try {
+            final T result = call.call();
+            histogram.record(System.nanoTime() - start);
+            return result;
+        } catch (Exception | Error e) {
+            histogram.recordError();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the call and iterates its result recording the latency of both, the pages of a paged list are fetched
+     * while iterating it
+     * @param name name of the call
+     * @param call
+     * @param <T>
+     * @param <E>
+     * @return the items of the result
+     * @throws E
+     */
+    public <T, E extends Exception> List<T> timeAll(String name, Call<? extends Iterable<T>, E> call) throws E {
+        return time(name, () -> {
+            final List<T> items = new ArrayList<>();
+            for (T item : call.call()) {
+                items.add(item);
+            }
+            return items;
+        });
+    }
+
+    /**
+     * Records the latency of an asynchronous call when the future completes
+     * @param name name of the call
+     * @param future
+     * @param <T>
+     * @return the future
+     */
+    public <T> CompletableFuture<T> time(String name, CompletableFuture<T> future) {
+        final LatencyHistogram histogram = getHistogram(name);
+        final long start = System.nanoTime();
+        future.whenComplete((result, failure) -> {
+            if (failure == null) {
+                histogram.record(System.nanoTime() - start);
+            } else {
+                histogram.recordError();
+            }
+        });
+        return future;
+    }
+
+    public LatencyHistogram getHistogram(String name) {
+        return histograms.computeIfAbsent(name, (n) -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the histograms by name of call
+     * @return
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+}
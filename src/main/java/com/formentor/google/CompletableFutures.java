@@ -0,0 +1,45 @@
+package com.formentor.google;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapter of the futures returned by the Google Cloud clients to {@link CompletableFuture}
+ */
+public final class CompletableFutures {
+
+    private CompletableFutures() {
+    }
+
+    /**
+     * Returns a CompletableFuture completed with the result of apiFuture, cancelling it cancels apiFuture
+     * @param apiFuture
+     * @param <T>
+     * @return
+     */
+    public static <T> CompletableFuture<T> of(ApiFuture<T> apiFuture) {
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                apiFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+}
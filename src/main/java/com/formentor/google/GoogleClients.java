@@ -0,0 +1,113 @@
+package com.formentor.google;
+
+import com.google.api.gax.core.BackgroundResource;
+import com.google.cloud.automl.v1beta1.AutoMlClient;
+import com.google.cloud.automl.v1beta1.PredictionServiceClient;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holder of the Google Cloud clients used by the module.
+ *
+ * The clients are thread-safe and expensive to build (gRPC channel, credentials, TLS handshake), so a single
+ * instance of each one is created on first use and shared until {@link #close()}.
+ */
+@Slf4j
+public class GoogleClients implements AutoCloseable {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private AutoMlClient autoMlClient;
+    private PredictionServiceClient predictionServiceClient;
+    private Storage storage;
+
+    /**
+     * Latencies of the calls done with the clients
+     */
+    private final ApiMetrics metrics = new ApiMetrics();
+
+    public ApiMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the shared AutoMlClient
+     * @return
+     * @throws IOException
+     */
+    public synchronized AutoMlClient getAutoMlClient() throws IOException {
+        if (autoMlClient == null) {
+            // java.io.IOException: The Application Default Credentials are not available. They are available if running in Google Compute Engine.
+            // Otherwise, the environment variable GOOGLE_APPLICATION_CREDENTIALS must be defined pointing to a file defining the credentials (service-account.json).
+            // See https://developers.google.com/accounts/docs/application-default-credentials for more information.
+            autoMlClient = AutoMlClient.create();
+
+            /**
+             * Alternativa indicando el path del fichero de credenciales
+             AutoMlSettings autoMlSettings =
+             AutoMlSettings.newBuilder()
+             .setCredentialsProvider(FixedCredentialsProvider.create(GoogleCredentials.fromStream(new FileInputStream(jsonPath)))
+             .build();
+             AutoMlClient autoMlClient = AutoMlClient.create(autoMlSettings);
+             */
+        }
+        return autoMlClient;
+    }
+
+    /**
+     * Returns the shared PredictionServiceClient
+     * @return
+     * @throws IOException
+     */
+    public synchronized PredictionServiceClient getPredictionServiceClient() throws IOException {
+        if (predictionServiceClient == null) {
+            predictionServiceClient = PredictionServiceClient.create();
+        }
+        return predictionServiceClient;
+    }
+
+    /**
+     * Returns the shared Storage service
+     * @return
+     */
+    public synchronized Storage getStorage() {
+        if (storage == null) {
+            storage = StorageOptions.getDefaultInstance().getService();
+        }
+        return storage;
+    }
+
+    /**
+     * Shuts down the clients releasing channels and threads
+     */
+    @Override
+    public synchronized void close() {
+        if (autoMlClient != null) {
+            autoMlClient.shutdown();
+            awaitTermination(autoMlClient);
+            autoMlClient = null;
+        }
+        if (predictionServiceClient != null) {
+            predictionServiceClient.shutdown();
+            awaitTermination(predictionServiceClient);
+            predictionServiceClient = null;
+        }
+        // Storage is an HTTP client without resources to release
+        storage = null;
+    }
+
+    private void awaitTermination(BackgroundResource client) {
+        try {
+            if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                client.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            client.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
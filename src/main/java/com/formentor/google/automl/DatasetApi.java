@@ -2,16 +2,24 @@ package com.formentor.google.automl;
 
 // Imports the Google Cloud client library
 
+import com.formentor.google.CompletableFutures;
+import com.formentor.google.GoogleClients;
 import com.google.cloud.automl.v1beta1.*;
+import com.google.longrunning.Operation;
 import com.google.protobuf.Empty;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 public class DatasetApi {
 
+  private final GoogleClients clients;
+
+  public DatasetApi(GoogleClients clients) {
+    this.clients = clients;
+  }
+
   // [START automl_translate_create_dataset]
   /**
    * Create dataset
@@ -23,11 +31,11 @@ public class DatasetApi {
    * @param target the Target language
    * @throws IOException on Input/Output errors.
    */
-  public static Dataset createDataset(
+  public Dataset createDataset(
       String projectId, String computeRegion, String datasetName, String source, String target)
       throws IOException {
-    // Instantiates a client
-    AutoMlClient client = createAutoMlClient();
+    // Shared client
+    AutoMlClient client = clients.getAutoMlClient();
 
     // A resource that represents Google Cloud Platform location.
     LocationName projectLocation = LocationName.of(projectId, computeRegion);
@@ -47,7 +55,7 @@ public class DatasetApi {
             .build();
 
     // Create a dataset with the dataset metadata in the region.
-    Dataset dataset = client.createDataset(projectLocation, myDataset);
+    Dataset dataset = clients.getMetrics().time("DatasetApi.createDataset", () -> client.createDataset(projectLocation, myDataset));
 
     return dataset;
   }
@@ -59,10 +67,10 @@ public class DatasetApi {
    * @param filter the Filter expression.
    * @throws Exception on AutoML Client errors
    */
-  public static Iterable<Dataset> listDatasets(String projectId, String computeRegion, String filter)
+  public Iterable<Dataset> listDatasets(String projectId, String computeRegion, String filter)
           throws IOException {
-    // Instantiates a client
-    AutoMlClient client = createAutoMlClient();
+    // Shared client
+    AutoMlClient client = clients.getAutoMlClient();
 
     // A resource that represents Google Cloud Platform location.
     LocationName projectLocation = LocationName.of(projectId, computeRegion);
@@ -73,28 +81,37 @@ public class DatasetApi {
                     .setFilter(filter)
                     .build();
 
-    return client.listDatasets(request).iterateAll();
+    return clients.getMetrics().timeAll("DatasetApi.listDatasets", () -> client.listDatasets(request).iterateAll());
   }
 
   /**
-   * Return list of datasets with given displayname
+   * Return the translation dataset with exactly the given display name
+   * AutoML accepts duplicated display names, the oldest dataset is returned so every caller gets the same one.
    *
    * @param projectId the Google Cloud Project ID.
    * @param computeRegion the Region name. (e.g., "us-central1").
-   * @param displayName the Filter expression.
-   * @return
+   * @param displayName the display name of the dataset.
+   * @return the dataset or null if there is no dataset with the display name
    * @throws IOException
    */
-  public static List<Dataset> getDatasetByDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
-    List<Dataset> datasets = new ArrayList<>();
+  public Dataset getDatasetByExactDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
+    Dataset oldest = null;
 
-    for (Dataset dataset: listDatasets(projectId, computeRegion, "")) {
-      if (dataset.getDisplayName().contains(displayName)) {
-        datasets.add(dataset);
+    // Datasets can only be filtered by metadata, the display name is matched here
+    for (Dataset dataset: listDatasets(projectId, computeRegion, "translation_dataset_metadata:*")) {
+      if (dataset.getDisplayName().equals(displayName) && (oldest == null || isOlder(dataset, oldest))) {
+        oldest = dataset;
       }
     }
 
-    return datasets;
+    return oldest;
+  }
+
+  private static boolean isOlder(Dataset dataset, Dataset other) {
+    if (dataset.getCreateTime().getSeconds() != other.getCreateTime().getSeconds()) {
+      return dataset.getCreateTime().getSeconds() < other.getCreateTime().getSeconds();
+    }
+    return dataset.getCreateTime().getNanos() < other.getCreateTime().getNanos();
   }
 
   /**
@@ -105,55 +122,75 @@ public class DatasetApi {
    * @param datasetId the Id of the dataset.
    * @throws Exception on AutoML Client errors
    */
-  public static Dataset getDataset(String projectId, String computeRegion, String datasetId)
+  public Dataset getDataset(String projectId, String computeRegion, String datasetId)
           throws Exception {
-    // Instantiates a client
-    AutoMlClient client = AutoMlClient.create();
+    // Shared client
+    AutoMlClient client = clients.getAutoMlClient();
 
     // Get the complete path of the dataset.
     DatasetName datasetFullId = DatasetName.of(projectId, computeRegion, datasetId);
 
     // Get all the information about a given dataset.
-    return client.getDataset(datasetFullId);
+    return clients.getMetrics().time("DatasetApi.getDataset", () -> client.getDataset(datasetFullId));
   }
 
   /**
-   * Return the DatasetId of Dataset
-   * @param projectId
-   * @param computeRegion
-   * @param displayName
-   * @return
-   * @throws IOException
+   * Import sentence pairs to the dataset.
+   * Blocks until the import finishes, see {@link #importDataAsync} and {@link #startImportData}.
+   *
+   * @param projectId the Google Cloud Project ID.
+   * @param computeRegion the Region name. (e.g., "us-central1").
+   * @param datasetId the Id of the dataset.
+   * @param path the remote Path of the training data csv file.
+   * @throws Exception on AutoML Client errors
    */
-  public static String getDatasetIdByName(String projectId, String computeRegion, String displayName) throws IOException {
-    List<Dataset> datasets = new ArrayList<>();
-
-    for (Dataset dataset: listDatasets(projectId, computeRegion, "")) {
-      if (dataset.getDisplayName().contains(displayName)) {
-        datasets.add(dataset);
-      }
-    }
+  public Empty importData(
+          String projectId, String computeRegion, String datasetId, String path) throws Exception {
+    return importDataAsync(projectId, computeRegion, datasetId, path).get();
+  }
 
-    if (datasets != null && datasets.size() > 0) {
-      return datasets.get(0).getName().split("/")[datasets.get(0).getName().split("/").length - 1];
-    }
+  /**
+   * Import sentence pairs to the dataset without blocking.
+   *
+   * @param projectId the Google Cloud Project ID.
+   * @param computeRegion the Region name. (e.g., "us-central1").
+   * @param datasetId the Id of the dataset.
+   * @param path the remote Path of the training data csv file.
+   * @return future completed when the import finishes
+   * @throws IOException on Input/Output errors.
+   */
+  public CompletableFuture<Empty> importDataAsync(
+          String projectId, String computeRegion, String datasetId, String path) throws IOException {
+    // Shared client
+    AutoMlClient client = clients.getAutoMlClient();
 
-    return null;
+    return clients.getMetrics().time("DatasetApi.importData",
+            CompletableFutures.of(client.importDataAsync(buildImportDataRequest(projectId, computeRegion, datasetId, path))));
   }
+
   /**
-   * Import sentence pairs to the dataset.
+   * Starts the import of sentence pairs to the dataset.
+   * The import is a long running operation that is not polled by the client, its state is read with
+   * {@link OperationApi#getOperation(String)}.
    *
    * @param projectId the Google Cloud Project ID.
    * @param computeRegion the Region name. (e.g., "us-central1").
    * @param datasetId the Id of the dataset.
    * @param path the remote Path of the training data csv file.
-   * @throws Exception on AutoML Client errors
+   * @return future completed with the name of the operation once the import is accepted
+   * @throws IOException on Input/Output errors.
    */
-  public static Empty importData(
-          String projectId, String computeRegion, String datasetId, String path) throws Exception {
-    // Instantiates a client
-    AutoMlClient client = AutoMlClient.create();
+  public CompletableFuture<String> startImportData(
+          String projectId, String computeRegion, String datasetId, String path) throws IOException {
+    // Shared client
+    AutoMlClient client = clients.getAutoMlClient();
+
+    return clients.getMetrics().time("DatasetApi.startImportData",
+            CompletableFutures.of(client.importDataCallable().futureCall(buildImportDataRequest(projectId, computeRegion, datasetId, path))))
+            .thenApply(Operation::getName);
+  }
 
+  private ImportDataRequest buildImportDataRequest(String projectId, String computeRegion, String datasetId, String path) {
     // Get the complete path of the dataset.
     DatasetName datasetFullId = DatasetName.of(projectId, computeRegion, datasetId);
 
@@ -168,30 +205,9 @@ public class DatasetApi {
     // Import data from the input URI
     InputConfig inputConfig = InputConfig.newBuilder().setGcsSource(gcsSource).build();
 
-    Empty response = client.importDataAsync(datasetFullId, inputConfig).get();
-
-    return response;
-  }
-  /**
-   * Creates AutoMlClient
-   * @return
-   * @throws IOException
-   */
-  private static AutoMlClient createAutoMlClient() throws IOException {
-    // Instantiates a client
-    // java.io.IOException: The Application Default Credentials are not available. They are available if running in Google Compute Engine.
-    // Otherwise, the environment variable GOOGLE_APPLICATION_CREDENTIALS must be defined pointing to a file defining the credentials (service-account.json).
-    // See https://developers.google.com/accounts/docs/application-default-credentials for more information.
-    return AutoMlClient.create();
-
-    /**
-     * Alternativa indicando el path del fichero de credenciales
-     AutoMlSettings autoMlSettings =
-     AutoMlSettings.newBuilder()
-     .setCredentialsProvider(FixedCredentialsProvider.create(GoogleCredentials.fromStream(new FileInputStream(jsonPath)))
-     .build();
-     AutoMlClient autoMlClient = AutoMlClient.create(autoMlSettings);
-     */
-
+    return ImportDataRequest.newBuilder()
+            .setName(datasetFullId.toString())
+            .setInputConfig(inputConfig)
+            .build();
   }
 }
@@ -1,12 +1,21 @@
 package com.formentor.google.automl;
 
-import com.google.api.gax.longrunning.OperationFuture;
+import com.formentor.google.CompletableFutures;
+import com.formentor.google.GoogleClients;
 import com.google.cloud.automl.v1beta1.*;
+import com.google.longrunning.Operation;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public class ModelApi {
 
+    private final GoogleClients clients;
+
+    public ModelApi(GoogleClients clients) {
+        this.clients = clients;
+    }
+
     /**
      * Given a dataset create a model
      *
@@ -14,13 +23,56 @@ public class ModelApi {
      * @param computeRegion the Region name.
      * @param dataSetId the Id of the dataset to which model is created.
      * @param modelName the Name of the model.
+     * @return the name of the training operation
      * @throws Exception on AutoML Client errors
      */
-    public static String createModel(
+    public String createModel(
             String projectId, String computeRegion, String dataSetId, String modelName) throws Exception {
-        // Instantiates a client
-        AutoMlClient client = AutoMlClient.create();
+        return startCreateModel(projectId, computeRegion, dataSetId, modelName).get();
+    }
+
+    /**
+     * Given a dataset create a model without blocking
+     *
+     * @param projectId the Id of the project.
+     * @param computeRegion the Region name.
+     * @param dataSetId the Id of the dataset to which model is created.
+     * @param modelName the Name of the model.
+     * @return future completed with the model once it is trained
+     * @throws IOException on Input/Output errors.
+     */
+    public CompletableFuture<Model> createModelAsync(
+            String projectId, String computeRegion, String dataSetId, String modelName) throws IOException {
+        // Shared client
+        AutoMlClient client = clients.getAutoMlClient();
 
+        return clients.getMetrics().time("ModelApi.createModel",
+                CompletableFutures.of(client.createModelAsync(buildCreateModelRequest(projectId, computeRegion, dataSetId, modelName))));
+    }
+
+    /**
+     * Given a dataset starts the training of a model.
+     * The training is a long running operation that is not polled by the client, its state is read with
+     * {@link OperationApi#getOperation(String)}.
+     *
+     * @param projectId the Id of the project.
+     * @param computeRegion the Region name.
+     * @param dataSetId the Id of the dataset to which model is created.
+     * @param modelName the Name of the model.
+     * @return future completed with the name of the operation once the training is accepted
+     * @throws IOException on Input/Output errors.
+     */
+    public CompletableFuture<String> startCreateModel(
+            String projectId, String computeRegion, String dataSetId, String modelName) throws IOException {
+        // Shared client
+        AutoMlClient client = clients.getAutoMlClient();
+
+        return clients.getMetrics().time("ModelApi.startCreateModel",
+                CompletableFutures.of(client.createModelCallable().futureCall(buildCreateModelRequest(projectId, computeRegion, dataSetId, modelName))))
+                .thenApply(Operation::getName);
+    }
+
+    private CreateModelRequest buildCreateModelRequest(String projectId, String computeRegion, String dataSetId, String modelName) {
         // A resource that represents Google Cloud Platform location.
         LocationName projectLocation = LocationName.of(projectId, computeRegion);
 
@@ -43,10 +95,10 @@ public class ModelApi {
                         .build();
 
         // Create a model with the model metadata in the region.
-        OperationFuture<Model, OperationMetadata> response =
-                client.createModelAsync(projectLocation, myModel);
-
-        return response.getInitialFuture().get().getName();
+        return CreateModelRequest.newBuilder()
+                .setParent(projectLocation.toString())
+                .setModel(myModel)
+                .build();
     }
 
     /**
@@ -57,10 +109,10 @@ public class ModelApi {
      * @param filter the filter expression.
      * @throws IOException on Input/Output errors.
      */
-    public static Iterable<Model> listModels(String projectId, String computeRegion, String filter)
+    public Iterable<Model> listModels(String projectId, String computeRegion, String filter)
             throws IOException {
-        // Instantiates a client
-        AutoMlClient client = AutoMlClient.create();
+        // Shared client
+        AutoMlClient client = clients.getAutoMlClient();
 
         // A resource that represents Google Cloud Platform location.
         LocationName projectLocation = LocationName.of(projectId, computeRegion);
@@ -73,11 +125,11 @@ public class ModelApi {
                         .build();
 
         // List all the models available in the region by applying filter.
-        return client.listModels(listModlesRequest).iterateAll();
+        return clients.getMetrics().timeAll("ModelApi.listModels", () -> client.listModels(listModlesRequest).iterateAll());
     }
 
-    public static Model getModelByDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
-        Iterable<Model> models = ModelApi.listModels(projectId, computeRegion, "");
+    public Model getModelByDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
+        Iterable<Model> models = listModels(projectId, computeRegion, "");
 
         for (Model model : models) {
             if (displayName.equals(model.getDisplayName())) {
@@ -96,10 +148,10 @@ public class ModelApi {
      * @param filter the filter expression.
      * @throws IOException on Input/Output errors.
      */
-    public static Iterable<ModelEvaluation> listModelEvaluations(
+    public Iterable<ModelEvaluation> listModelEvaluations(
             String projectId, String computeRegion, String modelId, String filter) throws IOException {
-        // Instantiates a client
-        AutoMlClient client = AutoMlClient.create();
+        // Shared client
+        AutoMlClient client = clients.getAutoMlClient();
 
         // Get the full path of the model.
         ModelName modelFullId = ModelName.of(projectId, computeRegion, modelId);
@@ -112,7 +164,7 @@ public class ModelApi {
                         .build();
 
         // List all the model evaluations in the model by applying filter.
-        return client.listModelEvaluations(modelEvaluationsrequest).iterateAll();
+        return clients.getMetrics().timeAll("ModelApi.listModelEvaluations", () -> client.listModelEvaluations(modelEvaluationsrequest).iterateAll());
     }
 
 }
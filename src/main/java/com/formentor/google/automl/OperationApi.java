@@ -0,0 +1,30 @@
+package com.formentor.google.automl;
+
+import com.formentor.google.GoogleClients;
+import com.google.cloud.automl.v1beta1.AutoMlClient;
+import com.google.longrunning.Operation;
+
+import java.io.IOException;
+
+public class OperationApi {
+
+    private final GoogleClients clients;
+
+    public OperationApi(GoogleClients clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Get the state of a long running operation (dataset import, model training...)
+     *
+     * @param operationName the full name of the operation, projects/{project_id}/locations/{location_id}/operations/{operation_id}
+     * @return the operation, done when it finished with an error or a response
+     * @throws IOException on Input/Output errors.
+     */
+    public Operation getOperation(String operationName) throws IOException {
+        // Shared client
+        AutoMlClient client = clients.getAutoMlClient();
+
+        return clients.getMetrics().time("OperationApi.getOperation", () -> client.getOperationsClient().getOperation(operationName));
+    }
+}
@@ -1,18 +1,31 @@
 package com.formentor.google.automl;
 
+import com.formentor.google.CompletableFutures;
+import com.formentor.google.GoogleClients;
 import com.google.cloud.automl.v1beta1.*;
+import com.google.longrunning.Operation;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class PredictionApi {
 
-    public static String predict(
+    private final GoogleClients clients;
+    private final ModelApi modelApi;
+
+    public PredictionApi(GoogleClients clients, ModelApi modelApi) {
+        this.clients = clients;
+        this.modelApi = modelApi;
+    }
+
+    public String predict(
             String projectId, String computeRegion, String modelId, String content) throws IOException {
 
-        // Instantiate client for prediction service.
-        PredictionServiceClient predictionClient = PredictionServiceClient.create();
+        // Shared client for prediction service.
+        PredictionServiceClient predictionClient = clients.getPredictionServiceClient();
 
         // Get the full path of the model.
         ModelName name = ModelName.of(projectId, computeRegion, modelId);
@@ -25,17 +38,46 @@ public class PredictionApi {
         // Additional parameters that can be provided for prediction
         Map<String, String> params = new HashMap<>();
 
-        PredictResponse response = predictionClient.predict(name, payload, params);
+        PredictResponse response = clients.getMetrics().time("PredictionApi.predict", () -> predictionClient.predict(name, payload, params));
         TextSnippet translatedContent = response.getPayload(0).getTranslation().getTranslatedContent();
 
         return translatedContent.getContent();
 
     }
 
-    public static String predictByModelDisplayName(
+    /**
+     * Starts a batch prediction of the files listed by the input files, the translations are written to outputUriPrefix
+     *
+     * @param projectId the Id of the project.
+     * @param computeRegion the Region name.
+     * @param modelId the Id of the model.
+     * @param inputUris gs:// uris of the .csv files that list the .txt files to translate
+     * @param outputUriPrefix gs:// uri of the directory of the translations
+     * @return future completed with the name of the long running operation, the operation is not polled
+     * @throws IOException on Input/Output errors.
+     */
+    public CompletableFuture<String> startBatchPredict(
+            String projectId, String computeRegion, String modelId, List<String> inputUris, String outputUriPrefix) throws IOException {
+        // Shared client for prediction service.
+        PredictionServiceClient predictionClient = clients.getPredictionServiceClient();
+
+        BatchPredictRequest request = BatchPredictRequest.newBuilder()
+                .setName(ModelName.of(projectId, computeRegion, modelId).toString())
+                .setInputConfig(BatchPredictInputConfig.newBuilder()
+                        .setGcsSource(GcsSource.newBuilder().addAllInputUris(inputUris)))
+                .setOutputConfig(BatchPredictOutputConfig.newBuilder()
+                        .setGcsDestination(GcsDestination.newBuilder().setOutputUriPrefix(outputUriPrefix)))
+                .build();
+
+        return clients.getMetrics().time("PredictionApi.startBatchPredict",
+                CompletableFutures.of(predictionClient.batchPredictCallable().futureCall(request)))
+                .thenApply(Operation::getName);
+    }
+
+    public String predictByModelDisplayName(
             String projectId, String computeRegion, String modelDisplayName, String content) throws IOException {
         // Get model by displayName
-        final Model model = ModelApi.getModelByDisplayName(projectId, computeRegion, modelDisplayName);
+        final Model model = modelApi.getModelByDisplayName(projectId, computeRegion, modelDisplayName);
 
         if (model == null) {
             return null;
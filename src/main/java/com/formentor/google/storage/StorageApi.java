@@ -1,52 +1,129 @@
 package com.formentor.google.storage;
 
+import com.formentor.google.GoogleClients;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+@Slf4j
 public class StorageApi {
 
+    private final GoogleClients clients;
+
+    public StorageApi(GoogleClients clients) {
+        this.clients = clients;
+    }
+
     /**
      * Creates a bucket
      * @param bucketName The name for the new bucket
      * @return
      */
-    public static Bucket createBucket(String bucketName) {
-        // Instantiates a client
-        // java.io.IOException: The Application Default Credentials are not available. They are available if running in Google Compute Engine.
-        // Otherwise, the environment variable GOOGLE_APPLICATION_CREDENTIALS must be defined pointing to a file defining the credentials (service-account.json).
-        // See https://developers.google.com/accounts/docs/application-default-credentials for more information.
-        Storage storage = StorageOptions.getDefaultInstance().getService();
+    public Bucket createBucket(String bucketName) {
+        Storage storage = clients.getStorage();
 
         // Creates the new bucket
-        Bucket bucket = storage.create(BucketInfo.of(bucketName));
+        Bucket bucket = clients.getMetrics().time("StorageApi.createBucket", () -> storage.create(BucketInfo.of(bucketName)));
 
-        System.out.printf("Bucket %s created.%n", bucket.getName());
+        log.info("StorageApi - bucket {} created", bucket.getName());
 
         return bucket;
     }
 
-    public static Blob createBlob(String bucketName, String blobName, String content) {
-        Storage storage = StorageOptions.getDefaultInstance().getService();
+    public Blob createBlob(String bucketName, String blobName, String content) {
+        Storage storage = clients.getStorage();
         BlobId blobId = BlobId.of(bucketName, blobName);
         BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
                 .setContentType("text/plain")
                 // Modify access list to allow all users with link to read file
                 // .setAcl(new ArrayList<>(Arrays.asList(Acl.of(User.ofAllUsers(), Role.READER))))
                 .build();
-        Blob blob = storage.create(blobInfo, content.getBytes(UTF_8));
+        Blob blob = clients.getMetrics().time("StorageApi.createBlob", () -> storage.create(blobInfo, content.getBytes(UTF_8)));
         return blob;
     }
 
-    public static Bucket getBucketByName(String bucketName) {
-        Storage storage = StorageOptions.getDefaultInstance().getService();
-        for (Bucket bucket: storage.list().iterateAll()) {
-            if (bucketName.equals(bucket.getName())) {
-                return bucket;
-            }
+    /**
+     * Opens a resumable upload to the blob, content is sent in chunks of chunkSize bytes
+     * @param bucketName The name of the bucket
+     * @param blobName The name of the blob
+     * @param contentType The content type of the blob
+     * @param contentEncoding The content encoding of the blob, i.e. gzip, or null
+     * @param chunkSize Size of the chunks, it is rounded up to a multiple of 256KB
+     * @return channel to write the content, the upload completes when it is closed
+     */
+    public WriteChannel createBlobWriter(String bucketName, String blobName, String contentType, String contentEncoding, int chunkSize) {
+        Storage storage = clients.getStorage();
+        BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, blobName))
+                .setContentType(contentType)
+                .setContentEncoding(contentEncoding)
+                .build();
+        WriteChannel writer = clients.getMetrics().time("StorageApi.createBlobWriter", () -> storage.writer(blobInfo));
+        writer.setChunkSize(chunkSize);
+        return writer;
+    }
+
+    /**
+     * Gets a blob
+     * @param bucketName The name of the bucket
+     * @param blobName The name of the blob
+     * @return the blob or null if it does not exist
+     */
+    public Blob getBlob(String bucketName, String blobName) {
+        Storage storage = clients.getStorage();
+        return clients.getMetrics().time("StorageApi.getBlob", () -> storage.get(BlobId.of(bucketName, blobName)));
+    }
+
+    /**
+     * Opens a blob to read its content
+     * @param bucketName The name of the bucket
+     * @param blobName The name of the blob
+     * @return channel to read the content
+     */
+    public ReadChannel createBlobReader(String bucketName, String blobName) {
+        Storage storage = clients.getStorage();
+        return clients.getMetrics().time("StorageApi.createBlobReader", () -> storage.reader(BlobId.of(bucketName, blobName)));
+    }
+
+    /**
+     * Lists the names of the blobs that start with prefix
+     * @param bucketName The name of the bucket
+     * @param prefix The prefix of the names
+     * @return
+     */
+    public List<String> listBlobNames(String bucketName, String prefix) {
+        Storage storage = clients.getStorage();
+        List<String> names = new ArrayList<>();
+        for (Blob blob : clients.getMetrics().timeAll("StorageApi.listBlobs", () -> storage.list(bucketName, Storage.BlobListOption.prefix(prefix)).iterateAll())) {
+            names.add(blob.getName());
         }
+        return names;
+    }
 
-        return null;
+    /**
+     * Deletes a blob
+     * @param bucketName The name of the bucket
+     * @param blobName The name of the blob
+     * @return true if the blob was deleted
+     */
+    public boolean deleteBlob(String bucketName, String blobName) {
+        Storage storage = clients.getStorage();
+        return clients.getMetrics().time("StorageApi.deleteBlob", () -> storage.delete(BlobId.of(bucketName, blobName)));
+    }
+
+    /**
+     * Gets a bucket with a single request instead of listing the buckets of the project
+     * @param bucketName The name of the bucket
+     * @return the bucket or null if it does not exist
+     */
+    public Bucket getBucketByName(String bucketName) {
+        Storage storage = clients.getStorage();
+        return clients.getMetrics().time("StorageApi.getBucket", () -> storage.get(bucketName));
     }
 
 }
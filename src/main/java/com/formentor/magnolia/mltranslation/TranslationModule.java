@@ -1,12 +1,241 @@
 package com.formentor.magnolia.mltranslation;
 
+import com.formentor.magnolia.mltranslation.backend.GoogleBackend;
+import com.formentor.magnolia.mltranslation.backend.ResourceRegistry;
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.memory.TranslationMemory;
+import com.formentor.magnolia.mltranslation.metrics.ApiLatency;
+import com.formentor.magnolia.mltranslation.metrics.ImportTrainingMetrics;
+import com.formentor.magnolia.mltranslation.metrics.JmxRegistry;
+import com.formentor.magnolia.mltranslation.metrics.PredictionMetrics;
+import com.formentor.magnolia.mltranslation.metrics.TranslationMemoryMetrics;
+import com.formentor.magnolia.mltranslation.observation.AutoTranslator;
+import com.formentor.magnolia.mltranslation.operation.OperationTracker;
+import com.formentor.magnolia.mltranslation.prediction.ModelResolver;
+import com.formentor.magnolia.mltranslation.prediction.PredictionLimiter;
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
+import com.formentor.magnolia.mltranslation.prediction.TranslationCache;
+import com.formentor.magnolia.mltranslation.prediction.TranslationStore;
+import info.magnolia.init.MagnoliaConfigurationProperties;
+import info.magnolia.module.ModuleLifecycle;
+import info.magnolia.module.ModuleLifecycleContext;
+import info.magnolia.objectfactory.Components;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class is optional and represents the configuration for the magnolia-content-translation-ml module.
  * By exposing simple getter/setter/adder methods, this bean can be configured via content2bean
  * using the properties and node from <tt>config:/modules/magnolia-content-translation-ml</tt>.
  * If you don't need this, simply remove the reference to this class in the module descriptor xml.
+ *
+ * The module owns the {@link TranslationBackend}, Google Cloud by default, it is started on start and closed on stop
+ * so every command shares the same clients instead of opening a new one per call.
+ * The metrics of the module are registered as MBeans of the domain {@link JmxRegistry#DOMAIN}.
  */
-public class TranslationModule {
-    /* you can optionally implement info.magnolia.module.ModuleLifecycle */
+@Slf4j
+@Getter
+public class TranslationModule implements ModuleLifecycle {
+
+    /**
+     * Maximum number of predicted translations kept in memory
+     */
+    @Setter
+    private long cacheMaxSize = 10000;
+
+    /**
+     * Seconds a predicted translation is cached, 0 to keep it until evicted
+     */
+    @Setter
+    private long cacheTtlSeconds = 0;
+
+    /**
+     * Seconds the id of a model resolved by display name is kept
+     */
+    @Setter
+    private long modelCacheTtlSeconds = 3600;
+
+    /**
+     * Seconds after which the id of a model is refreshed in background
+     */
+    @Setter
+    private long modelRefreshSeconds = 300;
+
+    /**
+     * Seconds between the first polls of a long running operation (dataset import, model training)
+     */
+    @Setter
+    private long operationPollSeconds = 30;
+
+    /**
+     * Maximum seconds between polls of a long running operation
+     */
+    @Setter
+    private long operationMaxPollSeconds = 600;
+
+    /**
+     * Runs of the actions of a succeeded operation (store the watermark, train the model...) before it is stored as failed
+     */
+    @Setter
+    private int operationMaxAttempts = 5;
+
+    /**
+     * Days finished operations are kept, 0 to keep them
+     */
+    @Setter
+    private int operationRetentionDays = 30;
+
+    /**
+     * Shards of training data uploaded at the same time by all the imports
+     */
+    @Setter
+    private int uploadThreads = 4;
+
+    /**
+     * Threads of the predictions of many texts, shared by all the commands
+     */
+    @Setter
+    private int predictionThreads = 16;
+
+    /**
+     * Storage, AutoML and prediction, {@link com.formentor.magnolia.mltranslation.backend.LocalBackend} to work without Google Cloud
+     */
+    @Setter
+    private TranslationBackend backend = new GoogleBackend();
+
+    /**
+     * Rate limit, adaptive concurrency, retries and hedging of the predictions
+     */
+    @Setter
+    private PredictionLimiter predictionLimiter = new PredictionLimiter();
+
+    /**
+     * Predicted translations kept on disk across restarts
+     */
+    @Setter
+    private TranslationStore translationStore = new TranslationStore();
+
+    /**
+     * Translations of the imported contents served before asking the model
+     */
+    @Setter
+    private TranslationMemory translationMemory = new TranslationMemory();
+
+    /**
+     * Background translation of the contents changed under the configured watches
+     */
+    @Setter
+    private AutoTranslator autoTranslator = new AutoTranslator();
+
+    private ResourceRegistry resourceRegistry;
+
+    private ExecutorService uploadExecutor;
+
+    private ExecutorService predictionExecutor;
+
+    private ModelResolver modelResolver;
+
+    private PredictionService predictionService;
+
+    private OperationTracker operationTracker;
+
+    /**
+     * Counters of the imports, kept when the module restarts after a change of configuration
+     */
+    private final ImportTrainingMetrics importTrainingMetrics = new ImportTrainingMetrics();
+
+    private final JmxRegistry jmxRegistry = new JmxRegistry();
+
+    @Override
+    public void start(ModuleLifecycleContext moduleLifecycleContext) {
+        // start() is also called when the configuration of the module changes
+        shutdown();
+
+        backend.start();
+        resourceRegistry = new ResourceRegistry(backend);
+        final AtomicInteger uploadThreadCount = new AtomicInteger();
+        uploadExecutor = Executors.newFixedThreadPool(Math.max(uploadThreads, 1), (runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-upload-" + uploadThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger predictionThreadCount = new AtomicInteger();
+        predictionExecutor = Executors.newFixedThreadPool(Math.max(predictionThreads, 1), (runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-prediction-" + predictionThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        modelResolver = new ModelResolver(backend, modelCacheTtlSeconds, modelRefreshSeconds);
+        predictionLimiter.start();
+        translationMemory.start();
+        translationStore.start();
+        predictionService = new PredictionService(backend, modelResolver, new TranslationCache(cacheMaxSize, cacheTtlSeconds),
+                translationStore, predictionLimiter, predictionExecutor);
+        operationTracker = new OperationTracker(backend, predictionService, operationPollSeconds, operationMaxPollSeconds,
+                operationMaxAttempts, operationRetentionDays);
+        operationTracker.start();
+        autoTranslator.start(predictionService);
+
+        jmxRegistry.register("ApiLatency", new ApiLatency(backend.getMetrics()));
+        jmxRegistry.register("ImportTraining", importTrainingMetrics);
+        jmxRegistry.register("Prediction", new PredictionMetrics(predictionService));
+        jmxRegistry.register("TranslationMemory", new TranslationMemoryMetrics(translationMemory));
+        log.info("TranslationModule started");
+    }
+
+    @Override
+    public void stop(ModuleLifecycleContext moduleLifecycleContext) {
+        shutdown();
+        log.info("TranslationModule stopped");
+    }
+
+    /**
+     * Returns the directory of files of the module kept across restarts, under the Magnolia home
+     * (<tt>magnolia.home</tt>, the webapp directory if not set) unlike java.io.tmpdir that the OS may clean
+     * @param name
+     * @return
+     */
+    public static Path getDataDirectory(String name) {
+        final String home = Components.getComponent(MagnoliaConfigurationProperties.class).getProperty("magnolia.home");
+        final Path root = (home != null && !home.isEmpty()) ? Paths.get(home) : info.magnolia.cms.core.Path.getAppRootDir().toPath();
+        return root.resolve("translationml").resolve(name);
+    }
 
+    private void shutdown() {
+        jmxRegistry.unregisterAll();
+        autoTranslator.close();
+        if (operationTracker != null) {
+            operationTracker.close();
+            operationTracker = null;
+        }
+        if (modelResolver != null) {
+            modelResolver.close();
+            modelResolver = null;
+        }
+        predictionLimiter.close();
+        translationStore.close();
+        if (uploadExecutor != null) {
+            // Uploads already queued complete, the commands waiting for them would never return otherwise
+            uploadExecutor.shutdown();
+            uploadExecutor = null;
+        }
+        if (predictionExecutor != null) {
+            // Queued predictions are cancelled, the commands waiting for them leave their texts out
+            predictionExecutor.shutdownNow().forEach((task) -> ((Future<?>) task).cancel(false));
+            predictionExecutor = null;
+        }
+        try {
+            backend.close();
+        } catch (Exception e) {
+            log.warn("TranslationModule - unable to close the backend", e);
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package com.formentor.magnolia.mltranslation.backend;
+
+import com.formentor.google.ApiMetrics;
+import com.formentor.google.GoogleClients;
+import com.formentor.google.automl.DatasetApi;
+import com.formentor.google.automl.ModelApi;
+import com.formentor.google.automl.OperationApi;
+import com.formentor.google.automl.PredictionApi;
+import com.formentor.google.storage.StorageApi;
+import com.google.cloud.automl.v1beta1.Dataset;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.automl.v1beta1.Model;
+import com.google.longrunning.Operation;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backend of Google Cloud: AutoML Translation and Cloud Storage.
+ *
+ * The clients are created on start and shared by every call until close.
+ */
+@Getter
+public class GoogleBackend implements TranslationBackend {
+
+    private volatile GoogleClients googleClients;
+
+    private DatasetApi datasetApi;
+
+    private ModelApi modelApi;
+
+    private PredictionApi predictionApi;
+
+    private OperationApi operationApi;
+
+    private StorageApi storageApi;
+
+    @Override
+    public synchronized void start() {
+        googleClients = new GoogleClients();
+        datasetApi = new DatasetApi(googleClients);
+        modelApi = new ModelApi(googleClients);
+        predictionApi = new PredictionApi(googleClients, modelApi);
+        operationApi = new OperationApi(googleClients);
+        storageApi = new StorageApi(googleClients);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (googleClients != null) {
+            googleClients.close();
+            googleClients = null;
+        }
+    }
+
+    /**
+     * Returns the latencies of the clients, none before start and after close
+     * @return
+     */
+    @Override
+    public ApiMetrics getMetrics() {
+        final GoogleClients clients = googleClients;
+        return (clients != null) ? clients.getMetrics() : new ApiMetrics();
+    }
+
+    @Override
+    public boolean bucketExists(String bucketName) {
+        return storageApi.getBucketByName(bucketName) != null;
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        storageApi.createBucket(bucketName);
+    }
+
+    @Override
+    public void createBlob(String bucketName, String blobName, String content) {
+        storageApi.createBlob(bucketName, blobName, content);
+    }
+
+    @Override
+    public WritableByteChannel createBlobWriter(String bucketName, String blobName, String contentType, String contentEncoding, int chunkSize) {
+        return storageApi.createBlobWriter(bucketName, blobName, contentType, contentEncoding, chunkSize);
+    }
+
+    @Override
+    public String getBlobMd5(String bucketName, String blobName) {
+        final Blob blob = storageApi.getBlob(bucketName, blobName);
+        return (blob != null) ? blob.getMd5() : null;
+    }
+
+    @Override
+    public boolean deleteBlob(String bucketName, String blobName) {
+        return storageApi.deleteBlob(bucketName, blobName);
+    }
+
+    @Override
+    public ReadableByteChannel createBlobReader(String bucketName, String blobName) {
+        return storageApi.createBlobReader(bucketName, blobName);
+    }
+
+    @Override
+    public List<String> listBlobNames(String bucketName, String prefix) {
+        return storageApi.listBlobNames(bucketName, prefix);
+    }
+
+    @Override
+    public Dataset getDatasetByDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
+        return datasetApi.getDatasetByExactDisplayName(projectId, computeRegion, displayName);
+    }
+
+    @Override
+    public Dataset createDataset(String projectId, String computeRegion, String displayName, String source, String target) throws IOException {
+        return datasetApi.createDataset(projectId, computeRegion, displayName, source, target);
+    }
+
+    @Override
+    public CompletableFuture<String> startImportData(String projectId, String computeRegion, String datasetId, String path) throws IOException {
+        return datasetApi.startImportData(projectId, computeRegion, datasetId, path);
+    }
+
+    @Override
+    public CompletableFuture<String> startCreateModel(String projectId, String computeRegion, String datasetId, String modelName) throws IOException {
+        return modelApi.startCreateModel(projectId, computeRegion, datasetId, modelName);
+    }
+
+    @Override
+    public Model getModelByDisplayName(String projectId, String computeRegion, String displayName) throws IOException {
+        return modelApi.getModelByDisplayName(projectId, computeRegion, displayName);
+    }
+
+    @Override
+    public Operation getOperation(String operationName) throws IOException {
+        return operationApi.getOperation(operationName);
+    }
+
+    @Override
+    public String predict(String projectId, String computeRegion, String modelId, String content) throws IOException {
+        return predictionApi.predict(projectId, computeRegion, modelId, content);
+    }
+
+    @Override
+    public CompletableFuture<String> startBatchPredict(String projectId, String computeRegion, String modelId, List<String> inputUris, String outputUriPrefix) throws IOException {
+        return predictionApi.startBatchPredict(projectId, computeRegion, modelId, inputUris, outputUriPrefix);
+    }
+}
@@ -0,0 +1,661 @@
+package com.formentor.magnolia.mltranslation.backend;
+
+import com.formentor.google.ApiMetrics;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.cloud.automl.v1beta1.Dataset;
+import com.google.cloud.automl.v1beta1.Model;
+import com.google.cloud.automl.v1beta1.TranslationDatasetMetadata;
+import com.google.cloud.automl.v1beta1.TranslationModelMetadata;
+import com.google.longrunning.Operation;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * In process backend to develop and load-test the module without Google Cloud.
+ *
+ * Blobs are files of storageDirectory, datasets, models and operations are kept in memory, imports and trainings
+ * finish operationSeconds after they start and predictions are a deterministic pseudo-translation: the text with
+ * accented vowels prefixed by the target language, i.e. "[de] Hélló wórld".
+ *
+ * Every call waits a latency drawn from latencyDistribution and fails with probability errorRate with an
+ * {@link ApiException} of errorCode, as the Google clients do.
+ */
+@Slf4j
+@Getter
+public class LocalBackend implements TranslationBackend {
+
+    public static final String LATENCY_NONE = "none";
+    public static final String LATENCY_FIXED = "fixed";
+    public static final String LATENCY_UNIFORM = "uniform";
+    public static final String LATENCY_EXPONENTIAL = "exponential";
+    public static final String LATENCY_LOGNORMAL = "lognormal";
+
+    /**
+     * Directory of storageDirectory with the uploads in progress, out of the buckets
+     */
+    private static final String UPLOADS_DIRECTORY = ".uploads";
+
+    /**
+     * Directory of the buckets
+     */
+    @Setter
+    private String storageDirectory = System.getProperty("java.io.tmpdir") + "/translationml-local";
+
+    /**
+     * Distribution of the latency of the calls: none, fixed, uniform (0 to 2 * latencyMillis), exponential or lognormal
+     */
+    @Setter
+    private String latencyDistribution = LATENCY_NONE;
+
+    /**
+     * Mean latency of fixed, uniform and exponential, median of lognormal
+     */
+    @Setter
+    private double latencyMillis = 50;
+
+    /**
+     * Shape of lognormal, 1 gives a p99 ten times the median
+     */
+    @Setter
+    private double latencySigma = 0.5;
+
+    /**
+     * Probability of failure of a call, from 0 to 1
+     */
+    @Setter
+    private double errorRate = 0;
+
+    /**
+     * gRPC status code of the failures, i.e. UNAVAILABLE, RESOURCE_EXHAUSTED, DEADLINE_EXCEEDED
+     */
+    @Setter
+    private String errorCode = Status.Code.UNAVAILABLE.name();
+
+    /**
+     * Seconds until an import or training finishes
+     */
+    @Setter
+    private long operationSeconds = 5;
+
+    /**
+     * Unknown models are created on lookup, so predictions can be load-tested without training
+     */
+    @Setter
+    private boolean autoCreateModels = true;
+
+    /**
+     * Seed of latencies and failures, 0 for a random seed
+     */
+    @Setter
+    private long seed = 0;
+
+    private final ApiMetrics metrics = new ApiMetrics();
+
+    private final Map<String, Dataset> datasets = new ConcurrentHashMap<>();
+    private final Map<String, Model> models = new ConcurrentHashMap<>();
+    private final Map<String, LocalOperation> operations = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(System.currentTimeMillis());
+
+    private Random random;
+    private Path storageRoot;
+
+    @Override
+    public void start() {
+        random = (seed != 0) ? new Random(seed) : new Random();
+        storageRoot = Paths.get(storageDirectory);
+        log.info("LocalBackend - storage at {}, latency {} {} ms, error rate {}", storageRoot, latencyDistribution, latencyMillis, errorRate);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, files are kept
+    }
+
+    @Override
+    public boolean bucketExists(String bucketName) {
+        return call("StorageApi.getBucketByName", () -> Files.isDirectory(storageRoot.resolve(bucketName)));
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        call("StorageApi.createBucket", () -> createDirectories(storageRoot.resolve(bucketName)));
+    }
+
+    @Override
+    public void createBlob(String bucketName, String blobName, String content) {
+        call("StorageApi.createBlob", () -> {
+            final Path blob = resolveBlob(bucketName, blobName);
+            try {
+                createDirectories(blob.getParent());
+                return Files.write(blob, content.getBytes(UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public WritableByteChannel createBlobWriter(String bucketName, String blobName, String contentType, String contentEncoding, int chunkSize) {
+        return call("StorageApi.createBlobWriter", () -> {
+            final Path blob = resolveBlob(bucketName, blobName);
+            try {
+                createDirectories(blob.getParent());
+                return new LocalUpload(Files.createTempFile(createDirectories(storageRoot.resolve(UPLOADS_DIRECTORY)), "upload-", ".tmp"), blob);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public String getBlobMd5(String bucketName, String blobName) {
+        return call("StorageApi.getBlob", () -> {
+            final Path blob = resolveBlob(bucketName, blobName);
+            if (!Files.isRegularFile(blob)) {
+                return null;
+            }
+            try {
+                return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(blob)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean deleteBlob(String bucketName, String blobName) {
+        return call("StorageApi.deleteBlob", () -> {
+            try {
+                return Files.deleteIfExists(resolveBlob(bucketName, blobName));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public ReadableByteChannel createBlobReader(String bucketName, String blobName) {
+        return call("StorageApi.createBlobReader", () -> {
+            try {
+                return FileChannel.open(resolveBlob(bucketName, blobName), StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public List<String> listBlobNames(String bucketName, String prefix) {
+        return call("StorageApi.listBlobs", () -> {
+            final Path bucket = storageRoot.resolve(bucketName);
+            if (!Files.isDirectory(bucket)) {
+                return new ArrayList<>();
+            }
+            try (Stream<Path> files = Files.walk(bucket)) {
+                return files.filter(Files::isRegularFile)
+                        .map((file) -> bucket.relativize(file).toString().replace('\\', '/'))
+                        .filter((name) -> name.startsWith(prefix))
+                        .sorted()
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public Dataset getDatasetByDisplayName(String projectId, String computeRegion, String displayName) {
+        return call("DatasetApi.listDatasets", () -> datasets.values().stream()
+                .filter((dataset) -> dataset.getName().startsWith(locationName(projectId, computeRegion)) && dataset.getDisplayName().equals(displayName))
+                .min(Comparator.comparingLong((Dataset dataset) -> dataset.getCreateTime().getSeconds())
+                        .thenComparingInt((dataset) -> dataset.getCreateTime().getNanos())
+                        .thenComparing(Dataset::getName))
+                .orElse(null));
+    }
+
+    @Override
+    public Dataset createDataset(String projectId, String computeRegion, String displayName, String source, String target) {
+        return call("DatasetApi.createDataset", () -> {
+            final Dataset dataset = Dataset.newBuilder()
+                    .setName(locationName(projectId, computeRegion) + "/datasets/TRL" + ids.incrementAndGet())
+                    .setDisplayName(displayName)
+                    .setCreateTime(now())
+                    .setTranslationDatasetMetadata(TranslationDatasetMetadata.newBuilder()
+                            .setSourceLanguageCode(source)
+                            .setTargetLanguageCode(target))
+                    .build();
+            datasets.put(dataset.getName(), dataset);
+            return dataset;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> startImportData(String projectId, String computeRegion, String datasetId, String path) {
+        return callAsync("DatasetApi.startImportData", () -> {
+            final String datasetName = locationName(projectId, computeRegion) + "/datasets/" + datasetId;
+            final LocalOperation operation = startOperation(projectId, computeRegion);
+            if (!datasets.containsKey(datasetName)) {
+                operation.fail(Status.Code.NOT_FOUND, "Dataset " + datasetName + " not found");
+                return operation.getName();
+            }
+            long examples = 0;
+            for (String csv : path.split(",")) {
+                try {
+                    for (String line : Files.readAllLines(resolveUri(csv), UTF_8)) {
+                        final String[] columns = line.split(",");
+                        try (BufferedReader tsv = openBlob(resolveUri(columns[columns.length - 1]))) {
+                            examples += tsv.lines().count();
+                        }
+                    }
+                } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                    operation.fail(Status.Code.INVALID_ARGUMENT, "Unable to read " + csv + ": " + e.getMessage());
+                    return operation.getName();
+                }
+            }
+            final long importedExamples = examples;
+            operation.succeed(() -> {
+                datasets.computeIfPresent(datasetName, (name, current) -> current.toBuilder()
+                        .setExampleCount(current.getExampleCount() + (int) importedExamples)
+                        .build());
+                return Any.pack(Empty.getDefaultInstance());
+            });
+            return operation.getName();
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> startCreateModel(String projectId, String computeRegion, String datasetId, String modelName) {
+        return callAsync("ModelApi.startCreateModel", () -> {
+            final Dataset dataset = datasets.get(locationName(projectId, computeRegion) + "/datasets/" + datasetId);
+            final LocalOperation operation = startOperation(projectId, computeRegion);
+            if (dataset == null) {
+                operation.fail(Status.Code.NOT_FOUND, "Dataset " + datasetId + " not found");
+                return operation.getName();
+            }
+            operation.succeed(() -> Any.pack(createModel(projectId, computeRegion, datasetId, modelName,
+                    dataset.getTranslationDatasetMetadata().getSourceLanguageCode(), dataset.getTranslationDatasetMetadata().getTargetLanguageCode())));
+            return operation.getName();
+        });
+    }
+
+    @Override
+    public Model getModelByDisplayName(String projectId, String computeRegion, String displayName) {
+        return call("ModelApi.listModels", () -> {
+            final Model model = models.values().stream()
+                    .filter((m) -> m.getName().startsWith(locationName(projectId, computeRegion)) && m.getDisplayName().equals(displayName))
+                    .findFirst()
+                    .orElse(null);
+            if (model == null && autoCreateModels) {
+                return createModel(projectId, computeRegion, "", displayName, "", guessTargetLanguage(displayName));
+            }
+            return model;
+        });
+    }
+
+    @Override
+    public Operation getOperation(String operationName) {
+        return call("OperationApi.getOperation", () -> {
+            final LocalOperation operation = operations.get(operationName);
+            if (operation == null) {
+                throw ApiExceptionFactory.createException(new IllegalArgumentException("Operation " + operationName + " not found"), GrpcStatusCode.of(Status.Code.NOT_FOUND), false);
+            }
+            return operation.toOperation();
+        });
+    }
+
+    @Override
+    public String predict(String projectId, String computeRegion, String modelId, String content) {
+        return call("PredictionApi.predict", () -> {
+            final Model model = models.get(locationName(projectId, computeRegion) + "/models/" + modelId);
+            if (model == null && !autoCreateModels) {
+                throw ApiExceptionFactory.createException(new IllegalArgumentException("Model " + modelId + " not found"), GrpcStatusCode.of(Status.Code.NOT_FOUND), false);
+            }
+            final String target = (model != null) ? model.getTranslationModelMetadata().getTargetLanguageCode() : "xx";
+            return pseudoTranslate(target, content);
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> startBatchPredict(String projectId, String computeRegion, String modelId, List<String> inputUris, String outputUriPrefix) {
+        return callAsync("PredictionApi.startBatchPredict", () -> {
+            final Model model = models.get(locationName(projectId, computeRegion) + "/models/" + modelId);
+            final LocalOperation operation = startOperation(projectId, computeRegion);
+            if (model == null && !autoCreateModels) {
+                operation.fail(Status.Code.NOT_FOUND, "Model " + modelId + " not found");
+                return operation.getName();
+            }
+            final String target = (model != null) ? model.getTranslationModelMetadata().getTargetLanguageCode() : "xx";
+            final List<Path> inputs = new ArrayList<>();
+            try {
+                for (String inputUri : inputUris) {
+                    for (String line : Files.readAllLines(resolveUri(inputUri), UTF_8)) {
+                        if (!line.trim().isEmpty()) {
+                            inputs.add(resolveUri(line));
+                        }
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                operation.fail(Status.Code.INVALID_ARGUMENT, "Unable to read the input: " + e.getMessage());
+                return operation.getName();
+            }
+            // As AutoML, translations are written to a directory of the prediction, input.txt to input_<target>_translations.txt
+            final Path output = resolveUri(outputUriPrefix + "/prediction-" + modelId + "-" + ids.incrementAndGet());
+            operation.succeed(() -> {
+                for (Path input : inputs) {
+                    try (BufferedReader reader = openBlob(input)) {
+                        createDirectories(output);
+                        final String name = input.getFileName().toString();
+                        final int dot = (name.lastIndexOf('.') > 0) ? name.lastIndexOf('.') : name.length();
+                        Files.write(output.resolve(name.substring(0, dot) + "_" + target + "_translations" + name.substring(dot)), reader.lines()
+                                .map((line) -> pseudoTranslate(target, line))
+                                .collect(Collectors.toList()), UTF_8);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return Any.pack(Empty.getDefaultInstance());
+            });
+            return operation.getName();
+        });
+    }
+
+    /**
+     * Returns "[target] " followed by the content with accented vowels
+     * @param target
+     * @param content
+     * @return
+     */
+    static String pseudoTranslate(String target, String content) {
+        StringBuilder translation = new StringBuilder(content.length() + target.length() + 3);
+        translation.append('[').append(target).append("] ");
+        for (int i = 0; i < content.length(); i++) {
+            final char c = content.charAt(i);
+            final int vowel = "aeiouAEIOU".indexOf(c);
+            translation.append((vowel > -1) ? "áéíóúÁÉÍÓÚ".charAt(vowel) : c);
+        }
+        return translation.toString();
+    }
+
+    private Model createModel(String projectId, String computeRegion, String datasetId, String displayName, String source, String target) {
+        final Model model = Model.newBuilder()
+                .setName(locationName(projectId, computeRegion) + "/models/TRL" + ids.incrementAndGet())
+                .setDisplayName(displayName)
+                .setDatasetId(datasetId)
+                .setTranslationModelMetadata(TranslationModelMetadata.newBuilder()
+                        .setSourceLanguageCode(source)
+                        .setTargetLanguageCode(target))
+                .build();
+        models.put(model.getName(), model);
+        return model;
+    }
+
+    /**
+     * Models named after their dataset end with the target language, i.e. magnolia_travel_en_de_v20190515063014
+     * @param displayName
+     * @return
+     */
+    private String guessTargetLanguage(String displayName) {
+        final String[] parts = displayName.split("_");
+        for (int i = parts.length - 1; i >= 0; i--) {
+            if (parts[i].length() == 2 && Character.isLetter(parts[i].charAt(0))) {
+                return parts[i];
+            }
+        }
+        return "xx";
+    }
+
+    private LocalOperation startOperation(String projectId, String computeRegion) {
+        final LocalOperation operation = new LocalOperation(locationName(projectId, computeRegion) + "/operations/" + ids.incrementAndGet(),
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(operationSeconds));
+        operations.put(operation.getName(), operation);
+        return operation;
+    }
+
+    private Timestamp now() {
+        final long millis = System.currentTimeMillis();
+        return Timestamp.newBuilder().setSeconds(millis / 1000).setNanos((int) (millis % 1000) * 1000000).build();
+    }
+
+    private String locationName(String projectId, String computeRegion) {
+        return "projects/" + projectId + "/locations/" + computeRegion;
+    }
+
+    private Path resolveBlob(String bucketName, String blobName) {
+        final Path bucket = storageRoot.resolve(bucketName).normalize();
+        final Path blob = bucket.resolve(blobName).normalize();
+        if (!bucket.startsWith(storageRoot.normalize()) || !blob.startsWith(bucket)) {
+            throw new IllegalArgumentException("Invalid blob " + bucketName + "/" + blobName);
+        }
+        return blob;
+    }
+
+    /**
+     * Returns the file of a gs://bucket/blob uri
+     * @param uri
+     * @return
+     */
+    private Path resolveUri(String uri) {
+        final String trimmed = uri.trim();
+        if (!trimmed.startsWith("gs://") || trimmed.indexOf('/', "gs://".length()) < 0) {
+            throw new IllegalArgumentException("Invalid uri " + uri);
+        }
+        final int slash = trimmed.indexOf('/', "gs://".length());
+        return resolveBlob(trimmed.substring("gs://".length(), slash), trimmed.substring(slash + 1));
+    }
+
+    /**
+     * Opens a blob as Cloud Storage serves it, decompressing gzip content
+     * @param blob
+     * @return
+     * @throws IOException
+     */
+    private BufferedReader openBlob(Path blob) throws IOException {
+        final InputStream input = new BufferedInputStream(Files.newInputStream(blob));
+        input.mark(2);
+        final boolean gzip = input.read() == 0x1f && input.read() == 0x8b;
+        input.reset();
+        return new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(input) : input, UTF_8));
+    }
+
+    private Path createDirectories(Path directory) {
+        try {
+            return Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs the call after the simulated latency, or fails it
+     * @param name
+     * @param call
+     * @param <T>
+     * @return
+     */
+    private <T> T call(String name, Supplier<T> call) {
+        return metrics.time(name, () -> {
+            simulate();
+            return call.get();
+        });
+    }
+
+    private <T> CompletableFuture<T> callAsync(String name, Supplier<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call(name, call));
+        } catch (RuntimeException e) {
+            final CompletableFuture<T> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+
+    private void simulate() {
+        final long latencyNanos = sampleLatencyNanos();
+        if (latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ApiExceptionFactory.createException(e, GrpcStatusCode.of(Status.Code.CANCELLED), false);
+            }
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            final Status.Code code = Status.Code.valueOf(errorCode);
+            throw ApiExceptionFactory.createException(new IllegalStateException("Injected failure " + code), GrpcStatusCode.of(code),
+                    code == Status.Code.UNAVAILABLE || code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.DEADLINE_EXCEEDED);
+        }
+    }
+
+    long sampleLatencyNanos() {
+        final double millis;
+        switch (latencyDistribution) {
+            case LATENCY_FIXED:
+                millis = latencyMillis;
+                break;
+            case LATENCY_UNIFORM:
+                millis = random.nextDouble() * 2 * latencyMillis;
+                break;
+            case LATENCY_EXPONENTIAL:
+                millis = -Math.log(1 - random.nextDouble()) * latencyMillis;
+                break;
+            case LATENCY_LOGNORMAL:
+                millis = latencyMillis * Math.exp(latencySigma * random.nextGaussian());
+                break;
+            default:
+                millis = 0;
+                break;
+        }
+        return (long) (millis * 1000000);
+    }
+
+    /**
+     * Upload written to a file of the uploads directory and moved to the blob once closed. As in Cloud Storage, an
+     * upload that is not closed leaves the blob as it was. The file is opened on every write, so an upload that is not
+     * closed keeps no file open.
+     */
+    private static class LocalUpload implements WritableByteChannel {
+        private final Path file;
+        private final Path blob;
+        private boolean open = true;
+
+        LocalUpload(Path file, Path blob) {
+            this.file = file;
+            this.blob = blob;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                return channel.write(src);
+            }
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (open) {
+                open = false;
+                Files.move(file, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Operation that finishes at doneAt
+     */
+    private static class LocalOperation {
+        private final String name;
+        private final long doneAt;
+        private Supplier<Any> onDone;
+        private com.google.rpc.Status error;
+        private Any response;
+
+        LocalOperation(String name, long doneAt) {
+            this.name = name;
+            this.doneAt = doneAt;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        synchronized void succeed(Supplier<Any> onDone) {
+            this.onDone = onDone;
+        }
+
+        synchronized void fail(Status.Code code, String message) {
+            this.error = com.google.rpc.Status.newBuilder().setCode(code.value()).setMessage(message).build();
+        }
+
+        synchronized Operation toOperation() {
+            final Operation.Builder operation = Operation.newBuilder().setName(name);
+            if (System.currentTimeMillis() < doneAt) {
+                return operation.setDone(false).build();
+            }
+            if (error != null) {
+                return operation.setDone(true).setError(error).build();
+            }
+            if (response == null && onDone != null) {
+                // the result of the operation is visible when it finishes
+                try {
+                    response = onDone.get();
+                } catch (RuntimeException e) {
+                    fail(Status.Code.INTERNAL, e.getMessage());
+                    return operation.setDone(true).setError(error).build();
+                }
+            }
+            return operation.setDone(true).setResponse((response != null) ? response : Any.pack(Empty.getDefaultInstance())).build();
+        }
+    }
+}
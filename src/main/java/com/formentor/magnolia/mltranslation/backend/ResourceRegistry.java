@@ -0,0 +1,128 @@
+package com.formentor.magnolia.mltranslation.backend;
+
+import com.google.cloud.automl.v1beta1.Dataset;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Buckets and datasets used by the imports, created if they do not exist.
+ *
+ * Resources are looked up once and kept while the module runs, so imports do not list the buckets or the datasets of
+ * the project on every run. Concurrent lookups of the same resource wait for a single one, and resources created
+ * meanwhile by another Magnolia instance are adopted instead of failing the import.
+ */
+@Slf4j
+public class ResourceRegistry {
+
+    private final TranslationBackend backend;
+
+    private final Cache<String, String> buckets = CacheBuilder.newBuilder().build();
+    private final Cache<DatasetKey, String> datasetIds = CacheBuilder.newBuilder().build();
+
+    public ResourceRegistry(TranslationBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Returns the name of the bucket creating it if does not exist
+     * @param bucketName
+     * @return
+     * @throws IOException
+     */
+    public String getOrCreateBucket(String bucketName) throws IOException {
+        return get(buckets, bucketName, () -> {
+            if (!backend.bucketExists(bucketName)) {
+                createBucket(bucketName);
+            }
+            return bucketName;
+        });
+    }
+
+    /**
+     * Returns the id of the dataset with the display name creating it if does not exist
+     * @param projectId
+     * @param computeRegion
+     * @param displayName
+     * @param source
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    public String getOrCreateDatasetId(String projectId, String computeRegion, String displayName, String source, String target) throws IOException {
+        return get(datasetIds, new DatasetKey(projectId, computeRegion, displayName), () -> {
+            Dataset dataset = backend.getDatasetByDisplayName(projectId, computeRegion, displayName);
+            if (dataset == null) {
+                dataset = createDataset(projectId, computeRegion, displayName, source, target);
+            }
+            return TranslationBackend.getId(dataset.getName());
+        });
+    }
+
+    /**
+     * Discards the id of a dataset, i.e. when it was deleted out of Magnolia
+     * @param projectId
+     * @param computeRegion
+     * @param displayName
+     */
+    public void invalidateDataset(String projectId, String computeRegion, String displayName) {
+        datasetIds.invalidate(new DatasetKey(projectId, computeRegion, displayName));
+    }
+
+    public void invalidateAll() {
+        buckets.invalidateAll();
+        datasetIds.invalidateAll();
+    }
+
+    private void createBucket(String bucketName) {
+        try {
+            backend.createBucket(bucketName);
+            log.info("ResourceRegistry - bucket {} created", bucketName);
+        } catch (RuntimeException e) {
+            // Created by another instance since the lookup
+            if (!backend.bucketExists(bucketName)) {
+                throw e;
+            }
+        }
+    }
+
+    private Dataset createDataset(String projectId, String computeRegion, String displayName, String source, String target) throws IOException {
+        final Dataset created = backend.createDataset(projectId, computeRegion, displayName, source, target);
+        log.info("ResourceRegistry - dataset {} created, {}", displayName, created.getName());
+
+        // Display names are not unique, when another instance created the dataset meanwhile every instance keeps the oldest one
+        final Dataset oldest = backend.getDatasetByDisplayName(projectId, computeRegion, displayName);
+        if (oldest != null && !oldest.getName().equals(created.getName())) {
+            log.warn("ResourceRegistry - dataset {} was also created as {}, using it instead of {}", displayName, oldest.getName(), created.getName());
+            return oldest;
+        }
+        return created;
+    }
+
+    private static <K, V> V get(Cache<K, V> cache, K key, Callable<V> loader) throws IOException {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Unable to get " + key, e.getCause());
+        }
+    }
+
+    @Value
+    private static class DatasetKey {
+        String projectId;
+        String computeRegion;
+        String displayName;
+    }
+}
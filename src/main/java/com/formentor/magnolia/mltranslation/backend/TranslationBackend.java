@@ -0,0 +1,108 @@
+package com.formentor.magnolia.mltranslation.backend;
+
+import com.formentor.google.ApiMetrics;
+import com.google.cloud.automl.v1beta1.Dataset;
+import com.google.cloud.automl.v1beta1.Model;
+import com.google.longrunning.Operation;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage, AutoML and prediction services used by the module.
+ *
+ * The backend is configured at <tt>config:/modules/magnolia-content-translation-ml/config/backend</tt>,
+ * {@link GoogleBackend} by default. {@link LocalBackend} runs in process to develop and load-test without Google Cloud.
+ * Implementations are thread-safe, started by the module on start and closed on stop.
+ */
+public interface TranslationBackend extends AutoCloseable {
+
+    void start();
+
+    @Override
+    void close();
+
+    /**
+     * Latencies of the calls of the backend
+     */
+    ApiMetrics getMetrics();
+
+    // Storage
+
+    boolean bucketExists(String bucketName);
+
+    void createBucket(String bucketName);
+
+    void createBlob(String bucketName, String blobName, String content);
+
+    /**
+     * Opens a channel to upload the blob in chunks of chunkSize bytes, the upload completes when it is closed. A channel
+     * that is not closed is abandoned and the blob keeps its previous content, so close it only once every byte is written
+     * @param contentEncoding i.e. gzip, null when the content is not compressed
+     */
+    WritableByteChannel createBlobWriter(String bucketName, String blobName, String contentType, String contentEncoding, int chunkSize);
+
+    /**
+     * Returns the base64 MD5 of the stored bytes of the blob or null if it does not exist
+     */
+    String getBlobMd5(String bucketName, String blobName);
+
+    boolean deleteBlob(String bucketName, String blobName);
+
+    ReadableByteChannel createBlobReader(String bucketName, String blobName);
+
+    /**
+     * Returns the names of the blobs that start with prefix
+     */
+    List<String> listBlobNames(String bucketName, String prefix);
+
+    // Datasets and models
+
+    /**
+     * Returns the dataset with exactly the display name, the oldest one if it is duplicated, or null if there is no such dataset
+     */
+    Dataset getDatasetByDisplayName(String projectId, String computeRegion, String displayName) throws IOException;
+
+    Dataset createDataset(String projectId, String computeRegion, String displayName, String source, String target) throws IOException;
+
+    /**
+     * Starts the import of the comma separated csv files to the dataset
+     * @return future completed with the name of the long running operation
+     */
+    CompletableFuture<String> startImportData(String projectId, String computeRegion, String datasetId, String path) throws IOException;
+
+    /**
+     * Starts the training of a model with the dataset
+     * @return future completed with the name of the long running operation
+     */
+    CompletableFuture<String> startCreateModel(String projectId, String computeRegion, String datasetId, String modelName) throws IOException;
+
+    /**
+     * Returns the model with the display name or null if there is no such model
+     */
+    Model getModelByDisplayName(String projectId, String computeRegion, String displayName) throws IOException;
+
+    Operation getOperation(String operationName) throws IOException;
+
+    // Prediction
+
+    String predict(String projectId, String computeRegion, String modelId, String content) throws IOException;
+
+    /**
+     * Starts the translation of the .txt files listed by the input .csv files, translations are written to outputUriPrefix
+     * @return future completed with the name of the long running operation
+     */
+    CompletableFuture<String> startBatchPredict(String projectId, String computeRegion, String modelId, List<String> inputUris, String outputUriPrefix) throws IOException;
+
+    /**
+     * Returns the id of a dataset, model... last segment of its name
+     * @param name
+     * @return
+     */
+    static String getId(String name) {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+}
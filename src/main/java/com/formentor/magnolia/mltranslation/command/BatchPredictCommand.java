@@ -0,0 +1,214 @@
+package com.formentor.magnolia.mltranslation.command;
+
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import com.formentor.magnolia.mltranslation.dataset.UntranslatedProperties;
+import com.formentor.magnolia.mltranslation.operation.TrackedOperation;
+import com.formentor.magnolia.mltranslation.prediction.BatchPredictionJob;
+import info.magnolia.cms.i18n.I18nContentSupport;
+import info.magnolia.commands.MgnlCommand;
+import info.magnolia.context.Context;
+import info.magnolia.module.site.Site;
+import info.magnolia.module.site.SiteManager;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.jcr.Node;
+import javax.jcr.Session;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates the untranslated properties of a tree of contents with a batch prediction of AutoML.
+ *
+ * The distinct texts are uploaded to Cloud Storage and translated by a single long running operation instead of a
+ * prediction per text, the operation tracker writes the translations to the i18n properties of the target language
+ * once it finishes.
+ */
+@Slf4j
+@Getter
+@Setter
+public class BatchPredictCommand extends MgnlCommand {
+
+    /**
+     * Workspace
+     */
+    private String workspace;
+
+    /**
+     * Root path of the contents to translate.
+     */
+    private String path;
+
+    /**
+     * Source lang
+     */
+    private String lang_source;
+
+    /**
+     * Target lang
+     */
+    private String lang_target;
+
+    /**
+     * Node type
+     */
+    private String nodeType;
+
+    /**
+     * Google project Id
+     */
+    private String project_id;
+
+    /**
+     * Google compute region
+     */
+    private String compute_region;
+
+    /**
+     * Model display name
+     */
+    private String model_display_name;
+
+    /**
+     * Model Id
+     */
+    private String model_id;
+
+    /**
+     * Texts of every file of the prediction
+     */
+    private int lines_per_file = 10000;
+
+    /**
+     * Size in bytes of the chunks uploaded to Google Cloud Storage
+     */
+    private int upload_chunk_size = 1024 * 1024;
+
+    /**
+     * Output number of untranslated properties
+     */
+    private int total;
+
+    /**
+     * Output number of distinct strings sent to the model
+     */
+    private int unique;
+
+    /**
+     * Output name of the long running operation of the prediction
+     */
+    private String operation_name;
+
+    private final SiteManager siteManager;
+
+    private final Provider<TranslationModule> translationModuleProvider;
+
+    @Inject
+    public BatchPredictCommand(SiteManager siteManager, Provider<TranslationModule> translationModuleProvider) {
+        this.siteManager = siteManager;
+        this.translationModuleProvider = translationModuleProvider;
+    }
+
+    @Override
+    public boolean execute(Context context) throws Exception {
+        if (model_id == null && model_display_name == null) {
+            log.error("BatchPredict failure - model_id and model_display_name must be provided");
+            return false;
+        }
+        if (model_id != null && model_display_name != null) {
+            log.error("BatchPredict failure - just model_id and model_display_name must be provided");
+            return false;
+        }
+        if (lang_target == null) {
+            log.error("BatchPredict failure - lang_target must be provided");
+            return false;
+        }
+
+        Session session = context.getJCRSession(workspace);
+        final Node root = session.getNode(path);
+
+        final Site site = siteManager.getAssignedSite(root);
+        final I18nContentSupport i18nContentSupport = site.getI18n();
+        final Collection<Locale> locales = i18nContentSupport.getLocales();
+        if (lang_source != null && !isLangSupported(lang_source, locales)) {
+            log.error("BatchPredict failure - source lang not supported {}", lang_source);
+            return false;
+        }
+        if (!isLangSupported(lang_target, locales)) {
+            log.error("BatchPredict failure - target lang not supported {}", lang_target);
+            return false;
+        }
+        final Locale fallbackLocale = i18nContentSupport.getFallbackLocale();
+
+        final String lang_source_final = (lang_source != null) ? lang_source : fallbackLocale.toString();
+        if (lang_source_final.equals(lang_target)) {
+            log.error("BatchPredict failure - translate from {} to {}, really??", lang_source_final, lang_target);
+            return false;
+        }
+        final String lang_source_suffix = fallbackLocale.toString().equals(lang_source_final) ? "" : lang_source_final;
+        final String lang_target_suffix = fallbackLocale.toString().equals(lang_target) ? "" : lang_target;
+
+        /**
+         * Collect untranslated properties grouped by source text
+         */
+        Map<String, List<PendingTranslation>> pending = new LinkedHashMap<>();
+        new UntranslatedProperties(nodeType, locales, lang_source_suffix, lang_target_suffix).collect(root, pending);
+        total = pending.values().stream().mapToInt(List::size).sum();
+        unique = pending.size();
+        if (pending.isEmpty()) {
+            log.info("BatchPredict - {}:{} has no untranslated properties", workspace, path);
+            return true;
+        }
+
+        final TranslationModule translationModule = translationModuleProvider.get();
+        final TranslationBackend backend = translationModule.getBackend();
+        final String modelId = (model_id != null) ? model_id :
+                translationModule.getModelResolver().resolve(project_id, compute_region, model_display_name);
+        if (modelId == null) {
+            log.error("BatchPredict failure - model {} does not exist", model_display_name);
+            return false;
+        }
+
+        /**
+         * Upload the texts and launch the prediction, the tracker writes the translations once it finishes
+         */
+        final String bucketName = translationModule.getResourceRegistry().getOrCreateBucket(project_id + "-vcm");
+        final String prefix = "batch/" + workspace + "-" + lang_source_final + "-" + lang_target + "-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+        final BatchPredictionJob job = new BatchPredictionJob(backend, bucketName, prefix);
+        final int files = job.writeInput(pending, lines_per_file, upload_chunk_size);
+
+        operation_name = backend.startBatchPredict(project_id, compute_region, modelId,
+                Collections.singletonList(job.getInputUri()), job.getOutputUriPrefix()).get();
+        translationModule.getOperationTracker().track(TrackedOperation.builder()
+                .name(operation_name)
+                .type(TrackedOperation.TYPE_BATCH_PREDICT)
+                .projectId(project_id)
+                .computeRegion(compute_region)
+                .displayName((model_display_name != null) ? model_display_name : model_id)
+                .workspace(workspace)
+                .path(path)
+                .langSource(lang_source_final)
+                .langTarget(lang_target)
+                .batchUri(job.getUri())
+                .build());
+        log.info("BatchPredict - prediction of {} properties ({} unique strings, {} files) of {}:{} started, operation {}",
+                total, unique, files, workspace, path, operation_name);
+
+        return true;
+    }
+
+    private boolean isLangSupported(final String lang, Collection<Locale> supportedLocales) {
+        return supportedLocales.stream().anyMatch((locale) -> locale.toString().equals(lang));
+    }
+}
@@ -0,0 +1,255 @@
+package com.formentor.magnolia.mltranslation.command;
+
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import com.formentor.magnolia.mltranslation.dataset.UntranslatedProperties;
+import com.formentor.magnolia.mltranslation.parser.HtmlTranslation;
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
+import info.magnolia.cms.i18n.I18nContentSupport;
+import info.magnolia.commands.MgnlCommand;
+import info.magnolia.context.Context;
+import info.magnolia.module.site.Site;
+import info.magnolia.module.site.SiteManager;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.jcr.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translates the untranslated properties of a tree of contents and writes the translations to the i18n properties
+ * of the target language.
+ */
+@Slf4j
+@Getter
+@Setter
+public class BatchTranslateCommand extends MgnlCommand {
+
+    /**
+     * Workspace
+     */
+    private String workspace;
+
+    /**
+     * Root path of the contents to translate.
+     */
+    private String path;
+
+    /**
+     * Source lang
+     */
+    private String lang_source;
+
+    /**
+     * Target lang
+     */
+    private String lang_target;
+
+    /**
+     * Node type
+     */
+    private String nodeType;
+
+    /**
+     * Google project Id
+     */
+    private String project_id;
+
+    /**
+     * Google compute region
+     */
+    private String compute_region;
+
+    /**
+     * Model display name
+     */
+    private String model_display_name;
+
+    /**
+     * Model Id
+     */
+    private String model_id;
+
+    /**
+     * Number of concurrent predictions
+     */
+    private int concurrency = 4;
+
+    /**
+     * Translate the properties as rich-text, only their text is sent to the model and their markup is kept
+     */
+    private boolean html = false;
+
+    /**
+     * Number of properties written between session saves
+     */
+    private int batch_size = 500;
+
+    /**
+     * Seconds the strings rejected by the limits of the predictions are sent again
+     */
+    private long timeout_seconds = 3600;
+
+    /**
+     * Output number of translated properties
+     */
+    private int total;
+
+    /**
+     * Output number of distinct strings sent to the model, the distinct text segments with html
+     */
+    private int unique;
+
+    /**
+     * Output number of properties left untranslated because their prediction failed
+     */
+    private int untranslated;
+
+    private final SiteManager siteManager;
+
+    private final Provider<TranslationModule> translationModuleProvider;
+
+    @Inject
+    public BatchTranslateCommand(SiteManager siteManager, Provider<TranslationModule> translationModuleProvider) {
+        this.siteManager = siteManager;
+        this.translationModuleProvider = translationModuleProvider;
+    }
+
+    @Override
+    public boolean execute(Context context) throws Exception {
+        if (model_id == null && model_display_name == null) {
+            log.error("BatchTranslate failure - model_id and model_display_name must be provided");
+            return false;
+        }
+        if (model_id != null && model_display_name != null) {
+            log.error("BatchTranslate failure - just model_id and model_display_name must be provided");
+            return false;
+        }
+        if (lang_target == null) {
+            log.error("BatchTranslate failure - lang_target must be provided");
+            return false;
+        }
+
+        Session session = context.getJCRSession(workspace);
+        final Node root = session.getNode(path);
+
+        final Site site = siteManager.getAssignedSite(root);
+        final I18nContentSupport i18nContentSupport = site.getI18n();
+        final Collection<Locale> locales = i18nContentSupport.getLocales();
+        if (lang_source != null && !isLangSupported(lang_source, locales)) {
+            log.error("BatchTranslate failure - source lang not supported {}", lang_source);
+            return false;
+        }
+        if (!isLangSupported(lang_target, locales)) {
+            log.error("BatchTranslate failure - target lang not supported {}", lang_target);
+            return false;
+        }
+        final Locale fallbackLocale = i18nContentSupport.getFallbackLocale();
+
+        final String lang_source_final = (lang_source != null) ? lang_source : fallbackLocale.toString();
+        if (lang_source_final.equals(lang_target)) {
+            log.error("BatchTranslate failure - translate from {} to {}, really??", lang_source_final, lang_target);
+            return false;
+        }
+        final String lang_source_suffix = fallbackLocale.toString().equals(lang_source_final) ? "" : lang_source_final;
+        final String lang_target_suffix = fallbackLocale.toString().equals(lang_target) ? "" : lang_target;
+
+        final long start = System.currentTimeMillis();
+
+        /**
+         * Collect untranslated properties grouped by source text
+         */
+        Map<String, List<PendingTranslation>> pending = new LinkedHashMap<>();
+        new UntranslatedProperties(nodeType, locales, lang_source_suffix, lang_target_suffix).collect(root, pending);
+        total = pending.values().stream().mapToInt(List::size).sum();
+        unique = pending.size();
+
+        /**
+         * Translate distinct strings
+         */
+        Map<String, String> translations = html ? translateHtml(pending.keySet()) : translate(pending.keySet());
+
+        /**
+         * Write translations
+         */
+        int written = 0;
+        for (Map.Entry<String, List<PendingTranslation>> entry : pending.entrySet()) {
+            final String translation = translations.get(entry.getKey());
+            if (translation == null) {
+                continue;
+            }
+            for (PendingTranslation pendingTranslation : entry.getValue()) {
+                session.getNodeByIdentifier(pendingTranslation.getNodeIdentifier()).setProperty(pendingTranslation.getPropertyName(), translation);
+                if (++written % Math.max(batch_size, 1) == 0) {
+                    session.save();
+                }
+            }
+        }
+        session.save();
+        untranslated = total - written;
+        if (untranslated > 0) {
+            log.warn("BatchTranslate - {} properties of {}:{} not translated, their predictions failed or were rejected", untranslated, workspace, path);
+        }
+
+        final long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        // Only the written properties count, the ones whose translation failed are not translated
+        log.info("BatchTranslate - {} properties translated ({} total, {} unique strings) in {} ms, {} properties/sec",
+                written, total, unique, elapsed, String.format("%.1f", written * 1000.0 / elapsed));
+
+        return true;
+    }
+
+    /**
+     * Translates the texts with at most concurrency predictions in flight
+     * @param texts
+     * @return
+     * @throws InterruptedException
+     */
+    private Map<String, String> translate(Collection<String> texts) throws InterruptedException {
+        final PredictionService predictionService = translationModuleProvider.get().getPredictionService();
+        return predictionService.predictAll(project_id, compute_region, model_display_name, model_id, texts, concurrency,
+                TimeUnit.SECONDS.toMillis(timeout_seconds));
+    }
+
+    /**
+     * Translates the distinct text segments of all the rich-texts at once and puts their translations back in the markup
+     * @param texts
+     * @return translation of every rich-text whose segments are all translated
+     * @throws InterruptedException
+     */
+    private Map<String, String> translateHtml(Collection<String> texts) throws InterruptedException {
+        final Map<String, HtmlTranslation> documents = new HashMap<>();
+        final Set<String> segments = new LinkedHashSet<>();
+        for (String text : texts) {
+            final HtmlTranslation document = HtmlTranslation.parse(text);
+            documents.put(text, document);
+            segments.addAll(document.getSegments());
+        }
+        unique = segments.size();
+
+        final Map<String, String> segmentTranslations = translate(segments);
+        final Map<String, String> translations = new HashMap<>();
+        documents.forEach((text, document) -> {
+            final String translation = document.apply(segmentTranslations);
+            if (translation != null) {
+                translations.put(text, translation);
+            }
+        });
+        return translations;
+    }
+
+    private boolean isLangSupported(final String lang, Collection<Locale> supportedLocales) {
+        return supportedLocales.stream().anyMatch((locale) -> locale.toString().equals(lang));
+    }
+}
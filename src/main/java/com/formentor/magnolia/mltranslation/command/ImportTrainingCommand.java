@@ -1,35 +1,61 @@
 package com.formentor.magnolia.mltranslation.command;
 
-import com.formentor.google.automl.DatasetApi;
-import com.formentor.google.storage.StorageApi;
-import com.formentor.magnolia.mltranslation.parser.HtmlToPlainText;
-import com.google.cloud.automl.v1beta1.Dataset;
-import com.google.cloud.storage.Bucket;
-import com.google.protobuf.Empty;
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.backend.ResourceRegistry;
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.dataset.ContentNodes;
+import com.formentor.magnolia.mltranslation.dataset.DeduplicatingSentenceWriter;
+import com.formentor.magnolia.mltranslation.dataset.ImportCheckpoints;
+import com.formentor.magnolia.mltranslation.dataset.ImportWatermarks;
+import com.formentor.magnolia.mltranslation.dataset.SentenceExtractor;
+import com.formentor.magnolia.mltranslation.dataset.SentenceWriter;
+import com.formentor.magnolia.mltranslation.dataset.ShardUploader;
+import com.formentor.magnolia.mltranslation.dataset.ShardedSentenceWriter;
+import com.formentor.magnolia.mltranslation.memory.TranslationMemory;
+import com.formentor.magnolia.mltranslation.metrics.ImportRun;
+import com.formentor.magnolia.mltranslation.operation.TrackedOperation;
+import com.google.api.gax.rpc.NotFoundException;
 import info.magnolia.cms.i18n.I18nContentSupport;
 import info.magnolia.commands.MgnlCommand;
 import info.magnolia.context.Context;
+import info.magnolia.repository.RepositoryConstants;
 import info.magnolia.module.site.Site;
 import info.magnolia.module.site.SiteManager;
-import lombok.Builder;
-import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.jcr.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
 @Getter
 @Setter
 public class ImportTrainingCommand extends MgnlCommand {
 
+    /**
+     * Name of a shard of a full import after its .csv name: the start of its run and the index of the shard
+     */
+    private static final Pattern RUN_SHARD = Pattern.compile("(\\d{14})(-\\d{5})?\\.tsv");
+
     /**
      * Workspace
      */
@@ -55,6 +81,11 @@ public class ImportTrainingCommand extends MgnlCommand {
      */
     private String nodeType;
 
+    /**
+     * Selection of nodes: "traversal" walks the tree (default), "query" selects nodes with a JCR-SQL2 query by nodeType
+     */
+    private String extraction = ContentNodes.MODE_TRAVERSAL;
+
     /**
      * Google project Id
      */
@@ -70,11 +101,87 @@ public class ImportTrainingCommand extends MgnlCommand {
      */
     private String dataset_name;
 
+    /**
+     * Size in bytes of the chunks uploaded to Google Cloud Storage
+     */
+    private int upload_chunk_size = 1024 * 1024;
+
+    /**
+     * Files written and uploaded at the same time for every lang, 1 to not shard
+     */
+    private int shard_count = 1;
+
+    /**
+     * Size in bytes of a shard before it is compressed, a new shard is started once it is reached, 0 to not bound it
+     */
+    private long shard_size = 0;
+
+    /**
+     * Upload the files gzip compressed, Cloud Storage decompresses them when AutoML reads them
+     */
+    private boolean upload_gzip = true;
+
+    /**
+     * Incremental import: only contents modified since the last import are uploaded, as an additional file of the dataset
+     */
+    private boolean incremental = false;
+
+    /**
+     * Drop repeated sentences (headers, footers, shared labels...) from the uploaded files
+     */
+    private boolean deduplicate = true;
+
+    /**
+     * Sentences differing in whitespace are duplicates
+     */
+    private boolean dedup_ignore_whitespace = true;
+
+    /**
+     * Sentences differing in case are duplicates
+     */
+    private boolean dedup_ignore_case = false;
+
+    /**
+     * Train a model once the data is imported
+     */
+    private boolean train_model = false;
+
+    /**
+     * Name of the model trained when train_model, by default the dataset name followed by the date
+     */
+    private String model_name;
+
+    /**
+     * Nodes read between checkpoints of the run, 0 to not store checkpoints. A failed run is resumed from its last
+     * checkpoint, it needs the traversal extraction
+     */
+    private long checkpoint_nodes = 0;
+
+    /**
+     * Minimum bytes of the shards completed at a checkpoint, the checkpoint waits while a shard being written is smaller
+     */
+    private long checkpoint_min_bytes = 16L * 1024 * 1024;
+
+    /**
+     * Resume the last checkpoint of a failed run with the same params, false to start again
+     */
+    private boolean resume = true;
+
+    /**
+     * Nodes read between refreshes of the session, releasing the nodes it keeps in memory, 0 to not refresh. The tree is
+     * then read through a session of the user of the context opened by the command, or through the session of the
+     * context refreshed only while it has no pending changes if the repository does not open it
+     */
+    private long refresh_nodes = 1000;
+
     private final SiteManager siteManager;
 
+    private final Provider<TranslationModule> translationModuleProvider;
+
     @Inject
-    public ImportTrainingCommand(SiteManager siteManager) {
+    public ImportTrainingCommand(SiteManager siteManager, Provider<TranslationModule> translationModuleProvider) {
         this.siteManager = siteManager;
+        this.translationModuleProvider = translationModuleProvider;
     }
 
     /**
@@ -94,6 +201,12 @@ public class ImportTrainingCommand extends MgnlCommand {
      * compute_region: Google compute region
      *
      * dataset_name: Dataset name
+     * NOTA si lang_target vacio el nombre de cada dataset sera dataset_name + "_" + idioma
+     *
+     * train_model: entrena un modelo cuando termina la importacion
+     *
+     * model_name: Model name
+     * NOTA si model_name vacio el nombre del modelo sera el del dataset + "_v" + fecha
      *
      * @param context
      * @return
@@ -101,6 +214,9 @@ public class ImportTrainingCommand extends MgnlCommand {
      */
     @Override
     public boolean execute(Context context) throws Exception {
+        final ImportRun run = new ImportRun();
+        final long setupStart = System.nanoTime();
+
         workspace = getWorkspace();
         path = getPath();
 
@@ -139,218 +255,554 @@ public class ImportTrainingCommand extends MgnlCommand {
         }
 
         /**
-         * Build lang_target_suffixes
+         * Build lang_target_suffixes and the lang of each suffix
          */
-        List<String> lang_target_suffixes = new ArrayList<>();
+        Map<String, String> lang_targets = new LinkedHashMap<>();
         if (lang_target != null) {
-            lang_target_suffixes.add(lang_target);
+            lang_targets.put(fallbackLocale.toString().equals(lang_target) ? "" : lang_target, lang_target);
         } else {
             locales.forEach((l)-> {
                 if (!l.toString().equals(lang_source)) {
                     if (!fallbackLocale.equals(l)) {
-                        lang_target_suffixes.add(l.toString());
+                        lang_targets.put(l.toString(), l.toString());
                     } else {
-                        lang_target_suffixes.add("");
+                        lang_targets.put("", l.toString());
                     }
 
                 }
             });
         }
 
+        final TranslationModule translationModule = translationModuleProvider.get();
+        final String bucketName = getOrCreateBucket(project_id);
+        final Session configSession = context.getJCRSession(RepositoryConstants.CONFIG);
+
+        /**
+         * Checkpoint of a failed run with the same params, it is resumed instead of reading the tree again
+         */
+        final boolean checkpoints = checkpoint_nodes > 0 && !ContentNodes.MODE_QUERY.equals(extraction);
+        if (checkpoint_nodes > 0 && !checkpoints) {
+            log.warn("ImportTraining - checkpoints need the traversal extraction, the run cannot be resumed");
+        }
+        final ImportCheckpoints importCheckpoints = checkpoints ? new ImportCheckpoints(configSession) : null;
+        final String params = buildParams(lang_targets.values());
+        ImportCheckpoints.Checkpoint resumed = checkpoints ? importCheckpoints.get(workspace, path, lang_source) : null;
+        if (resumed != null && (!resume || !params.equals(resumed.getParams())
+                || (resumed.getLastPath() != null && !session.nodeExists(resumed.getLastPath())))) {
+            log.info("ImportTraining - checkpoint of a previous run of {} discarded", path);
+            importCheckpoints.remove(workspace, path, lang_source);
+            resumed = null;
+        }
+
+        /**
+         * Watermarks of the previous imports, contents modified after them are the delta of an incremental import
+         */
+        final Calendar runStart = (resumed != null) ? resumed.getRunStart() : Calendar.getInstance();
+        final ImportWatermarks importWatermarks = new ImportWatermarks(configSession);
+        Map<String, Calendar> watermarks = new HashMap<>();
+        Calendar modifiedSince = null;
+        if (resumed != null) {
+            // The watermarks of the langs imported by the failed run are newer than the ones it read
+            resumed.getLangs().forEach((suffix, lang) -> {
+                if (lang.getWatermark() != null) {
+                    watermarks.put(suffix, lang.getWatermark());
+                }
+            });
+            modifiedSince = resumed.getModifiedSince();
+        } else if (incremental) {
+            boolean allLangsImported = true;
+            for (Map.Entry<String, String> lang : lang_targets.entrySet()) {
+                Calendar watermark = importWatermarks.get(workspace, path, lang_source, lang.getValue());
+                if (watermark != null) {
+                    watermarks.put(lang.getKey(), watermark);
+                    modifiedSince = (modifiedSince == null || watermark.before(modifiedSince)) ? watermark : modifiedSince;
+                } else {
+                    allLangsImported = false;
+                }
+            }
+            if (!allLangsImported) {
+                modifiedSince = null;
+            }
+        }
+
         /**
-         * Generate list of sentences (txt source   txt target)
+         * Progress of this run, it goes on from the checkpoint of the resumed run
          */
-        List<Sentence> sentences = new ArrayList<>();
-        for (String lts: lang_target_suffixes) {
-            List<Sentence> lang_sentences = getSentences(root, lang_source_suffix, lts, nodeType);
-            if (lang_sentences != null) {
-                sentences.addAll(lang_sentences);
+        final ImportCheckpoints.Checkpoint checkpoint = new ImportCheckpoints.Checkpoint();
+        checkpoint.setParams(params);
+        checkpoint.setRunStart(runStart);
+        checkpoint.setModifiedSince(modifiedSince);
+        for (Map.Entry<String, String> lang : lang_targets.entrySet()) {
+            final ImportCheckpoints.LangCheckpoint restored = (resumed != null) ? resumed.getLangs().get(lang.getKey()) : null;
+            final ImportCheckpoints.LangCheckpoint langCheckpoint = new ImportCheckpoints.LangCheckpoint();
+            langCheckpoint.setLangTarget(lang.getValue());
+            langCheckpoint.setWatermark(watermarks.get(lang.getKey()));
+            if (restored != null) {
+                langCheckpoint.setShards(new ArrayList<>(restored.getShards()));
+                langCheckpoint.setNextShard(restored.getNextShard());
+                langCheckpoint.setSentenceCount(restored.getSentenceCount());
+                langCheckpoint.setByteCount(restored.getByteCount());
+                langCheckpoint.setImported(restored.isImported());
             }
+            checkpoint.getLangs().put(lang.getKey(), langCheckpoint);
+        }
+        if (resumed != null) {
+            checkpoint.setLastPath(resumed.getLastPath());
+            checkpoint.setExtracted(resumed.isExtracted());
+            checkpoint.setNodesVisited(resumed.getNodesVisited());
+            log.info("ImportTraining - resuming the run of {} started at {}, {} nodes already read{}", path, runStart.getTime(),
+                    resumed.getNodesVisited(), resumed.isExtracted() ? ", every shard uploaded" : "");
+        } else {
+            storeCheckpoint(importCheckpoints, checkpoint);
         }
 
         /**
-         * Create file and import to dataset
+         * Stream sentences (txt source   txt target) of every target lang to its .tsv file in a single pass
          */
-        String dataset_model_name = dataset_name;
-        if (dataset_model_name == null) {
-            dataset_model_name = "magnolia" + "_" + site.getName() + "_" + lang_source + "_" + lang_target;
+        final String runSuffix = new SimpleDateFormat("yyyyMMddHHmmss").format(runStart.getTime());
+        final TranslationBackend backend = translationModule.getBackend();
+        // The shards are scoped to the run, a failed run does not overwrite the files of the imported .csv
+        Map<String, String> blob_names = new LinkedHashMap<>();
+        Map<String, String> shard_names = new LinkedHashMap<>();
+        Map<String, List<String>> previous_blobs = new LinkedHashMap<>();
+        for (Map.Entry<String, String> lang : lang_targets.entrySet()) {
+            final boolean delta = watermarks.containsKey(lang.getKey());
+            final String blob_name = "csv/" + workspace + "-" + lang_source + "-" + lang.getValue() + (delta ? "-delta-" + runSuffix : "");
+            blob_names.put(lang.getKey(), blob_name);
+            shard_names.put(lang.getKey(), delta ? blob_name : blob_name + "-" + runSuffix);
+            previous_blobs.put(lang.getKey(), delta ? new ArrayList<>() : readImportCsv(backend, bucketName, blob_name + ".csv"));
         }
+        Map<String, ShardUploader> uploaders = new LinkedHashMap<>();
+        Map<String, ShardedSentenceWriter> shardWriters = new LinkedHashMap<>();
+        Map<String, SentenceWriter> writers = new LinkedHashMap<>();
+        Map<String, TranslationMemory.MemoryWriter> memoryWriters = new LinkedHashMap<>();
+        run.addStageNanos(ImportRun.STAGE_SETUP, System.nanoTime() - setupStart);
+        if (!checkpoint.isExtracted()) {
+            try {
+                final SentenceExtractor extractor = new SentenceExtractor(lang_source_suffix, lang_targets.keySet());
+                // Refreshing discards the pending changes of a session, the context session may be shared with the caller
+                final Session readSession = (refresh_nodes > 0) ? openReadSession(session) : null;
+                try {
+                    final Node readRoot = (readSession != null) ? readSession.getNode(path) : root;
+                    for (Map.Entry<String, String> lang : lang_targets.entrySet()) {
+                        // Shards are written to local files and uploaded in background, skipping those identical to the imported ones
+                        final ShardUploader uploader = new ShardUploader(backend, translationModule.getUploadExecutor(), bucketName, shard_names.get(lang.getKey()),
+                                shard_count > 1 || shard_size > 0 || checkpoints, previous_blobs.get(lang.getKey()), "text/plain", upload_chunk_size, run);
+                        uploaders.put(lang.getKey(), uploader);
+                        // A resumed run numbers its shards after the ones uploaded before the checkpoint
+                        final ShardedSentenceWriter shardWriter = new ShardedSentenceWriter(shard_count, shard_size, upload_gzip, uploader,
+                                checkpoint.getLangs().get(lang.getKey()).getNextShard());
+                        shardWriters.put(lang.getKey(), shardWriter);
+                        // The pairs also feed the translation memory once their shards are uploaded
+                        final TranslationMemory.MemoryWriter memoryWriter = translationModule.getTranslationMemory().writer(lang_source, lang.getValue(), shardWriter);
+                        memoryWriters.put(lang.getKey(), memoryWriter);
+                        SentenceWriter writer = memoryWriter;
+                        if (deduplicate) {
+                            writer = new DeduplicatingSentenceWriter(writer, dedup_ignore_whitespace, dedup_ignore_case);
+                        }
+                        writers.put(lang.getKey(), writer);
+                    }
 
-        return importDataset(project_id, compute_region, dataset_model_name, sentences);
+                    final ContentNodes.FilteringIterator nodes = ((checkpoint.getLastPath() != null) ? ContentNodes.traverse(readRoot, nodeType, modifiedSince, checkpoint.getLastPath())
+                            : ContentNodes.select(readRoot, nodeType, extraction, modifiedSince)).iterator();
+                    if (refresh_nodes > 0) {
+                        // Counts the nodes skipped by nodeType and the watermark too, they are also cached by the session
+                        nodes.onRead(refresh_nodes, (nodesRead) -> refresh(readSession, session));
+                    }
+                    long nodesVisited = checkpoint.getNodesVisited();
+                    long checkpointNodes = nodesVisited;
+                    long traversalStart = System.nanoTime();
+                    while (nodes.hasNext()) {
+                        final Node node = nodes.next();
+                        final long extractionStart = System.nanoTime();
+                        run.addStageNanos(ImportRun.STAGE_TRAVERSAL, extractionStart - traversalStart);
+                        run.addNodesVisited(1);
+
+                        extractor.extract(node, watermarks.isEmpty() ? writers : getWritersForNode(node, writers, watermarks));
+                        nodesVisited++;
+                        // A checkpoint completes the shards being written, it waits until they are not small blobs
+                        if (checkpoints && nodesVisited - checkpointNodes >= checkpoint_nodes && isCompletable(shardWriters.values())) {
+                            checkpointNodes = nodesVisited;
+                            checkpoint.setLastPath(node.getPath());
+                            checkpoint.setNodesVisited(nodesVisited);
+                            updateLangCheckpoints(checkpoint, resumed, shardWriters, writers, uploaders);
+                            storeCheckpoint(importCheckpoints, checkpoint);
+                            // The resumed run does not extract these pairs again
+                            memoryWriters.values().forEach(TranslationMemory.MemoryWriter::checkpoint);
+                        }
+                        traversalStart = System.nanoTime();
+                        run.addStageNanos(ImportRun.STAGE_EXTRACTION, traversalStart - extractionStart);
+                    }
+                    run.addStageNanos(ImportRun.STAGE_TRAVERSAL, System.nanoTime() - traversalStart);
+                    checkpoint.setNodesVisited(nodesVisited);
+                } catch (IOException | RepositoryException | RuntimeException e) {
+                    uploaders.values().forEach(ShardUploader::cancel);
+                    throw e;
+                } finally {
+                    if (readSession != null) {
+                        readSession.logout();
+                    }
+                    closeWriters(writers.values());
+                    run.addPropertiesExamined(extractor.getPropertyCount());
+                    run.addPairsEmitted(extractor.getSentenceCount());
+                }
+
+                // Every shard is uploaded, a failed import does not read the tree again
+                updateLangCheckpoints(checkpoint, resumed, shardWriters, writers, uploaders);
+                checkpoint.setLastPath(null);
+                checkpoint.setExtracted(true);
+                storeCheckpoint(importCheckpoints, checkpoint);
+                // Stored once per run, before the dataset import is started
+                memoryWriters.values().forEach(TranslationMemory.MemoryWriter::commit);
+            } finally {
+                // Pairs of a failed run, the ones of its checkpoints are kept
+                memoryWriters.values().forEach(TranslationMemory.MemoryWriter::discard);
+            }
+        }
+
+        /**
+         * Import every file to the dataset of its lang once its shards are uploaded
+         */
+        boolean result = true;
+        for (Map.Entry<String, String> lang : lang_targets.entrySet()) {
+            final ImportCheckpoints.LangCheckpoint langCheckpoint = checkpoint.getLangs().get(lang.getKey());
+            if (langCheckpoint.isImported()) {
+                // Started by the resumed run
+                continue;
+            }
+            final SentenceWriter writer = writers.get(lang.getKey());
+            final String blob_name = blob_names.get(lang.getKey());
+            final List<ShardUploader.UploadedShard> shards = langCheckpoint.getShards();
+            log.info("ImportTraining - {} sentences ({} bytes) written to {} shards of {}", langCheckpoint.getSentenceCount(), langCheckpoint.getByteCount(), shards.size(), blob_name);
+            if (writer instanceof DeduplicatingSentenceWriter) {
+                log.info("ImportTraining - {} duplicated sentences dropped, {} bytes saved",
+                        ((DeduplicatingSentenceWriter) writer).getDuplicateCount(), ((DeduplicatingSentenceWriter) writer).getDuplicateBytes());
+            }
+
+            final boolean delta = watermarks.containsKey(lang.getKey());
+            if (delta && langCheckpoint.getSentenceCount() == 0) {
+                // Nothing changed since the last import, the empty shard of the delta is not imported
+                for (ShardUploader.UploadedShard shard : shards) {
+                    backend.deleteBlob(bucketName, shard.getBlobName());
+                }
+                importWatermarks.set(workspace, path, lang_source, lang.getValue(), runStart);
+                langCheckpoint.setImported(true);
+                storeCheckpoint(importCheckpoints, checkpoint);
+                continue;
+            }
+
+            // Files imported in full are compared with the last imported file
+            final String contentMd5 = ShardUploader.getContentMd5(shards);
+            if (!delta && shards.stream().allMatch(ShardUploader.UploadedShard::isUnchanged)
+                    && contentMd5.equals(importWatermarks.getContentMd5(workspace, path, lang_source, lang.getValue()))) {
+                log.info("ImportTraining - {} did not change since the last import, skipping import", blob_name);
+                importWatermarks.set(workspace, path, lang_source, lang.getValue(), runStart, contentMd5);
+                langCheckpoint.setImported(true);
+                storeCheckpoint(importCheckpoints, checkpoint);
+                continue;
+            }
+
+            String dataset_model_name = dataset_name;
+            if (dataset_model_name == null) {
+                dataset_model_name = "magnolia" + "_" + site.getName() + "_" + lang_source + "_" + lang.getValue();
+            } else if (lang_targets.size() > 1) {
+                dataset_model_name = dataset_name + "_" + lang.getValue();
+            }
+            String model_name_final = null;
+            if (train_model) {
+                model_name_final = (model_name == null) ? TrainModelCommand.buildModelName(dataset_model_name) :
+                        (lang_targets.size() > 1) ? model_name + "_" + lang.getValue() : model_name;
+            }
+            List<String> blobs_tsv = new ArrayList<>();
+            shards.forEach((shard) -> blobs_tsv.add(shard.getBlobName()));
+            // The watermark is stored by the tracker once the data is imported
+            final long importStart = System.nanoTime();
+            result &= importDataset(project_id, compute_region, dataset_model_name, bucketName, lang.getValue(), blob_name + ".csv", blobs_tsv, runStart, model_name_final, delta ? null : contentMd5);
+            run.addStageNanos(ImportRun.STAGE_IMPORT, System.nanoTime() - importStart);
+            if (!delta) {
+                // The files of the previous .csv are kept, its import may still be running
+                final List<String> keep = new ArrayList<>(blobs_tsv);
+                keep.addAll(previous_blobs.get(lang.getKey()));
+                deleteStaleShards(backend, bucketName, blob_name, runSuffix, keep);
+            }
+            langCheckpoint.setImported(true);
+            storeCheckpoint(importCheckpoints, checkpoint);
+        }
+        if (importCheckpoints != null) {
+            importCheckpoints.remove(workspace, path, lang_source);
+        }
+
+        translationModule.getImportTrainingMetrics().record(run);
+        log.info("ImportTraining - {}", run);
+
+        return result;
     }
 
     /**
-     * Return sentences for the tree node starting at root
-     * @param root
-     * @param lang_suffix_source
-     * @param lang_suffix_target
-     * @param nodeType
+     * Returns the writers of the langs whose watermark is older than the last modification of the node
+     * @param node
+     * @param writers
+     * @param watermarks
      * @return
      * @throws RepositoryException
      */
-    private List<Sentence> getSentences(Node root, final String lang_suffix_source, final String lang_suffix_target, final String nodeType) throws RepositoryException {
-        List<Sentence> sentences = new ArrayList<>();
-        if (nodeType == null || root.getPrimaryNodeType().getName().equals(nodeType)) {
-            List<Sentence> node_sentences = getSentencesForNode(root, lang_suffix_source, lang_suffix_target);
-            if (node_sentences != null) {
-                sentences.addAll(node_sentences);
+    private Map<String, SentenceWriter> getWritersForNode(Node node, Map<String, SentenceWriter> writers, Map<String, Calendar> watermarks) throws RepositoryException {
+        Map<String, SentenceWriter> nodeWriters = new HashMap<>();
+        for (Map.Entry<String, SentenceWriter> writer : writers.entrySet()) {
+            if (ContentNodes.isModifiedSince(node, watermarks.get(writer.getKey()))) {
+                nodeWriters.put(writer.getKey(), writer.getValue());
             }
         }
+        return nodeWriters;
+    }
 
-        NodeIterator nodeIterator = root.getNodes();
-        while (nodeIterator.hasNext()) {
-            Node child = nodeIterator.nextNode();
-            List<Sentence> node_sentences = getSentences(child, lang_suffix_source, lang_suffix_target, nodeType);
-            if (node_sentences != null) {
-                sentences.addAll(node_sentences);
-            }
+    /**
+     * Closes every writer, completing the uploads
+     * @param writers
+     * @throws IOException
+     */
+    /**
+     * Opens a session of the user of the caller session, with its permissions, to read the tree
+     * @param session
+     * @return null if the repository does not let the user open it
+     */
+    private Session openReadSession(Session session) {
+        try {
+            return session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+        } catch (RepositoryException e) {
+            log.warn("ImportTraining - unable to open a session of {} to read {}, the session of the context is refreshed while it has no pending changes: {}",
+                    session.getUserID(), workspace, e.getMessage());
+            return null;
         }
-        return sentences;
     }
 
     /**
-     * Return sentences for the properties of a node
-     * @param node
-     * @param lang_source
-     * @param lang_target
-     * @return
+     * Releases the items cached by the session that reads the tree, the session of the context is not refreshed while
+     * it has pending changes of the caller
+     * @param readSession session opened by the command, null if the tree is read through the session of the context
+     * @param session session of the context
      * @throws RepositoryException
      */
-    private List<Sentence> getSentencesForNode(Node node, String lang_source, String lang_target) throws RepositoryException {
-        List<Sentence> sentences = new ArrayList<>();
+    private void refresh(Session readSession, Session session) throws RepositoryException {
+        if (readSession != null) {
+            // Only used to read, nothing is discarded
+            readSession.refresh(false);
+        } else if (!session.hasPendingChanges()) {
+            session.refresh(false);
+        }
+    }
 
-        PropertyIterator propertyIterator = node.getProperties();
-        while (propertyIterator.hasNext()) {
-            Property property = propertyIterator.nextProperty();
-            if (!isSystemProperty(property)) {
-                Sentence sentence = buildSentenceForProperty(node, lang_source, lang_target, property);
-                if (sentence != null) {
-                    sentences.add(sentence);
+    private void closeWriters(Collection<SentenceWriter> writers) throws IOException {
+        IOException failure = null;
+        for (SentenceWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
                 }
             }
         }
-
-        return sentences;
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /**
-     * Build sentence for a property
-     * @param node
-     * @param lang_source
-     * @param lang_target
-     * @param property
+     * Returns true if the shards being written of every lang have checkpoint_min_bytes, half of shard_size when smaller
+     * as shards are completed once they reach it
+     * @param shardWriters
      * @return
-     * @throws RepositoryException
      */
-    private Sentence buildSentenceForProperty(Node node, String lang_source, String lang_target, Property property) throws RepositoryException {
-        String i18nPropertySource = buildI18nProperty(property.getName(), lang_source);
-        String i18nPropertyTarget = buildI18nProperty(property.getName(), lang_target);
-        if (node.hasProperty(i18nPropertySource) && node.hasProperty(i18nPropertyTarget)) {
-            String source_sentence = HtmlToPlainText.getPlainText(node.getProperty(i18nPropertySource).getString());
-            String target_sentence = HtmlToPlainText.getPlainText(node.getProperty(i18nPropertyTarget).getString());
-            if (isTranslatable(source_sentence) && isTranslatable(target_sentence)) {
-                return Sentence.builder()
-                        .source(source_sentence)
-                        .target(target_sentence)
-                        .build();
+    private boolean isCompletable(Collection<ShardedSentenceWriter> shardWriters) {
+        final long minBytes = (shard_size > 0) ? Math.min(checkpoint_min_bytes, shard_size / 2) : checkpoint_min_bytes;
+        return shardWriters.stream().allMatch((shardWriter) -> shardWriter.isCompletable(minBytes));
+    }
+
+    /**
+     * Completes the shards being written and stores in the checkpoint the shards uploaded for every lang
+     * @param checkpoint
+     * @param resumed checkpoint of the resumed run, null if the run was not resumed
+     * @param shardWriters
+     * @param writers
+     * @param uploaders
+     * @throws IOException
+     */
+    private void updateLangCheckpoints(ImportCheckpoints.Checkpoint checkpoint, ImportCheckpoints.Checkpoint resumed, Map<String, ShardedSentenceWriter> shardWriters,
+                                       Map<String, SentenceWriter> writers, Map<String, ShardUploader> uploaders) throws IOException {
+        for (Map.Entry<String, ShardedSentenceWriter> shardWriter : shardWriters.entrySet()) {
+            shardWriter.getValue().completeShards();
+        }
+        for (Map.Entry<String, ShardedSentenceWriter> shardWriter : shardWriters.entrySet()) {
+            final String key = shardWriter.getKey();
+            final ImportCheckpoints.LangCheckpoint restored = (resumed != null) ? resumed.getLangs().get(key) : null;
+            final ImportCheckpoints.LangCheckpoint langCheckpoint = checkpoint.getLangs().get(key);
+            final List<ShardUploader.UploadedShard> shards = new ArrayList<>();
+            if (restored != null) {
+                shards.addAll(restored.getShards());
             }
+            shards.addAll(uploaders.get(key).await());
+            langCheckpoint.setShards(shards);
+            langCheckpoint.setNextShard(shardWriter.getValue().getNextShardIndex());
+            langCheckpoint.setSentenceCount(((restored != null) ? restored.getSentenceCount() : 0) + writers.get(key).getSentenceCount());
+            langCheckpoint.setByteCount(((restored != null) ? restored.getByteCount() : 0) + writers.get(key).getByteCount());
         }
-
-        return null;
     }
 
     /**
-     * Import translations to dataset
-     *
-     * @param project_id
-     * @param compute_region
-     * @param dataset_name
-     * @param sentences
+     * Returns the blobs listed in an import .csv, empty if it does not exist
+     * @param backend
+     * @param bucketName
+     * @param blob_csv
      * @return
-     * @throws Exception
+     * @throws IOException
      */
-    public boolean importDataset(String project_id, String compute_region, String dataset_name, List<Sentence> sentences) throws Exception {
-
-        final String bucketName = project_id + "-vcm";
-        /** Creating Bucket */
-        Bucket bucket = StorageApi.getBucketByName(bucketName);
-        if (bucket == null) {
-            StorageApi.createBucket(bucketName);
+    private List<String> readImportCsv(TranslationBackend backend, String bucketName, String blob_csv) throws IOException {
+        List<String> blobs = new ArrayList<>();
+        if (backend.getBlobMd5(bucketName, blob_csv) == null) {
+            return blobs;
         }
-        /** Uploading training files */
-        StringBuilder content_tsv = new StringBuilder();
-        sentences.stream().forEach(sentence -> {
-            content_tsv.append(sentence.toString()).append("\n");
-        });
-
-        // .tsv file with translations
-        String blob_tsv = "csv/" + workspace + "-" + lang_source + "-" + lang_target + ".tsv";
-        StorageApi.createBlob(bucketName, blob_tsv, content_tsv.toString());
-        // .csv that references .tsv file translation
-        String content_csv = "UNASSIGNED,gs://" + bucketName + "/" + blob_tsv;
-        String blob_csv = "csv/" + workspace + "-" + lang_source + "-" + lang_target + ".csv";
-        StorageApi.createBlob(bucketName, blob_csv, content_csv);
-
-        /** Importing .csv */
-        String gs_csv = "gs://" + bucketName + "/" + blob_csv;
-        String datasetId = DatasetApi.getDatasetIdByName(project_id, compute_region, dataset_name);
-        if (datasetId == null) {
-            Dataset dataset = DatasetApi.createDataset(project_id, compute_region, dataset_name, lang_source, lang_target);
-            datasetId = dataset.getName().split("/")[dataset.getName().split("/").length - 1];
+        final String bucketUri = "gs://" + bucketName + "/";
+        try (BufferedReader reader = new BufferedReader(Channels.newReader(backend.createBlobReader(bucketName, blob_csv), UTF_8.newDecoder(), -1))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int uri = line.indexOf(bucketUri);
+                if (uri > -1) {
+                    blobs.add(line.substring(uri + bucketUri.length()).trim());
+                }
+            }
         }
-        Empty response = DatasetApi.importData(project_id, compute_region, datasetId, gs_csv);
-
-        return true;
+        return blobs;
     }
 
     /**
-     * Return true if lang is supported by the site
-     * @param lang
-     * @param supportedLocales
-     * @return
+     * Deletes the shards of the full imports of runs before this one that are not kept
+     * @param backend
+     * @param bucketName
+     * @param blob_name name of the .csv without extension
+     * @param runSuffix start of this run
+     * @param keep blobs still listed by a .csv
      */
-    private boolean isLangSupported(final String lang, Collection<Locale> supportedLocales) {
-        return supportedLocales.stream().anyMatch((locale) -> locale.toString().equals(lang));
+    private void deleteStaleShards(TranslationBackend backend, String bucketName, String blob_name, String runSuffix, Collection<String> keep) {
+        final String prefix = blob_name + "-";
+        try {
+            for (String blob : backend.listBlobNames(bucketName, prefix)) {
+                final Matcher matcher = RUN_SHARD.matcher(blob.substring(prefix.length()));
+                if (matcher.matches() && matcher.group(1).compareTo(runSuffix) < 0 && !keep.contains(blob)) {
+                    backend.deleteBlob(bucketName, blob);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("ImportTraining - unable to delete the files of previous runs of {}", blob_name, e);
+        }
     }
 
     /**
-     * Returns true for System properties
-     * @param property
-     * @return
+     * Stores the checkpoint of the run
+     * @param importCheckpoints null if the run does not store checkpoints
+     * @param checkpoint
      * @throws RepositoryException
      */
-    private boolean isSystemProperty(Property property) throws RepositoryException {
-        return (property.getName().indexOf("jcr:") > -1);
+    private void storeCheckpoint(ImportCheckpoints importCheckpoints, ImportCheckpoints.Checkpoint checkpoint) throws RepositoryException {
+        if (importCheckpoints != null) {
+            importCheckpoints.set(workspace, path, lang_source, checkpoint);
+        }
     }
 
     /**
-     * Given a language, builds the i18n property name
-     * @param property
-     * @param lang_suffix
+     * Returns the params that change the output of the run, a checkpoint is only resumed by a run with the same params
+     * @param langs target langs
      * @return
      */
-    private String buildI18nProperty(String property, String lang_suffix) {
-        return (lang_suffix == null || "".equals(lang_suffix)) ? property : property+ "_" + lang_suffix;
+    private String buildParams(Collection<String> langs) {
+        return String.join(",", langs) + ";" + nodeType + ";" + incremental + ";" + deduplicate + ";" + dedup_ignore_whitespace + ";" + dedup_ignore_case
+                + ";" + shard_count + ";" + shard_size + ";" + upload_gzip + ";" + checkpoint_nodes;
     }
 
     /**
-     * Returns true if the sentence is a good input for the dataset
-     * Sentences with more than 15 words has no value
-     * @param txt
+     * Returns the bucket for the project creating it if does not exist
+     * @param project_id
      * @return
      */
-    private boolean isTranslatable(String txt) {
-        return (StringUtils.countMatches(txt, " ")<15);
+    private String getOrCreateBucket(String project_id) throws IOException {
+        /** Creating Bucket, looked up once while the module runs */
+        return translationModuleProvider.get().getResourceRegistry().getOrCreateBucket(project_id + "-vcm");
     }
 
-    @Data
-    @Builder
-    private static class Sentence {
-        String source;
-        String target;
+    /**
+     * Import translations of the uploaded .tsv file to dataset
+     * The import is followed by the operation tracker of the module, the command does not wait for it.
+     *
+     * @param project_id
+     * @param compute_region
+     * @param dataset_name
+     * @param bucketName
+     * @param lang_target
+     * @param blob_csv name of the .csv file that lists the .tsv files
+     * @param blobs_tsv names of the .tsv files, the shards of the dataset
+     * @param watermark watermark stored once the data is imported
+     * @param model_name model trained once the data is imported, null to not train
+     * @param content_md5 MD5 of the file stored with the watermark once the data is imported, null for incremental imports
+     * @return
+     * @throws Exception
+     */
+    public boolean importDataset(String project_id, String compute_region, String dataset_name, String bucketName, String lang_target, String blob_csv, List<String> blobs_tsv, Calendar watermark, String model_name, String content_md5) throws Exception {
+        final TranslationModule translationModule = translationModuleProvider.get();
+        final TranslationBackend backend = translationModule.getBackend();
+
+        // .csv that references the .tsv files of translations
+        StringBuilder content_csv = new StringBuilder();
+        for (String blob_tsv : blobs_tsv) {
+            content_csv.append("UNASSIGNED,gs://").append(bucketName).append('/').append(blob_tsv).append('\n');
+        }
+        backend.createBlob(bucketName, blob_csv, content_csv.toString());
 
-        public String toString() {
-            return source + "\t" + target;
+        /** Importing .csv */
+        String gs_csv = "gs://" + bucketName + "/" + blob_csv;
+        final ResourceRegistry resourceRegistry = translationModule.getResourceRegistry();
+        String datasetId = resourceRegistry.getOrCreateDatasetId(project_id, compute_region, dataset_name, lang_source, lang_target);
+        String operationName;
+        try {
+            operationName = backend.startImportData(project_id, compute_region, datasetId, gs_csv).get();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof NotFoundException)) {
+                throw e;
+            }
+            // The cached dataset was deleted out of Magnolia
+            log.warn("ImportTraining - dataset {} with id {} not found, looking it up again", dataset_name, datasetId);
+            resourceRegistry.invalidateDataset(project_id, compute_region, dataset_name);
+            datasetId = resourceRegistry.getOrCreateDatasetId(project_id, compute_region, dataset_name, lang_source, lang_target);
+            operationName = backend.startImportData(project_id, compute_region, datasetId, gs_csv).get();
         }
+        translationModule.getOperationTracker().track(TrackedOperation.builder()
+                .name(operationName)
+                .type(TrackedOperation.TYPE_IMPORT_DATA)
+                .projectId(project_id)
+                .computeRegion(compute_region)
+                .datasetId(datasetId)
+                .displayName(dataset_name)
+                .trainModelName(model_name)
+                .watermark(watermark)
+                .contentMd5(content_md5)
+                .workspace(workspace)
+                .path(path)
+                .langSource(lang_source)
+                .langTarget(lang_target)
+                .build());
+        log.info("ImportTraining - import of {} to dataset {} started, operation {}", gs_csv, dataset_name, operationName);
+
+        return true;
+    }
+
+    /**
+     * Return true if lang is supported by the site
+     * @param lang
+     * @param supportedLocales
+     * @return
+     */
+    private boolean isLangSupported(final String lang, Collection<Locale> supportedLocales) {
+        return supportedLocales.stream().anyMatch((locale) -> locale.toString().equals(lang));
     }
 }
@@ -1,6 +1,9 @@
 package com.formentor.magnolia.mltranslation.command;
 
-import com.formentor.google.automl.PredictionApi;
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.memory.TranslationMemory;
+import com.formentor.magnolia.mltranslation.parser.HtmlTranslation;
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
 import info.magnolia.cms.util.AlertUtil;
 import info.magnolia.commands.MgnlCommand;
 import info.magnolia.context.Context;
@@ -8,6 +11,13 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 @Slf4j
 @Getter
 @Setter
@@ -33,16 +43,63 @@ public class PredictTranslationCommand extends MgnlCommand {
      */
     private String model_id;
 
+    /**
+     * Source lang, with lang_target the translation memory is looked up before the model
+     */
+    private String lang_source;
+
+    /**
+     * Target lang
+     */
+    private String lang_target;
+
+    /**
+     * Serve the translations of the translation memory
+     */
+    private boolean use_memory = true;
+
     /**
      * Text to be translated (translation predicted using a model)
      */
     private String text;
 
+    /**
+     * The text is rich-text, only its text is sent to the model and its markup is kept
+     */
+    private boolean html = false;
+
+    /**
+     * Number of concurrent predictions of the segments of a rich-text
+     */
+    private int concurrency = 4;
+
     /**
      * Output translation
      */
     private String translation;
 
+    /**
+     * Output origin of the translation: "memory", "memory_fuzzy" or "model"
+     */
+    private String origin;
+
+    /**
+     * Output number of distinct text segments of a rich-text
+     */
+    private int segments;
+
+    /**
+     * Output fraction of the translations answered by the translation memory since the start of the module
+     */
+    private double memory_hit_ratio;
+
+    private final Provider<TranslationModule> translationModuleProvider;
+
+    @Inject
+    public PredictTranslationCommand(Provider<TranslationModule> translationModuleProvider) {
+        this.translationModuleProvider = translationModuleProvider;
+    }
+
     @Override
     public boolean execute(Context context) throws Exception {
         if (model_id == null && model_display_name == null) {
@@ -55,15 +112,84 @@ public class PredictTranslationCommand extends MgnlCommand {
             return false;
         }
 
+        final TranslationModule translationModule = translationModuleProvider.get();
+        final PredictionService predictionService = translationModule.getPredictionService();
+        final TranslationMemory translationMemory = translationModule.getTranslationMemory();
+
+        if (html) {
+            return translateHtml(predictionService, translationMemory);
+        }
+
+        // Translations of the imported contents are served locally, without a prediction
+        if (use_memory && lang_source != null && lang_target != null) {
+            final TranslationMemory.Match match = translationMemory.lookup(lang_source, lang_target, text);
+            memory_hit_ratio = translationMemory.getHitRatio();
+            if (match != null) {
+                log.debug("PredictTranslationCommand - translation of {} is {} ({}, similarity {})", text, match.getTranslation(), match.getOrigin(), match.getSimilarity());
+                setTranslation(match.getTranslation());
+                setOrigin(match.getOrigin());
+                return true;
+            }
+        }
+
         // the target lang depends on the prediction model
         String translation = "";
         if (model_display_name != null) {
-            translation = PredictionApi.predictByModelDisplayName(project_id, compute_region, model_display_name, text);
+            translation = predictionService.predictByModelDisplayName(project_id, compute_region, model_display_name, text);
         } else if (model_id != null) {
-            translation = PredictionApi.predict(project_id, compute_region, model_id, text);
+            translation = predictionService.predict(project_id, compute_region, model_id, text);
         }
 
-        log.warn("PredictTranslationCommand - translation of {} is {}", text, translation);
+        log.debug("PredictTranslationCommand - translation of {} is {}", text, translation);
+        log.debug("PredictTranslationCommand - cache hits {} misses {} evictions {}",
+                predictionService.getCache().getHitCount(), predictionService.getCache().getMissCount(), predictionService.getCache().getEvictionCount());
+        log.debug("PredictTranslationCommand - {} of the translations answered by the translation memory", String.format("%.3f", translationMemory.getHitRatio()));
+        setTranslation(translation);
+        setOrigin("model");
+
+        return true;
+    }
+
+    /**
+     * Translates the distinct text segments of the rich-text, from the translation memory or with concurrent predictions,
+     * and puts them back in its markup
+     * @param predictionService
+     * @param translationMemory
+     * @return
+     * @throws InterruptedException
+     */
+    private boolean translateHtml(PredictionService predictionService, TranslationMemory translationMemory) throws InterruptedException {
+        final HtmlTranslation htmlTranslation = HtmlTranslation.parse(text);
+        segments = htmlTranslation.getSegments().size();
+        origin = null;
+
+        final Map<String, String> translations = new HashMap<>();
+        final Set<String> pending = new LinkedHashSet<>();
+        for (String segment : htmlTranslation.getSegments()) {
+            final TranslationMemory.Match match = (use_memory && lang_source != null && lang_target != null) ?
+                    translationMemory.lookup(lang_source, lang_target, segment) : null;
+            if (match == null) {
+                pending.add(segment);
+                continue;
+            }
+            translations.put(segment, match.getTranslation());
+            if (origin == null || TranslationMemory.ORIGIN_FUZZY.equals(match.getOrigin())) {
+                origin = match.getOrigin();
+            }
+        }
+        if (!pending.isEmpty()) {
+            translations.putAll(predictionService.predictAll(project_id, compute_region, model_display_name, model_id, pending, concurrency,
+                    predictionService.getLimiter().getDeadlineMillis()));
+            origin = "model";
+        }
+        memory_hit_ratio = translationMemory.getHitRatio();
+
+        final String translation = htmlTranslation.apply(translations);
+        if (translation == null) {
+            log.error("PredictTranslationCommand failure - {} of {} segments not translated", segments - translations.size(), segments);
+            return false;
+        }
+        log.debug("PredictTranslationCommand - translation of {} is {} ({} segments, {} predicted)", text, translation, segments, pending.size());
         setTranslation(translation);
 
         return true;
@@ -1,7 +1,8 @@
 package com.formentor.magnolia.mltranslation.command;
 
-import com.formentor.google.automl.DatasetApi;
-import com.formentor.google.automl.ModelApi;
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.operation.TrackedOperation;
 import com.google.cloud.automl.v1beta1.Dataset;
 import info.magnolia.commands.MgnlCommand;
 import info.magnolia.context.Context;
@@ -9,9 +10,10 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 
 @Slf4j
 @Getter
@@ -38,16 +40,23 @@ public class TrainModelCommand extends MgnlCommand {
      */
     private String model_name;
 
+    private final Provider<TranslationModule> translationModuleProvider;
+
+    @Inject
+    public TrainModelCommand(Provider<TranslationModule> translationModuleProvider) {
+        this.translationModuleProvider = translationModuleProvider;
+    }
 
     @Override
     public boolean execute(Context context) throws Exception {
-        List<Dataset> datasets = DatasetApi.getDatasetByDisplayName(project_id, compute_region, dataset_name);
-        if (datasets == null || datasets.isEmpty()) {
+        final TranslationModule translationModule = translationModuleProvider.get();
+
+        final Dataset dataset = translationModule.getBackend().getDatasetByDisplayName(project_id, compute_region, dataset_name);
+        if (dataset == null) {
             log.error("TrainModel failure - dataset {} does not exist", dataset_name);
             return false;
         }
-        final Dataset dataset = datasets.get(0);
-        final String datasetId = dataset.getName().split("/")[dataset.getName().split("/").length - 1];
+        final String datasetId = TranslationBackend.getId(dataset.getName());
 
         String model_name_final = model_name;
         if (model_name_final == null) {
@@ -55,8 +64,16 @@ public class TrainModelCommand extends MgnlCommand {
             model_name_final = buildModelName(datasetDisplayName);
         }
 
-        // Launch training
-        String response = ModelApi.createModel(project_id, compute_region, datasetId, model_name_final);
+        // Launch training, the tracker follows it and discards the translations cached for a previous model with the same name
+        String response = translationModule.getBackend().startCreateModel(project_id, compute_region, datasetId, model_name_final).get();
+        translationModule.getOperationTracker().track(TrackedOperation.builder()
+                .name(response)
+                .type(TrackedOperation.TYPE_CREATE_MODEL)
+                .projectId(project_id)
+                .computeRegion(compute_region)
+                .datasetId(datasetId)
+                .displayName(model_name_final)
+                .build());
 
         return (response != null);
     }
@@ -66,7 +83,7 @@ public class TrainModelCommand extends MgnlCommand {
      * @param datasetName
      * @return
      */
-    private String buildModelName(String datasetName) {
+    public static String buildModelName(String datasetName) {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
         return datasetName + "_v" + sdf.format(new Date());
     }
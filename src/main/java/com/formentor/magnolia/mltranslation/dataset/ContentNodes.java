@@ -0,0 +1,339 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import info.magnolia.jcr.RuntimeRepositoryException;
+import info.magnolia.jcr.util.NodeTypes;
+import org.apache.jackrabbit.util.ISO8601;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Selection of the nodes of a tree whose properties are used to extract sentences.
+ *
+ * Nodes are returned lazily, either walking the tree or running a JCR-SQL2 query. The iterator of a selection counts
+ * every node it reads, also the ones it skips, see {@link FilteringIterator#onRead(long, ReadListener)}.
+ */
+public final class ContentNodes {
+
+    /**
+     * Walk the tree visiting every node
+     */
+    public static final String MODE_TRAVERSAL = "traversal";
+
+    /**
+     * Select the nodes with an indexed query by node type
+     */
+    public static final String MODE_QUERY = "query";
+
+    private ContentNodes() {
+    }
+
+    /**
+     * Nodes of a selection
+     */
+    public interface Selection extends Iterable<Node> {
+        @Override
+        FilteringIterator iterator();
+    }
+
+    /**
+     * Called by the iterator of a selection every number of nodes read
+     */
+    public interface ReadListener {
+        void onRead(long nodesRead) throws RepositoryException;
+    }
+
+    /**
+     * Returns the nodes of the tree starting at root with the primary type nodeType
+     * @param root root of the tree
+     * @param nodeType primary type of the nodes, null for every node
+     * @param mode {@link #MODE_TRAVERSAL} or {@link #MODE_QUERY}
+     * @return
+     * @throws RepositoryException
+     */
+    public static Selection select(Node root, String nodeType, String mode) throws RepositoryException {
+        return select(root, nodeType, mode, null);
+    }
+
+    /**
+     * Returns the nodes of the tree starting at root with the primary type nodeType modified after modifiedSince
+     * @param root root of the tree
+     * @param nodeType primary type of the nodes, null for every node
+     * @param mode {@link #MODE_TRAVERSAL} or {@link #MODE_QUERY}
+     * @param modifiedSince only nodes with mgnl:lastModified after this date, null for every node
+     * @return
+     * @throws RepositoryException
+     */
+    public static Selection select(Node root, String nodeType, String mode, Calendar modifiedSince) throws RepositoryException {
+        if (MODE_QUERY.equals(mode)) {
+            return query(root, nodeType, modifiedSince);
+        }
+        return traverse(root, nodeType, modifiedSince);
+    }
+
+    /**
+     * Returns the nodes of the tree walking it in pre-order, without recursion
+     * @param root
+     * @param nodeType
+     * @return
+     */
+    public static Selection traverse(Node root, String nodeType) {
+        return traverse(root, nodeType, null);
+    }
+
+    /**
+     * Returns the nodes of the tree modified after modifiedSince walking it in pre-order, without recursion
+     * @param root
+     * @param nodeType
+     * @param modifiedSince
+     * @return
+     */
+    public static Selection traverse(Node root, String nodeType, Calendar modifiedSince) {
+        return () -> new FilteringIterator(new TraversalIterator(root), nodeType, modifiedSince);
+    }
+
+    /**
+     * Returns the nodes of the tree modified after modifiedSince that come after the node at resumeAfter in pre-order,
+     * the walk of an interrupted traversal goes on from that node without visiting again the nodes before it
+     * @param root
+     * @param nodeType
+     * @param modifiedSince
+     * @param resumeAfter path of the last node returned by the interrupted traversal, null to walk the whole tree
+     * @return
+     * @throws PathNotFoundException the node at resumeAfter does not exist or is not in the tree
+     * @throws RepositoryException
+     */
+    public static Selection traverse(Node root, String nodeType, Calendar modifiedSince, String resumeAfter) throws RepositoryException {
+        if (resumeAfter == null) {
+            return traverse(root, nodeType, modifiedSince);
+        }
+        final String rootPath = root.getPath();
+        if (!resumeAfter.equals(rootPath) && !resumeAfter.startsWith(rootPath.equals("/") ? "/" : rootPath + "/")) {
+            throw new PathNotFoundException(resumeAfter + " is not in " + rootPath);
+        }
+        final Node last = root.getSession().getNode(resumeAfter);
+        return () -> {
+            try {
+                return new FilteringIterator(new TraversalIterator(root, last), nodeType, modifiedSince);
+            } catch (RepositoryException e) {
+                throw new RuntimeRepositoryException(e);
+            }
+        };
+    }
+
+    /**
+     * Returns the nodes of the tree using a JCR-SQL2 query on ISDESCENDANTNODE and node type
+     * @param root
+     * @param nodeType
+     * @return
+     * @throws RepositoryException
+     */
+    public static Selection query(Node root, String nodeType) throws RepositoryException {
+        return query(root, nodeType, (Calendar) null);
+    }
+
+    /**
+     * Returns the nodes of the tree modified after modifiedSince using a JCR-SQL2 query on ISDESCENDANTNODE, node type and mgnl:lastModified
+     * @param root
+     * @param nodeType
+     * @param modifiedSince
+     * @return
+     * @throws RepositoryException
+     */
+    public static Selection query(Node root, String nodeType, Calendar modifiedSince) throws RepositoryException {
+        final String path = pathLiteral(root.getPath());
+        String statement = "SELECT * FROM [" + ((nodeType != null) ? nodeType : "nt:base") + "] AS n"
+                + " WHERE (ISSAMENODE(n, " + path + ") OR ISDESCENDANTNODE(n, " + path + "))";
+        if (modifiedSince != null) {
+            statement += " AND n.[" + NodeTypes.LastModified.NAME + "] > CAST('" + ISO8601.format(modifiedSince) + "' AS DATE)";
+        }
+        return query(root, nodeType, statement, modifiedSince);
+    }
+
+    /**
+     * Returns the path as a quoted JCR-SQL2 path, names may have quotes, brackets or spaces that would end a bare one
+     * @param path
+     * @return
+     */
+    static String pathLiteral(String path) {
+        return "['" + path.replace("'", "''") + "']";
+    }
+
+    /**
+     * Returns the nodes selected by a JCR-SQL2 statement, the query runs on every iteration and the result is read lazily
+     * @param root
+     * @param nodeType
+     * @param statement
+     * @return
+     * @throws RepositoryException
+     */
+    public static Selection query(Node root, String nodeType, String statement, Calendar modifiedSince) throws RepositoryException {
+        final QueryManager queryManager = root.getSession().getWorkspace().getQueryManager();
+        final Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
+        // The query matches subtypes of nodeType, keep the exact match of the traversal
+        return () -> {
+            try {
+                return new FilteringIterator(query.execute().getNodes(), nodeType, modifiedSince);
+            } catch (RepositoryException e) {
+                throw new RuntimeRepositoryException(e);
+            }
+        };
+    }
+
+    /**
+     * Returns true if the node was modified after the date
+     * @param node
+     * @param modifiedSince date, null to accept any node
+     * @return
+     * @throws RepositoryException
+     */
+    public static boolean isModifiedSince(Node node, Calendar modifiedSince) throws RepositoryException {
+        if (modifiedSince == null) {
+            return true;
+        }
+        final Calendar lastModified = NodeTypes.LastModified.getLastModified(node);
+        return lastModified != null && lastModified.after(modifiedSince);
+    }
+
+    /**
+     * Pre-order iterator over a tree keeping a stack of child iterators instead of recursion
+     */
+    private static class TraversalIterator implements Iterator<Node> {
+        private final Deque<NodeIterator> stack = new ArrayDeque<>();
+        private Node next;
+
+        TraversalIterator(Node root) {
+            this.next = root;
+        }
+
+        /**
+         * Iterator positioned after last: the children of its ancestors are walked from the sibling that follows the
+         * ancestor on the path to last, the children of last come first
+         */
+        TraversalIterator(Node root, Node last) throws RepositoryException {
+            Deque<Node> path = new ArrayDeque<>();
+            for (Node node = last; !node.isSame(root); node = node.getParent()) {
+                path.push(node);
+            }
+            Node parent = root;
+            for (Node child : path) {
+                final NodeIterator siblings = parent.getNodes();
+                while (siblings.hasNext()) {
+                    if (siblings.nextNode().isSame(child)) {
+                        break;
+                    }
+                }
+                stack.push(siblings);
+                parent = child;
+            }
+            stack.push(last.getNodes());
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            while (!stack.isEmpty()) {
+                NodeIterator children = stack.peek();
+                if (children.hasNext()) {
+                    next = children.nextNode();
+                    return true;
+                }
+                stack.pop();
+            }
+            return false;
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = next;
+            next = null;
+            try {
+                stack.push(node.getNodes());
+            } catch (RepositoryException e) {
+                throw new RuntimeRepositoryException(e);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Iterator skipping the nodes whose primary type is not nodeType or not modified after modifiedSince
+     */
+    public static class FilteringIterator implements Iterator<Node> {
+        private final Iterator<?> nodes;
+        private final String nodeType;
+        private final Calendar modifiedSince;
+        private Node next;
+        private long readCount;
+        private long readInterval;
+        private ReadListener readListener;
+
+        FilteringIterator(Iterator<?> nodes, String nodeType, Calendar modifiedSince) {
+            this.nodes = nodes;
+            this.nodeType = nodeType;
+            this.modifiedSince = modifiedSince;
+        }
+
+        /**
+         * Calls the listener every interval nodes read from the tree or the query, the skipped ones included, so a
+         * selective filter does not read an unbounded number of nodes between calls
+         * @param interval
+         * @param listener
+         */
+        public void onRead(long interval, ReadListener listener) {
+            this.readInterval = interval;
+            this.readListener = listener;
+        }
+
+        /**
+         * Number of nodes read, the skipped ones included
+         * @return
+         */
+        public long getReadCount() {
+            return readCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && nodes.hasNext()) {
+                    Node node = (Node) nodes.next();
+                    readCount++;
+                    if (readListener != null && readInterval > 0 && readCount % readInterval == 0) {
+                        readListener.onRead(readCount);
+                    }
+                    if ((nodeType == null || node.getPrimaryNodeType().getName().equals(nodeType)) && isModifiedSince(node, modifiedSince)) {
+                        next = node;
+                    }
+                }
+            } catch (RepositoryException e) {
+                throw new RuntimeRepositoryException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = next;
+            next = null;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.io.IOException;
+
+/**
+ * Writer that drops the sentences already written.
+ *
+ * Sentences are identified by a 64-bit hash of the normalized source and target kept in a {@link LongHashSet},
+ * the texts themselves are not retained.
+ */
+public class DeduplicatingSentenceWriter implements SentenceWriter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SentenceWriter delegate;
+    private final boolean ignoreWhitespace;
+    private final boolean ignoreCase;
+    private final LongHashSet hashes = new LongHashSet();
+
+    private long duplicateCount = 0;
+    private long duplicateBytes = 0;
+
+    /**
+     * @param delegate writer of the unique sentences
+     * @param ignoreWhitespace sentences differing in leading, trailing or repeated whitespace are duplicates
+     * @param ignoreCase sentences differing in case are duplicates
+     */
+    public DeduplicatingSentenceWriter(SentenceWriter delegate, boolean ignoreWhitespace, boolean ignoreCase) {
+        this.delegate = delegate;
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.ignoreCase = ignoreCase;
+    }
+
+    @Override
+    public void write(Sentence sentence) throws IOException {
+        long hash = hash(FNV_OFFSET_BASIS, sentence.getSource());
+        hash = (hash ^ '\t') * FNV_PRIME;
+        hash = hash(hash, sentence.getTarget());
+
+        if (hashes.add(fmix64(hash))) {
+            delegate.write(sentence);
+        } else {
+            duplicateCount++;
+            duplicateBytes += TsvSentenceWriter.lineLength(sentence);
+        }
+    }
+
+    @Override
+    public long getSentenceCount() {
+        return delegate.getSentenceCount();
+    }
+
+    @Override
+    public long getByteCount() {
+        return delegate.getByteCount();
+    }
+
+    /**
+     * Number of sentences dropped
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Number of bytes not written because of duplicates
+     */
+    public long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * FNV-1a hash of the normalized text, the normalization is applied while hashing without copying the text
+     * @param hash
+     * @param text
+     * @return
+     */
+    private long hash(long hash, String text) {
+        if (text == null) {
+            return hash;
+        }
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (ignoreWhitespace && Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                hash = (hash ^ ' ') * FNV_PRIME;
+                pendingSpace = false;
+            }
+            if (ignoreCase) {
+                c = Character.toLowerCase(c);
+            }
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            started = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Final avalanche of MurmurHash3 to spread FNV bits
+     */
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,219 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import info.magnolia.cms.core.Path;
+import info.magnolia.jcr.util.NodeTypes;
+import info.magnolia.jcr.util.NodeUtil;
+import lombok.Data;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoints of the imports of training data, stored at <tt>config:/modules/magnolia-content-translation-ml/checkpoints</tt>.
+ *
+ * A checkpoint is the progress of a run of a (workspace, path, source language): the last node read and, for every
+ * target language, the shards already uploaded. A run that fails goes on from its last checkpoint on the next run
+ * instead of reading the whole tree again. The checkpoint is removed once the imports of every language are started.
+ */
+public class ImportCheckpoints {
+
+    public static final String CHECKPOINTS_PATH = "/modules/magnolia-content-translation-ml/checkpoints";
+
+    private static final String PROPERTY_WORKSPACE = "workspace";
+    private static final String PROPERTY_PATH = "path";
+    private static final String PROPERTY_LANG_SOURCE = "lang_source";
+    private static final String PROPERTY_PARAMS = "params";
+    private static final String PROPERTY_RUN_START = "run_start";
+    private static final String PROPERTY_MODIFIED_SINCE = "modified_since";
+    private static final String PROPERTY_LAST_PATH = "last_path";
+    private static final String PROPERTY_EXTRACTED = "extracted";
+    private static final String PROPERTY_NODES_VISITED = "nodes_visited";
+    private static final String PROPERTY_LANG_KEY = "lang_key";
+    private static final String PROPERTY_LANG_TARGET = "lang_target";
+    private static final String PROPERTY_WATERMARK = "watermark";
+    private static final String PROPERTY_SHARD_NAMES = "shard_names";
+    private static final String PROPERTY_SHARD_MD5S = "shard_md5s";
+    private static final String PROPERTY_SHARD_UNCHANGED = "shard_unchanged";
+    private static final String PROPERTY_NEXT_SHARD = "next_shard";
+    private static final String PROPERTY_SENTENCE_COUNT = "sentence_count";
+    private static final String PROPERTY_BYTE_COUNT = "byte_count";
+    private static final String PROPERTY_IMPORTED = "imported";
+
+    private final Session configSession;
+
+    public ImportCheckpoints(Session configSession) {
+        this.configSession = configSession;
+    }
+
+    /**
+     * Returns the checkpoint of the last run or null if there is none
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @return
+     * @throws RepositoryException
+     */
+    public Checkpoint get(String workspace, String path, String lang_source) throws RepositoryException {
+        final String checkpointPath = buildPath(workspace, path, lang_source);
+        if (!configSession.nodeExists(checkpointPath)) {
+            return null;
+        }
+        final Node node = configSession.getNode(checkpointPath);
+        final Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setParams(getString(node, PROPERTY_PARAMS));
+        checkpoint.setRunStart(node.hasProperty(PROPERTY_RUN_START) ? node.getProperty(PROPERTY_RUN_START).getDate() : null);
+        checkpoint.setModifiedSince(node.hasProperty(PROPERTY_MODIFIED_SINCE) ? node.getProperty(PROPERTY_MODIFIED_SINCE).getDate() : null);
+        checkpoint.setLastPath(getString(node, PROPERTY_LAST_PATH));
+        checkpoint.setExtracted(node.hasProperty(PROPERTY_EXTRACTED) && node.getProperty(PROPERTY_EXTRACTED).getBoolean());
+        checkpoint.setNodesVisited(node.hasProperty(PROPERTY_NODES_VISITED) ? node.getProperty(PROPERTY_NODES_VISITED).getLong() : 0);
+
+        final NodeIterator langNodes = node.getNodes();
+        while (langNodes.hasNext()) {
+            final Node langNode = langNodes.nextNode();
+            final LangCheckpoint lang = new LangCheckpoint();
+            lang.setLangTarget(getString(langNode, PROPERTY_LANG_TARGET));
+            lang.setWatermark(langNode.hasProperty(PROPERTY_WATERMARK) ? langNode.getProperty(PROPERTY_WATERMARK).getDate() : null);
+            if (langNode.hasProperty(PROPERTY_SHARD_NAMES)) {
+                final Value[] names = langNode.getProperty(PROPERTY_SHARD_NAMES).getValues();
+                final Value[] md5s = langNode.getProperty(PROPERTY_SHARD_MD5S).getValues();
+                final Value[] unchanged = langNode.getProperty(PROPERTY_SHARD_UNCHANGED).getValues();
+                for (int i = 0; i < names.length; i++) {
+                    lang.getShards().add(new ShardUploader.UploadedShard(names[i].getString(), md5s[i].getString(), unchanged[i].getBoolean()));
+                }
+            }
+            lang.setNextShard((int) langNode.getProperty(PROPERTY_NEXT_SHARD).getLong());
+            lang.setSentenceCount(langNode.getProperty(PROPERTY_SENTENCE_COUNT).getLong());
+            lang.setByteCount(langNode.getProperty(PROPERTY_BYTE_COUNT).getLong());
+            lang.setImported(langNode.hasProperty(PROPERTY_IMPORTED) && langNode.getProperty(PROPERTY_IMPORTED).getBoolean());
+            checkpoint.getLangs().put(getString(langNode, PROPERTY_LANG_KEY), lang);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Stores the checkpoint, replacing the previous one
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @param checkpoint
+     * @throws RepositoryException
+     */
+    public void set(String workspace, String path, String lang_source, Checkpoint checkpoint) throws RepositoryException {
+        final Node node = NodeUtil.createPath(configSession.getRootNode(), buildPath(workspace, path, lang_source).substring(1), NodeTypes.ContentNode.NAME);
+        node.setProperty(PROPERTY_WORKSPACE, workspace);
+        node.setProperty(PROPERTY_PATH, path);
+        node.setProperty(PROPERTY_LANG_SOURCE, lang_source);
+        node.setProperty(PROPERTY_PARAMS, checkpoint.getParams());
+        node.setProperty(PROPERTY_RUN_START, checkpoint.getRunStart());
+        node.setProperty(PROPERTY_MODIFIED_SINCE, checkpoint.getModifiedSince());
+        node.setProperty(PROPERTY_LAST_PATH, checkpoint.getLastPath());
+        node.setProperty(PROPERTY_EXTRACTED, checkpoint.isExtracted());
+        node.setProperty(PROPERTY_NODES_VISITED, checkpoint.getNodesVisited());
+
+        final NodeIterator previous = node.getNodes();
+        while (previous.hasNext()) {
+            previous.nextNode().remove();
+        }
+        for (Map.Entry<String, LangCheckpoint> entry : checkpoint.getLangs().entrySet()) {
+            final LangCheckpoint lang = entry.getValue();
+            final Node langNode = node.addNode(Path.getValidatedLabel("lang-" + lang.getLangTarget()), NodeTypes.ContentNode.NAME);
+            langNode.setProperty(PROPERTY_LANG_KEY, entry.getKey());
+            langNode.setProperty(PROPERTY_LANG_TARGET, lang.getLangTarget());
+            langNode.setProperty(PROPERTY_WATERMARK, lang.getWatermark());
+            final List<ShardUploader.UploadedShard> shards = lang.getShards();
+            final String[] names = new String[shards.size()];
+            final String[] md5s = new String[shards.size()];
+            final Value[] unchanged = new Value[shards.size()];
+            for (int i = 0; i < shards.size(); i++) {
+                names[i] = shards.get(i).getBlobName();
+                md5s[i] = shards.get(i).getContentMd5();
+                unchanged[i] = configSession.getValueFactory().createValue(shards.get(i).isUnchanged());
+            }
+            langNode.setProperty(PROPERTY_SHARD_NAMES, names);
+            langNode.setProperty(PROPERTY_SHARD_MD5S, md5s);
+            langNode.setProperty(PROPERTY_SHARD_UNCHANGED, unchanged);
+            langNode.setProperty(PROPERTY_NEXT_SHARD, lang.getNextShard());
+            langNode.setProperty(PROPERTY_SENTENCE_COUNT, lang.getSentenceCount());
+            langNode.setProperty(PROPERTY_BYTE_COUNT, lang.getByteCount());
+            langNode.setProperty(PROPERTY_IMPORTED, lang.isImported());
+        }
+        configSession.save();
+    }
+
+    /**
+     * Removes the checkpoint
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @throws RepositoryException
+     */
+    public void remove(String workspace, String path, String lang_source) throws RepositoryException {
+        final String checkpointPath = buildPath(workspace, path, lang_source);
+        if (configSession.nodeExists(checkpointPath)) {
+            configSession.getNode(checkpointPath).remove();
+            configSession.save();
+        }
+    }
+
+    private static String getString(Node node, String property) throws RepositoryException {
+        return node.hasProperty(property) ? node.getProperty(property).getString() : null;
+    }
+
+    private String buildPath(String workspace, String path, String lang_source) {
+        return CHECKPOINTS_PATH + "/" + Path.getValidatedLabel(workspace + "-" + path + "-" + lang_source);
+    }
+
+    /**
+     * Progress of a run
+     */
+    @Data
+    public static class Checkpoint {
+        /**
+         * Params of the run that change its output, a checkpoint is only resumed by a run with the same params
+         */
+        private String params;
+        private Calendar runStart;
+        private Calendar modifiedSince;
+        /**
+         * Path of the last node read, null before the first node
+         */
+        private String lastPath;
+        /**
+         * Every node was read and every shard uploaded, only the imports are left
+         */
+        private boolean extracted;
+        private long nodesVisited;
+        /**
+         * Progress of every target lang by suffix of its properties
+         */
+        private Map<String, LangCheckpoint> langs = new LinkedHashMap<>();
+    }
+
+    /**
+     * Progress of a target lang
+     */
+    @Data
+    public static class LangCheckpoint {
+        private String langTarget;
+        /**
+         * Watermark of the last import of an incremental run, null for a full import
+         */
+        private Calendar watermark;
+        private List<ShardUploader.UploadedShard> shards = new ArrayList<>();
+        private int nextShard;
+        private long sentenceCount;
+        private long byteCount;
+        /**
+         * The import of the dataset was started
+         */
+        private boolean imported;
+    }
+}
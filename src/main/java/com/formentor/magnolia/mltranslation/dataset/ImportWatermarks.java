@@ -0,0 +1,111 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import info.magnolia.cms.core.Path;
+import info.magnolia.jcr.util.NodeTypes;
+import info.magnolia.jcr.util.NodeUtil;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Calendar;
+
+/**
+ * Watermarks of the imports of training data, stored at <tt>config:/modules/magnolia-content-translation-ml/watermarks</tt>.
+ *
+ * A watermark is the time of the last import of a (workspace, path, language pair), contents modified after it are
+ * the delta of the next incremental import. The MD5 of the last file imported in full is kept with it, an identical
+ * file is not imported again.
+ */
+public class ImportWatermarks {
+
+    public static final String WATERMARKS_PATH = "/modules/magnolia-content-translation-ml/watermarks";
+
+    private static final String PROPERTY_WORKSPACE = "workspace";
+    private static final String PROPERTY_PATH = "path";
+    private static final String PROPERTY_LANG_SOURCE = "lang_source";
+    private static final String PROPERTY_LANG_TARGET = "lang_target";
+    private static final String PROPERTY_WATERMARK = "watermark";
+    private static final String PROPERTY_CONTENT_MD5 = "content_md5";
+
+    private final Session configSession;
+
+    public ImportWatermarks(Session configSession) {
+        this.configSession = configSession;
+    }
+
+    /**
+     * Returns the watermark or null if the contents were never imported
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @param lang_target
+     * @return
+     * @throws RepositoryException
+     */
+    public Calendar get(String workspace, String path, String lang_source, String lang_target) throws RepositoryException {
+        final String watermarkPath = buildPath(workspace, path, lang_source, lang_target);
+        if (!configSession.nodeExists(watermarkPath)) {
+            return null;
+        }
+        final Node watermark = configSession.getNode(watermarkPath);
+        return watermark.hasProperty(PROPERTY_WATERMARK) ? watermark.getProperty(PROPERTY_WATERMARK).getDate() : null;
+    }
+
+    /**
+     * Returns the MD5 of the last file imported in full or null if unknown
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @param lang_target
+     * @return
+     * @throws RepositoryException
+     */
+    public String getContentMd5(String workspace, String path, String lang_source, String lang_target) throws RepositoryException {
+        final String watermarkPath = buildPath(workspace, path, lang_source, lang_target);
+        if (!configSession.nodeExists(watermarkPath)) {
+            return null;
+        }
+        final Node watermark = configSession.getNode(watermarkPath);
+        return watermark.hasProperty(PROPERTY_CONTENT_MD5) ? watermark.getProperty(PROPERTY_CONTENT_MD5).getString() : null;
+    }
+
+    /**
+     * Stores the watermark
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @param lang_target
+     * @param value
+     * @throws RepositoryException
+     */
+    public void set(String workspace, String path, String lang_source, String lang_target, Calendar value) throws RepositoryException {
+        set(workspace, path, lang_source, lang_target, value, null);
+    }
+
+    /**
+     * Stores the watermark and the MD5 of the file imported in full
+     * @param workspace
+     * @param path
+     * @param lang_source
+     * @param lang_target
+     * @param value
+     * @param contentMd5 MD5 of the file, null to keep the current one (incremental imports)
+     * @throws RepositoryException
+     */
+    public void set(String workspace, String path, String lang_source, String lang_target, Calendar value, String contentMd5) throws RepositoryException {
+        final Node watermark = NodeUtil.createPath(configSession.getRootNode(), buildPath(workspace, path, lang_source, lang_target).substring(1), NodeTypes.ContentNode.NAME);
+        watermark.setProperty(PROPERTY_WORKSPACE, workspace);
+        watermark.setProperty(PROPERTY_PATH, path);
+        watermark.setProperty(PROPERTY_LANG_SOURCE, lang_source);
+        watermark.setProperty(PROPERTY_LANG_TARGET, lang_target);
+        watermark.setProperty(PROPERTY_WATERMARK, value);
+        if (contentMd5 != null) {
+            watermark.setProperty(PROPERTY_CONTENT_MD5, contentMd5);
+        }
+        configSession.save();
+    }
+
+    private String buildPath(String workspace, String path, String lang_source, String lang_target) {
+        return WATERMARKS_PATH + "/" + Path.getValidatedLabel(workspace + "-" + path + "-" + lang_source + "-" + lang_target);
+    }
+}
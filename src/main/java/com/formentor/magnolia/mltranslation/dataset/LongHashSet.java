@@ -0,0 +1,106 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing and linear probing.
+ *
+ * Stores 8 bytes per slot without boxing, so millions of hashes fit in a few megabytes.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] slots;
+    private int size = 0;
+    private boolean containsEmpty = false;
+
+    public LongHashSet() {
+        this(1024);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 16) - 1) << 1;
+        slots = new long[capacity];
+    }
+
+    /**
+     * Adds the value
+     * @param value
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        if (size + 1 > slots.length * LOAD_FACTOR) {
+            rehash(slots.length << 1);
+        }
+        return insert(value);
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        final int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != EMPTY) {
+            if (slots[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        containsEmpty = false;
+    }
+
+    private boolean insert(long value) {
+        final int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != EMPTY) {
+            if (slots[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[index] = value;
+        size++;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        final long[] table = new long[capacity];
+        for (long value : slots) {
+            if (value != EMPTY) {
+                final int mask = capacity - 1;
+                int index = mix(value) & mask;
+                while (table[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+            }
+        }
+        slots = table;
+    }
+
+    private static int mix(long value) {
+        final long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
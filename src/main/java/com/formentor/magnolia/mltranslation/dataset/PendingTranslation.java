@@ -0,0 +1,12 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import lombok.Value;
+
+/**
+ * Property of a node that lacks the translation to the target language
+ */
+@Value
+public class PendingTranslation {
+    String nodeIdentifier;
+    String propertyName;
+}
@@ -0,0 +1,18 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Pair of source and target texts of the training dataset
+ */
+@Data
+@Builder
+public class Sentence {
+    String source;
+    String target;
+
+    public String toString() {
+        return source + "\t" + target;
+    }
+}
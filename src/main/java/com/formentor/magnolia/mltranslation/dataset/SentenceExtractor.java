@@ -0,0 +1,160 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import com.formentor.magnolia.mltranslation.parser.HtmlToPlainText;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the sentences of a node for every target language in a single pass.
+ *
+ * The properties of the node are indexed by base name and language suffix, i.e. "title", "title_de", "title_es"
+ * are the variants "", "de" and "es" of "title". The source text of every base name is converted to plain-text once
+ * and paired with each of the target variants.
+ */
+public class SentenceExtractor {
+
+    private final String sourceSuffix;
+    private final List<String> targetSuffixes;
+
+    /**
+     * Non empty suffixes sorted by length to match "pt_BR" before "BR"
+     */
+    private final List<String> knownSuffixes = new ArrayList<>();
+
+    private long propertyCount = 0;
+    private long sentenceCount = 0;
+
+    /**
+     * @param sourceSuffix suffix of the properties of source language, "" for the fallback language
+     * @param targetSuffixes suffixes of the properties of target languages, "" for the fallback language
+     */
+    public SentenceExtractor(String sourceSuffix, Collection<String> targetSuffixes) {
+        this.sourceSuffix = sourceSuffix;
+        this.targetSuffixes = new ArrayList<>(targetSuffixes);
+        if (!sourceSuffix.isEmpty()) {
+            knownSuffixes.add(sourceSuffix);
+        }
+        for (String targetSuffix : targetSuffixes) {
+            if (!targetSuffix.isEmpty() && !knownSuffixes.contains(targetSuffix)) {
+                knownSuffixes.add(targetSuffix);
+            }
+        }
+        knownSuffixes.sort(Comparator.comparingInt(String::length).reversed());
+    }
+
+    /**
+     * Writes the sentences of the node to the writer of each target suffix
+     * @param node
+     * @param writers writer for every target suffix, target suffixes without writer are skipped
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    public void extract(Node node, Map<String, ? extends SentenceWriter> writers) throws RepositoryException, IOException {
+        for (Map<String, Property> variants : indexProperties(node).values()) {
+            final Property source = variants.get(sourceSuffix);
+            if (source == null || variants.size() < 2) {
+                continue;
+            }
+
+            String sourceSentence = null;
+            for (String targetSuffix : targetSuffixes) {
+                final SentenceWriter writer = writers.get(targetSuffix);
+                final Property target = variants.get(targetSuffix);
+                if (writer == null || target == null) {
+                    continue;
+                }
+                if (sourceSentence == null) {
+                    sourceSentence = HtmlToPlainText.getPlainText(source.getString());
+                    if (!isTranslatable(sourceSentence)) {
+                        break;
+                    }
+                }
+                final String targetSentence = HtmlToPlainText.getPlainText(target.getString());
+                if (isTranslatable(targetSentence)) {
+                    writer.write(Sentence.builder()
+                            .source(sourceSentence)
+                            .target(targetSentence)
+                            .build());
+                    sentenceCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of properties examined
+     */
+    public long getPropertyCount() {
+        return propertyCount;
+    }
+
+    /**
+     * Number of sentences written to the writers
+     */
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    /**
+     * Index of the properties of the node by base name and language suffix
+     * @param node
+     * @return
+     * @throws RepositoryException
+     */
+    private Map<String, Map<String, Property>> indexProperties(Node node) throws RepositoryException {
+        Map<String, Map<String, Property>> index = new HashMap<>();
+
+        PropertyIterator propertyIterator = node.getProperties();
+        while (propertyIterator.hasNext()) {
+            Property property = propertyIterator.nextProperty();
+            propertyCount++;
+            if (isSystemProperty(property) || property.isMultiple()) {
+                continue;
+            }
+            final String name = property.getName();
+            String baseName = name;
+            String suffix = "";
+            for (String knownSuffix : knownSuffixes) {
+                if (name.length() > knownSuffix.length() + 1 && name.endsWith(knownSuffix) && name.charAt(name.length() - knownSuffix.length() - 1) == '_') {
+                    baseName = name.substring(0, name.length() - knownSuffix.length() - 1);
+                    suffix = knownSuffix;
+                    break;
+                }
+            }
+            index.computeIfAbsent(baseName, (n) -> new HashMap<>(4)).put(suffix, property);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns true for System properties
+     * @param property
+     * @return
+     * @throws RepositoryException
+     */
+    private boolean isSystemProperty(Property property) throws RepositoryException {
+        return (property.getName().indexOf("jcr:") > -1);
+    }
+
+    /**
+     * Returns true if the sentence is a good input for the dataset
+     * Sentences with more than 15 words has no value
+     * @param txt
+     * @return
+     */
+    private boolean isTranslatable(String txt) {
+        return (StringUtils.countMatches(txt, " ")<15);
+    }
+}
@@ -0,0 +1,22 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the sentences extracted for a training dataset
+ */
+public interface SentenceWriter extends Closeable {
+
+    void write(Sentence sentence) throws IOException;
+
+    /**
+     * Number of sentences written
+     */
+    long getSentenceCount();
+
+    /**
+     * Number of bytes written
+     */
+    long getByteCount();
+}
@@ -0,0 +1,172 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.metrics.ImportRun;
+import com.formentor.magnolia.mltranslation.metrics.MeteredChannel;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Uploads the shards of a dataset to Cloud Storage on the executor of the module, several shards at a time.
+ *
+ * Shards are named blobName + ".tsv" when the dataset is not sharded and blobName + "-00000.tsv"... otherwise, blobName
+ * is scoped to the run so the blobs of previous runs are never overwritten. A shard identical to the shard with the same
+ * index of the last imported file is not uploaded again, that blob is used instead.
+ */
+@Slf4j
+public class ShardUploader implements ShardedSentenceWriter.ShardListener {
+
+    private final TranslationBackend backend;
+    private final Executor executor;
+    private final String bucketName;
+    private final String blobName;
+    private final boolean sharded;
+    private final List<String> previousBlobs;
+    private final String contentType;
+    private final int chunkSize;
+    private final ImportRun run;
+
+    private final List<CompletableFuture<UploadedShard>> uploads = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param backend
+     * @param executor executor of the uploads
+     * @param bucketName
+     * @param blobName name of the blobs without extension
+     * @param sharded name the blobs with the index of the shard
+     * @param previousBlobs blobs of the last imported file by shard index, empty to upload every shard
+     * @param contentType
+     * @param chunkSize bytes of the chunks of an upload
+     * @param run run that accounts the bytes and time of the uploads
+     */
+    public ShardUploader(TranslationBackend backend, Executor executor, String bucketName, String blobName, boolean sharded,
+                         List<String> previousBlobs, String contentType, int chunkSize, ImportRun run) {
+        this.backend = backend;
+        this.executor = executor;
+        this.bucketName = bucketName;
+        this.blobName = blobName;
+        this.sharded = sharded;
+        this.previousBlobs = previousBlobs;
+        this.contentType = contentType;
+        this.chunkSize = chunkSize;
+        this.run = run;
+    }
+
+    @Override
+    public void onShard(int index, StagedUpload upload) {
+        final String shardName = sharded ? String.format("%s-%05d.tsv", blobName, index) : blobName + ".tsv";
+        try {
+            final String previousBlob = (index < previousBlobs.size()) ? previousBlobs.get(index) : null;
+            uploads.add(CompletableFuture.supplyAsync(() -> upload(shardName, previousBlob, upload), executor));
+        } catch (RuntimeException e) {
+            closeQuietly(upload);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the uploads
+     * @return the uploaded shards by index
+     * @throws IOException the first failure of an upload
+     */
+    public List<UploadedShard> await() throws IOException {
+        List<UploadedShard> shards = new ArrayList<>(uploads.size());
+        IOException failure = null;
+        for (CompletableFuture<UploadedShard> upload : uploads) {
+            try {
+                shards.add(upload.join());
+            } catch (CompletionException e) {
+                final IOException shardFailure = (e.getCause() instanceof UncheckedIOException) ? ((UncheckedIOException) e.getCause()).getCause()
+                        : new IOException("Upload of a shard of " + blobName + " failed", e.getCause());
+                if (failure == null) {
+                    failure = shardFailure;
+                } else {
+                    failure.addSuppressed(shardFailure);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return shards;
+    }
+
+    /**
+     * Drops the shards not uploaded yet, i.e. when the extraction fails
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the MD5 of a dataset, the MD5 of its shard when it is not sharded
+     * @param shards
+     * @return
+     */
+    public static String getContentMd5(List<UploadedShard> shards) {
+        if (shards.size() == 1) {
+            return shards.get(0).getContentMd5();
+        }
+        try {
+            final MessageDigest md5 = MessageDigest.getInstance("MD5");
+            for (UploadedShard shard : shards) {
+                md5.update(shard.getContentMd5().getBytes(UTF_8));
+            }
+            return Base64.getEncoder().encodeToString(md5.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private UploadedShard upload(String shardName, String previousBlob, StagedUpload upload) {
+        try {
+            if (cancelled) {
+                throw new IOException("Upload of " + shardName + " cancelled");
+            }
+            final String contentMd5 = upload.getContentMd5();
+            if (previousBlob != null && contentMd5.equals(backend.getBlobMd5(bucketName, previousBlob))) {
+                log.info("ShardUploader - {} identical to {}, skipping upload", shardName, previousBlob);
+                return new UploadedShard(previousBlob, contentMd5, true);
+            }
+            upload.uploadTo(new MeteredChannel(backend.createBlobWriter(bucketName, shardName, contentType, upload.getContentEncoding(), chunkSize), run));
+            log.debug("ShardUploader - {} uploaded", shardName);
+            return new UploadedShard(shardName, contentMd5, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closeQuietly(upload);
+        }
+    }
+
+    private void closeQuietly(StagedUpload upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            log.warn("ShardUploader - unable to delete a local file", e);
+        }
+    }
+
+    @Value
+    public static class UploadedShard {
+        String blobName;
+        String contentMd5;
+        /**
+         * The shard was identical to the blob of the last imported file and was not uploaded, blobName is that blob
+         */
+        boolean unchanged;
+    }
+}
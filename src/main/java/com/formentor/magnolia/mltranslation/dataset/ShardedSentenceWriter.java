@@ -0,0 +1,178 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.io.IOException;
+
+/**
+ * Splits the sentences of a dataset into several tsv files, the shards.
+ *
+ * Sentences are distributed round-robin over shardCount shards, so shards written at the same time have the same size,
+ * and a shard is completed once it reaches shardSize bytes, a new one takes its place. Every shard is written to a
+ * {@link StagedUpload} that is handed to the listener as soon as it is complete, so shards are uploaded while the
+ * next ones are written. The shards being written can be completed at any time, i.e. at a checkpoint of the import,
+ * {@link #isCompletable(long)} tells whether that leaves shards smaller than a minimum.
+ */
+public class ShardedSentenceWriter implements SentenceWriter {
+
+    private final long shardSize;
+    private final boolean gzip;
+    private final ShardListener listener;
+    private final Shard[] shards;
+
+    private int nextShard = 0;
+    private int shardIndex = 0;
+    private int completedShards = 0;
+    private long sentenceCount = 0;
+    private long byteCount = 0;
+
+    /**
+     * @param shardCount shards written at the same time
+     * @param shardSize bytes of a shard, 0 to not bound it
+     * @param gzip compress the shards
+     * @param listener receives every completed shard
+     */
+    public ShardedSentenceWriter(int shardCount, long shardSize, boolean gzip, ShardListener listener) {
+        this(shardCount, shardSize, gzip, listener, 0);
+    }
+
+    /**
+     * @param shardCount shards written at the same time
+     * @param shardSize bytes of a shard, 0 to not bound it
+     * @param gzip compress the shards
+     * @param listener receives every completed shard
+     * @param firstShardIndex index of the first shard, the shards before it were written by a previous run
+     */
+    public ShardedSentenceWriter(int shardCount, long shardSize, boolean gzip, ShardListener listener, int firstShardIndex) {
+        this.shardSize = shardSize;
+        this.gzip = gzip;
+        this.listener = listener;
+        this.shards = new Shard[Math.max(shardCount, 1)];
+        this.shardIndex = firstShardIndex;
+    }
+
+    @Override
+    public void write(Sentence sentence) throws IOException {
+        final int lane = nextShard;
+        nextShard = (nextShard + 1) % shards.length;
+        if (shards[lane] == null) {
+            shards[lane] = new Shard(shardIndex++, new StagedUpload(gzip));
+        }
+        final Shard shard = shards[lane];
+        final long bytes = shard.writer.getByteCount();
+        shard.writer.write(sentence);
+        sentenceCount++;
+        byteCount += shard.writer.getByteCount() - bytes;
+
+        if (shardSize > 0 && shard.writer.getByteCount() >= shardSize) {
+            shards[lane] = null;
+            complete(shard);
+        }
+    }
+
+    @Override
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of shards completed
+     * @return
+     */
+    public int getShardCount() {
+        return completedShards;
+    }
+
+    /**
+     * Returns the index of the next shard
+     * @return
+     */
+    public int getNextShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * Returns true if every shard being written has at least minBytes, so completing them leaves no small shards
+     * @param minBytes
+     * @return
+     */
+    public boolean isCompletable(long minBytes) {
+        for (Shard shard : shards) {
+            if (shard != null && shard.writer.getByteCount() < minBytes) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Completes the shards being written, the next sentences are written to new shards
+     * @throws IOException
+     */
+    public void completeShards() throws IOException {
+        IOException failure = null;
+        for (int lane = 0; lane < shards.length; lane++) {
+            if (shards[lane] != null) {
+                final Shard shard = shards[lane];
+                shards[lane] = null;
+                try {
+                    complete(shard);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Completes the shards being written, a dataset without sentences gets an empty shard
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        completeShards();
+        if (shardIndex == 0) {
+            complete(new Shard(shardIndex++, new StagedUpload(gzip)));
+        }
+    }
+
+    private void complete(Shard shard) throws IOException {
+        try {
+            shard.writer.close();
+        } catch (IOException e) {
+            shard.upload.close();
+            throw e;
+        }
+        completedShards++;
+        listener.onShard(shard.index, shard.upload);
+    }
+
+    /**
+     * Receives the completed shards, it becomes the owner of the {@link StagedUpload} and closes it
+     */
+    public interface ShardListener {
+        void onShard(int index, StagedUpload upload) throws IOException;
+    }
+
+    private static class Shard {
+        private final int index;
+        private final StagedUpload upload;
+        private final TsvSentenceWriter writer;
+
+        Shard(int index, StagedUpload upload) {
+            this.index = index;
+            this.upload = upload;
+            this.writer = new TsvSentenceWriter(upload.getOutputStream());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File written to a local temporary file before it is uploaded.
+ *
+ * The MD5 of the bytes to upload, gzip compressed or not, is computed while the file is written. It is the MD5 that
+ * Cloud Storage keeps for the blob, so an upload of a file identical to the existing blob can be skipped.
+ * Gzip output does not depend on the time of the run, the same content always gives the same bytes.
+ */
+public class StagedUpload implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final boolean gzip;
+    private final MessageDigest md5;
+    private final OutputStream outputStream;
+    private String contentMd5;
+
+    public StagedUpload(boolean gzip) throws IOException {
+        this.file = Files.createTempFile("translationml-", gzip ? ".tsv.gz" : ".tsv");
+        this.gzip = gzip;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final OutputStream digested = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE), md5);
+        this.outputStream = gzip ? new GZIPOutputStream(digested, BUFFER_SIZE) : digested;
+    }
+
+    /**
+     * Stream to write the content, the file is complete when it is closed
+     * @return
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Content-Encoding of the blob, null when not compressed
+     * @return
+     */
+    public String getContentEncoding() {
+        return gzip ? "gzip" : null;
+    }
+
+    /**
+     * Returns the base64 MD5 of the file, as Cloud Storage reports it, once the output stream is closed
+     * @return
+     */
+    public synchronized String getContentMd5() {
+        if (contentMd5 == null) {
+            contentMd5 = Base64.getEncoder().encodeToString(md5.digest());
+        }
+        return contentMd5;
+    }
+
+    public long getSize() throws IOException {
+        return Files.size(file);
+    }
+
+    /**
+     * Writes the file to the channel and closes it once the whole file is written. On a failure the channel is not
+     * closed, closing would commit the part of the file written over the existing blob
+     * @param channel
+     * @throws IOException
+     */
+    public void uploadTo(WritableByteChannel channel) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (source.read(buffer) >= 0) {
+                // Buffer methods, ByteBuffer overrides them since Java 9 and the calls would not link on Java 8
+                ((Buffer) buffer).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                ((Buffer) buffer).clear();
+            }
+        }
+        channel.close();
+    }
+
+    /**
+     * Deletes the local file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,110 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes sentences as lines "source\ttarget\n" of a tsv file.
+ *
+ * Sentences are streamed to the output through a fixed size buffer, so memory does not depend on the size of the dataset.
+ * The tsv format of AutoML has no escape sequences, tabs and line breaks inside a sentence are replaced by a space.
+ *
+ * The output is a local file, a {@link StagedUpload}, and not an upload channel: closing the writer on a failure would
+ * commit the truncated file over the existing blob.
+ */
+public class TsvSentenceWriter implements SentenceWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private long sentenceCount = 0;
+    private long byteCount = 0;
+
+    public TsvSentenceWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(Sentence sentence) throws IOException {
+        final String line = escape(sentence.getSource()) + "\t" + escape(sentence.getTarget()) + "\n";
+        writer.write(line);
+        sentenceCount++;
+        byteCount += utf8Length(line);
+    }
+
+    /**
+     * Returns the number of bytes of the line of the sentence
+     * @param sentence
+     * @return
+     */
+    public static long lineLength(Sentence sentence) {
+        return utf8Length(escape(sentence.getSource())) + utf8Length(escape(sentence.getTarget())) + 2;
+    }
+
+    @Override
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Replaces tabs and line breaks by a single space
+     * @param text
+     * @return
+     */
+    public static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        boolean lastWasBreak = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final boolean isBreak = (c == '\t' || c == '\n' || c == '\r');
+            if (isBreak && escaped == null) {
+                escaped = new StringBuilder(text.length()).append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (!isBreak) {
+                    escaped.append(c);
+                } else if (!lastWasBreak) {
+                    escaped.append(' ');
+                }
+            }
+            lastWasBreak = isBreak;
+        }
+        return (escaped == null) ? text : escaped.toString();
+    }
+
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,120 @@
+package com.formentor.magnolia.mltranslation.dataset;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the i18n properties with source text and without the translation to the target language
+ */
+public class UntranslatedProperties {
+
+    private final String nodeType;
+    private final Collection<Locale> locales;
+    private final String lang_suffix_source;
+    private final String lang_suffix_target;
+
+    /**
+     * @param nodeType type of the nodes to translate, null for every node
+     * @param locales locales of the site
+     * @param lang_suffix_source suffix of the source properties, empty for the fallback language
+     * @param lang_suffix_target suffix of the target properties, empty for the fallback language
+     */
+    public UntranslatedProperties(String nodeType, Collection<Locale> locales, String lang_suffix_source, String lang_suffix_target) {
+        this.nodeType = nodeType;
+        this.locales = locales;
+        this.lang_suffix_source = lang_suffix_source;
+        this.lang_suffix_target = lang_suffix_target;
+    }
+
+    /**
+     * Collects the properties of the tree starting at node that have source text and lack the target translation
+     * @param node
+     * @param pending properties by source text
+     * @throws RepositoryException
+     */
+    public void collect(Node node, Map<String, List<PendingTranslation>> pending) throws RepositoryException {
+        if (nodeType == null || node.getPrimaryNodeType().getName().equals(nodeType)) {
+            PropertyIterator propertyIterator = node.getProperties();
+            while (propertyIterator.hasNext()) {
+                Property property = propertyIterator.nextProperty();
+                if (isBaseProperty(property)) {
+                    String i18nPropertySource = buildI18nProperty(property.getName(), lang_suffix_source);
+                    String i18nPropertyTarget = buildI18nProperty(property.getName(), lang_suffix_target);
+                    if (node.hasProperty(i18nPropertySource) && !node.hasProperty(i18nPropertyTarget)) {
+                        String text = node.getProperty(i18nPropertySource).getString();
+                        if (StringUtils.isNotBlank(text)) {
+                            pending.computeIfAbsent(text, (t) -> new ArrayList<>()).add(new PendingTranslation(node.getIdentifier(), i18nPropertyTarget));
+                        }
+                    }
+                }
+            }
+        }
+
+        NodeIterator nodeIterator = node.getNodes();
+        while (nodeIterator.hasNext()) {
+            collect(nodeIterator.nextNode(), pending);
+        }
+    }
+
+    /**
+     * Returns the target property of a property of the node in the source language, i.e. when the property changes
+     * @param node
+     * @param propertyName
+     * @return name of the target property, null if the property is not a source property with text
+     * @throws RepositoryException
+     */
+    public String getTargetProperty(Node node, String propertyName) throws RepositoryException {
+        if (nodeType != null && !node.getPrimaryNodeType().getName().equals(nodeType) || !node.hasProperty(propertyName)) {
+            return null;
+        }
+        final Property property = node.getProperty(propertyName);
+        final String baseName;
+        if (lang_suffix_source == null || "".equals(lang_suffix_source)) {
+            if (!isBaseProperty(property)) {
+                return null;
+            }
+            baseName = propertyName;
+        } else {
+            if (!propertyName.endsWith("_" + lang_suffix_source) || property.isMultiple() || property.getType() != PropertyType.STRING) {
+                return null;
+            }
+            baseName = propertyName.substring(0, propertyName.length() - lang_suffix_source.length() - 1);
+        }
+        return StringUtils.isNotBlank(property.getString()) ? buildI18nProperty(baseName, lang_suffix_target) : null;
+    }
+
+    /**
+     * Returns true for non system String properties that are not the translation of another property
+     * @param property
+     * @return
+     * @throws RepositoryException
+     */
+    private boolean isBaseProperty(Property property) throws RepositoryException {
+        final String name = property.getName();
+        if (name.indexOf(':') > -1 || property.isMultiple() || property.getType() != PropertyType.STRING) {
+            return false;
+        }
+        return locales.stream().noneMatch((locale) -> name.endsWith("_" + locale.toString()));
+    }
+
+    /**
+     * Given a language, builds the i18n property name
+     * @param property
+     * @param lang_suffix
+     * @return
+     */
+    private String buildI18nProperty(String property, String lang_suffix) {
+        return (lang_suffix == null || "".equals(lang_suffix)) ? property : property+ "_" + lang_suffix;
+    }
+}
@@ -0,0 +1,244 @@
+package com.formentor.magnolia.mltranslation.memory;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Translations of a language pair indexed by source text.
+ *
+ * Exact matches are looked up by the hash of the normalized source: trimmed, with runs of whitespace as a single
+ * space. Fuzzy matches are the entries sharing most character trigrams of the lowercased source with the text,
+ * scored with the Dice coefficient 2 * shared / (trigrams of the text + trigrams of the entry).
+ * Adding a source already indexed replaces its translation.
+ */
+public class MemoryIndex {
+
+    /**
+     * Trigrams present in more entries than this are not used to find fuzzy candidates, like stop words
+     */
+    private static final int MAX_POSTINGS = 20000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> sources = new ArrayList<>();
+    private final List<String> targets = new ArrayList<>();
+    private final List<Integer> trigramCounts = new ArrayList<>();
+    private final Map<Long, int[]> postings = new HashMap<>();
+
+    /**
+     * Adds the translation of source
+     * @param source
+     * @param target
+     */
+    public void put(String source, String target) {
+        final String normalized = normalize(source);
+        if (normalized.isEmpty() || target == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            final Integer id = ids.get(normalized);
+            if (id != null) {
+                targets.set(id, target);
+                return;
+            }
+            final int newId = sources.size();
+            ids.put(normalized, newId);
+            sources.add(normalized);
+            targets.add(target);
+            final long[] trigrams = trigrams(normalized);
+            trigramCounts.add(trigrams.length);
+            for (long trigram : trigrams) {
+                final int[] posting = postings.get(trigram);
+                if (posting == null) {
+                    postings.put(trigram, new int[]{1, newId});
+                } else if (posting[0] + 1 < posting.length) {
+                    posting[++posting[0]] = newId;
+                } else {
+                    // posting[0] is the number of ids, the array doubles when it is full
+                    final int[] grown = Arrays.copyOf(posting, posting.length << 1);
+                    grown[++grown[0]] = newId;
+                    postings.put(trigram, grown);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the translation of the text with the same normalized source
+     * @param text
+     * @return null if not found
+     */
+    public String getExact(String text) {
+        lock.readLock().lock();
+        try {
+            final Integer id = ids.get(normalize(text));
+            return (id != null) ? targets.get(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most similar entry to the text
+     * @param text
+     * @param threshold minimum similarity, from 0 to 1
+     * @return null if no entry is similar enough
+     */
+    public Match getFuzzy(String text, double threshold) {
+        final long[] queryTrigrams = trigrams(normalize(text));
+        if (queryTrigrams.length == 0) {
+            return null;
+        }
+        // Dice >= threshold bounds the number of trigrams of the candidates
+        final double minTrigrams = queryTrigrams.length * threshold / (2 - threshold);
+        final double maxTrigrams = queryTrigrams.length * (2 - threshold) / threshold;
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> shared = new HashMap<>();
+            int skipped = 0;
+            for (long trigram : queryTrigrams) {
+                final int[] posting = postings.get(trigram);
+                if (posting == null) {
+                    continue;
+                }
+                if (posting[0] > MAX_POSTINGS) {
+                    skipped++;
+                    continue;
+                }
+                for (int i = 1; i <= posting[0]; i++) {
+                    final int count = trigramCounts.get(posting[i]);
+                    if (count >= minTrigrams && count <= maxTrigrams) {
+                        shared.merge(posting[i], 1, Integer::sum);
+                    }
+                }
+            }
+
+            int bestId = -1;
+            double bestScore = threshold;
+            for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+                final int count = trigramCounts.get(candidate.getKey());
+                // the skipped trigrams may be shared too, the candidates that could reach the threshold are scored exactly
+                if (2.0 * (candidate.getValue() + skipped) / (queryTrigrams.length + count) < bestScore) {
+                    continue;
+                }
+                final double score = (skipped == 0) ? 2.0 * candidate.getValue() / (queryTrigrams.length + count)
+                        : 2.0 * shared(queryTrigrams, trigrams(sources.get(candidate.getKey()))) / (queryTrigrams.length + count);
+                if (score >= bestScore) {
+                    bestId = candidate.getKey();
+                    bestScore = score;
+                }
+            }
+            return (bestId >= 0) ? new Match(sources.get(bestId), targets.get(bestId), bestScore) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int shared(long[] sortedTrigrams, long[] trigrams) {
+        int count = 0;
+        for (long trigram : trigrams) {
+            if (Arrays.binarySearch(sortedTrigrams, trigram) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return sources.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes every entry to the consumer, i.e. to store the index
+     * @param consumer
+     * @throws IOException
+     */
+    public void forEach(EntryConsumer consumer) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < sources.size(); id++) {
+                consumer.accept(sources.get(id), targets.get(id));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Trims the text and replaces runs of whitespace with a single space
+     * @param text
+     * @return
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        final StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Sorted distinct trigrams of the lowercased text padded with a space at both ends, three chars packed in a long
+     * @param normalized
+     * @return
+     */
+    static long[] trigrams(String normalized) {
+        if (normalized.isEmpty()) {
+            return new long[0];
+        }
+        final String padded = " " + normalized.toLowerCase() + " ";
+        final long[] trigrams = new long[Math.max(padded.length() - 2, 0)];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        return Arrays.stream(trigrams).distinct().sorted().toArray();
+    }
+
+    public interface EntryConsumer {
+        void accept(String source, String target) throws IOException;
+    }
+
+    /**
+     * Entry similar to a text
+     */
+    @Value
+    public static class Match {
+        String source;
+        String target;
+        /**
+         * Dice coefficient of the trigrams, 1 for identical texts
+         */
+        double similarity;
+    }
+}
@@ -0,0 +1,382 @@
+package com.formentor.magnolia.mltranslation.memory;
+
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import com.formentor.magnolia.mltranslation.dataset.Sentence;
+import com.formentor.magnolia.mltranslation.dataset.SentenceWriter;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Translations of the contents, served before asking the model.
+ *
+ * The memory is fed with the sentences extracted by ImportTrainingCommand, the translations that editors wrote,
+ * through {@link #writer(String, String, SentenceWriter)}: the pairs of an import are spilled to a file of directory
+ * while it runs, added to the {@link MemoryIndex} of its language pair once their shards are uploaded, before the
+ * dataset import is started, and the index is stored in directory once per run, loaded again on start. The pairs of an
+ * import that fails before its shards are uploaded are discarded.
+ *
+ * The memory is configured at <tt>config:/modules/magnolia-content-translation-ml/config/translationMemory</tt>.
+ */
+@Slf4j
+@Getter
+public class TranslationMemory {
+
+    public static final String ORIGIN_EXACT = "memory";
+    public static final String ORIGIN_FUZZY = "memory_fuzzy";
+
+    private static final String FILE_SUFFIX = ".tm.gz";
+    private static final String SPILL_SUFFIX = ".pending";
+    private static final int FILE_VERSION = 1;
+
+    @Setter
+    private boolean enabled = true;
+
+    /**
+     * Directory of the stored indexes, <tt>translationml/memory</tt> of the Magnolia home if not set
+     */
+    @Setter
+    private String directory;
+
+    /**
+     * Serve the translation of similar texts when there is no exact match
+     */
+    @Setter
+    private boolean fuzzy = false;
+
+    /**
+     * Minimum similarity of a fuzzy match, from 0 to 1
+     */
+    @Setter
+    private double fuzzyThreshold = 0.85;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, MemoryIndex> indexes = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final LongAdder lookups = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder exactHits = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder fuzzyHits = new LongAdder();
+
+    /**
+     * Loads the stored indexes
+     */
+    public void start() {
+        indexes.clear();
+        if (!enabled) {
+            return;
+        }
+        final Path root = getRoot();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        // Pairs of imports stopped by a restart
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "*" + SPILL_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("TranslationMemory - unable to delete the pending pairs of {}", root, e);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                final String langPair = file.getFileName().toString();
+                try {
+                    indexes.put(langPair.substring(0, langPair.length() - FILE_SUFFIX.length()), load(file));
+                } catch (IOException e) {
+                    log.warn("TranslationMemory - unable to load {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("TranslationMemory - unable to list {}", root, e);
+        }
+        indexes.forEach((langPair, index) -> log.info("TranslationMemory - {} translations of {} loaded", index.size(), langPair));
+    }
+
+    /**
+     * Returns the translation of the text from the memory
+     * @param langSource
+     * @param langTarget
+     * @param text
+     * @return null if the memory does not have the translation
+     */
+    public Match lookup(String langSource, String langTarget, String text) {
+        if (!enabled) {
+            return null;
+        }
+        lookups.increment();
+        final MemoryIndex index = indexes.get(langPair(langSource, langTarget));
+        if (index == null) {
+            return null;
+        }
+        final String exact = index.getExact(text);
+        if (exact != null) {
+            exactHits.increment();
+            return new Match(exact, ORIGIN_EXACT, 1);
+        }
+        if (fuzzy) {
+            final MemoryIndex.Match match = index.getFuzzy(text, fuzzyThreshold);
+            if (match != null) {
+                fuzzyHits.increment();
+                return new Match(match.getTarget(), ORIGIN_FUZZY, match.getSimilarity());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a writer that passes the sentences to the delegate and keeps them for the memory of the language pair
+     * until {@link MemoryWriter#commit()}
+     * @param langSource
+     * @param langTarget
+     * @param delegate
+     * @return
+     */
+    public MemoryWriter writer(String langSource, String langTarget, SentenceWriter delegate) {
+        return new MemoryWriter(langPair(langSource, langTarget), delegate);
+    }
+
+    /**
+     * Number of translations of the memory
+     * @return
+     */
+    public long getSize() {
+        return indexes.values().stream().mapToLong(MemoryIndex::size).sum();
+    }
+
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    public long getExactHitCount() {
+        return exactHits.sum();
+    }
+
+    public long getFuzzyHitCount() {
+        return fuzzyHits.sum();
+    }
+
+    /**
+     * Fraction of the lookups answered by the memory
+     * @return
+     */
+    public double getHitRatio() {
+        final long count = lookups.sum();
+        return (count == 0) ? 0 : (double) (exactHits.sum() + fuzzyHits.sum()) / count;
+    }
+
+    private Path getRoot() {
+        return (directory != null) ? Paths.get(directory) : TranslationModule.getDataDirectory("memory");
+    }
+
+    private void store(String langPair, MemoryIndex index) {
+        final Path root = getRoot();
+        final Path file = root.resolve(langPair + FILE_SUFFIX);
+        try {
+            Files.createDirectories(root);
+            // Written aside and moved, a crash never leaves a truncated index
+            final Path tmp = Files.createTempFile(root, langPair, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(FILE_VERSION);
+                index.forEach((source, target) -> {
+                    writeString(out, source);
+                    writeString(out, target);
+                });
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("TranslationMemory - {} translations of {} stored", index.size(), langPair);
+        } catch (IOException e) {
+            log.warn("TranslationMemory - unable to store {}", file, e);
+        }
+    }
+
+    private MemoryIndex load(Path file) throws IOException {
+        final MemoryIndex index = new MemoryIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown version of " + file);
+            }
+            readPairs(in, index);
+        }
+        return index;
+    }
+
+    private static void readPairs(DataInputStream in, MemoryIndex index) throws IOException {
+        while (true) {
+            final String source;
+            try {
+                source = readString(in);
+            } catch (EOFException e) {
+                break;
+            }
+            index.put(source, readString(in));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String langPair(String langSource, String langTarget) {
+        return langSource + "-" + langTarget;
+    }
+
+    /**
+     * Writer of the sentences of an import, its pairs are spilled to a file instead of being kept on the heap until
+     * {@link #checkpoint()} or {@link #commit()} add them to the memory, the ones left are deleted by {@link #discard()}
+     */
+    public class MemoryWriter implements SentenceWriter {
+        private final String langPair;
+        private final SentenceWriter delegate;
+        private Path spill;
+        private DataOutputStream out;
+
+        /**
+         * Pairs were added to the index since it was stored
+         */
+        private boolean added;
+
+        private MemoryWriter(String langPair, SentenceWriter delegate) {
+            this.langPair = langPair;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(Sentence sentence) throws IOException {
+            delegate.write(sentence);
+            if (!enabled) {
+                return;
+            }
+            if (out == null) {
+                final Path root = getRoot();
+                Files.createDirectories(root);
+                spill = Files.createTempFile(root, langPair + "-", SPILL_SUFFIX);
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill)));
+            }
+            writeString(out, sentence.getSource());
+            writeString(out, sentence.getTarget());
+        }
+
+        @Override
+        public long getSentenceCount() {
+            return delegate.getSentenceCount();
+        }
+
+        @Override
+        public long getByteCount() {
+            return delegate.getByteCount();
+        }
+
+        /**
+         * Adds the pairs written since the last checkpoint to the memory without storing its index, call it once they
+         * are uploaded
+         */
+        public void checkpoint() {
+            if (out == null) {
+                return;
+            }
+            final MemoryIndex index = indexes.computeIfAbsent(langPair, (pair) -> new MemoryIndex());
+            try {
+                out.close();
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill)))) {
+                    readPairs(in, index);
+                }
+                added = true;
+            } catch (IOException e) {
+                log.warn("TranslationMemory - unable to add the pairs of {} written to {}", langPair, spill, e);
+            } finally {
+                deleteSpill();
+            }
+        }
+
+        /**
+         * Adds the pairs written since the last checkpoint to the memory and stores its index, once at the end of the run
+         */
+        public void commit() {
+            checkpoint();
+            if (added) {
+                store(langPair, indexes.get(langPair));
+                added = false;
+            }
+        }
+
+        /**
+         * Deletes the pairs not added to the memory, the index is stored if checkpoints of the run added pairs as a
+         * resumed run does not write them again
+         */
+        public void discard() {
+            deleteSpill();
+            if (added) {
+                store(langPair, indexes.get(langPair));
+                added = false;
+            }
+        }
+
+        private void deleteSpill() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            try {
+                Files.deleteIfExists(spill);
+            } catch (IOException e) {
+                log.warn("TranslationMemory - unable to delete {}", spill, e);
+            }
+            out = null;
+            spill = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Translation served by the memory
+     */
+    @Value
+    public static class Match {
+        String translation;
+        /**
+         * {@link #ORIGIN_EXACT} or {@link #ORIGIN_FUZZY}
+         */
+        String origin;
+        double similarity;
+    }
+}
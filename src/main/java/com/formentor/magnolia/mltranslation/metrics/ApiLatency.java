@@ -0,0 +1,22 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import com.formentor.google.ApiMetrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ApiLatency implements ApiLatencyMXBean {
+
+    private final ApiMetrics apiMetrics;
+
+    public ApiLatency(ApiMetrics apiMetrics) {
+        this.apiMetrics = apiMetrics;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+        apiMetrics.getHistograms().forEach((name, histogram) -> latencies.put(name, LatencySnapshot.of(histogram)));
+        return latencies;
+    }
+}
@@ -0,0 +1,11 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import java.util.Map;
+
+/**
+ * Latencies of the calls to Google Cloud by name of call, i.e. "PredictionApi.predict"
+ */
+public interface ApiLatencyMXBean {
+
+    Map<String, LatencySnapshot> getLatencies();
+}
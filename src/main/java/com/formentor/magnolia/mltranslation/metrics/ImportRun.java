@@ -0,0 +1,76 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and time by stage of an execution of ImportTrainingCommand.
+ *
+ * Stages are accumulated, a stage can be timed in several intervals, i.e. traversal and extraction alternate for
+ * every node. Thread-safe, shards of a run are uploaded by several threads.
+ */
+@Getter
+public class ImportRun {
+
+    public static final String STAGE_SETUP = "setup";
+    public static final String STAGE_TRAVERSAL = "traversal";
+    public static final String STAGE_EXTRACTION = "extraction";
+    public static final String STAGE_UPLOAD = "upload";
+    public static final String STAGE_IMPORT = "import";
+
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+
+    private long nodesVisited;
+    private long propertiesExamined;
+    private long pairsEmitted;
+    private long bytesUploaded;
+
+    public ImportRun() {
+        for (String stage : new String[]{STAGE_SETUP, STAGE_TRAVERSAL, STAGE_EXTRACTION, STAGE_UPLOAD, STAGE_IMPORT}) {
+            stageNanos.put(stage, 0L);
+        }
+    }
+
+    public synchronized void addStageNanos(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    public synchronized long getStageNanos(String stage) {
+        return stageNanos.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * Returns the milliseconds of every stage
+     * @return
+     */
+    public synchronized Map<String, Long> getStageMillis() {
+        Map<String, Long> stageMillis = new LinkedHashMap<>();
+        stageNanos.forEach((stage, nanos) -> stageMillis.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        return stageMillis;
+    }
+
+    public synchronized void addNodesVisited(long nodes) {
+        nodesVisited += nodes;
+    }
+
+    public synchronized void addPropertiesExamined(long properties) {
+        propertiesExamined += properties;
+    }
+
+    public synchronized void addPairsEmitted(long pairs) {
+        pairsEmitted += pairs;
+    }
+
+    public synchronized void addBytesUploaded(long bytes) {
+        bytesUploaded += bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "nodes=" + nodesVisited + ", properties=" + propertiesExamined + ", pairs=" + pairsEmitted
+                + ", bytesUploaded=" + bytesUploaded + ", stages(ms)=" + getStageMillis();
+    }
+}
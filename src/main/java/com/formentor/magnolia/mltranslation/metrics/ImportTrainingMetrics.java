@@ -0,0 +1,65 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ImportTrainingMetrics implements ImportTrainingMetricsMXBean {
+
+    private long runs;
+    private long nodesVisited;
+    private long propertiesExamined;
+    private long pairsEmitted;
+    private long bytesUploaded;
+    private final Map<String, Long> totalStageMillis = new LinkedHashMap<>();
+    private Map<String, Long> lastRunStageMillis = Collections.emptyMap();
+
+    /**
+     * Adds the counters of a finished execution
+     * @param run
+     */
+    public synchronized void record(ImportRun run) {
+        runs++;
+        nodesVisited += run.getNodesVisited();
+        propertiesExamined += run.getPropertiesExamined();
+        pairsEmitted += run.getPairsEmitted();
+        bytesUploaded += run.getBytesUploaded();
+        lastRunStageMillis = run.getStageMillis();
+        lastRunStageMillis.forEach((stage, millis) -> totalStageMillis.merge(stage, millis, Long::sum));
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    @Override
+    public synchronized long getPropertiesExamined() {
+        return propertiesExamined;
+    }
+
+    @Override
+    public synchronized long getPairsEmitted() {
+        return pairsEmitted;
+    }
+
+    @Override
+    public synchronized long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getTotalStageMillis() {
+        return new LinkedHashMap<>(totalStageMillis);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getLastRunStageMillis() {
+        return new LinkedHashMap<>(lastRunStageMillis);
+    }
+}
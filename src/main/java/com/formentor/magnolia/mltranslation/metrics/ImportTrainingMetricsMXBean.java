@@ -0,0 +1,29 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import java.util.Map;
+
+/**
+ * Counters of the executions of ImportTrainingCommand since the start of the module
+ */
+public interface ImportTrainingMetricsMXBean {
+
+    long getRuns();
+
+    long getNodesVisited();
+
+    long getPropertiesExamined();
+
+    long getPairsEmitted();
+
+    long getBytesUploaded();
+
+    /**
+     * Milliseconds by stage of all the executions
+     */
+    Map<String, Long> getTotalStageMillis();
+
+    /**
+     * Milliseconds by stage of the last execution
+     */
+    Map<String, Long> getLastRunStageMillis();
+}
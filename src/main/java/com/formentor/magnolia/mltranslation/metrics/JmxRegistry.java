@@ -0,0 +1,56 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers the MBeans of the module in the platform MBean server under the domain {@link #DOMAIN}
+ */
+@Slf4j
+public class JmxRegistry {
+
+    public static final String DOMAIN = "com.formentor.magnolia.mltranslation";
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    /**
+     * Registers the bean as DOMAIN:type=type, replacing a previous registration
+     * @param type
+     * @param bean
+     */
+    public synchronized void register(String type, Object bean) {
+        try {
+            final ObjectName name = new ObjectName(DOMAIN, "type", type);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(bean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            log.warn("Unable to register MBean {}", type, e);
+        }
+    }
+
+    /**
+     * Unregisters the beans registered by this registry
+     */
+    public synchronized void unregisterAll() {
+        for (ObjectName name : registered) {
+            try {
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.warn("Unable to unregister MBean {}", name, e);
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,27 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import com.formentor.google.LatencyHistogram;
+import lombok.Value;
+
+/**
+ * Summary of a {@link LatencyHistogram} exposed through JMX
+ */
+@Value
+public class LatencySnapshot {
+    long count;
+    long errorCount;
+    double meanMillis;
+    double p50Millis;
+    double p99Millis;
+    double maxMillis;
+
+    public static LatencySnapshot of(LatencyHistogram histogram) {
+        return new LatencySnapshot(
+                histogram.getCount(),
+                histogram.getErrorCount(),
+                histogram.getMeanMicros() / 1000.0,
+                histogram.getPercentileMicros(0.5) / 1000.0,
+                histogram.getPercentileMicros(0.99) / 1000.0,
+                histogram.getMaxMicros() / 1000.0);
+    }
+}
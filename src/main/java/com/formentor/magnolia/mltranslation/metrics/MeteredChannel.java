@@ -0,0 +1,46 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel that adds the bytes written and the time spent writing and closing to the upload stage of an {@link ImportRun}
+ */
+public class MeteredChannel implements WritableByteChannel {
+
+    private final WritableByteChannel delegate;
+    private final ImportRun run;
+
+    public MeteredChannel(WritableByteChannel delegate, ImportRun run) {
+        this.delegate = delegate;
+        this.run = run;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            final int written = delegate.write(src);
+            run.addBytesUploaded(written);
+            return written;
+        } finally {
+            run.addStageNanos(ImportRun.STAGE_UPLOAD, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.close();
+        } finally {
+            run.addStageNanos(ImportRun.STAGE_UPLOAD, System.nanoTime() - start);
+        }
+    }
+}
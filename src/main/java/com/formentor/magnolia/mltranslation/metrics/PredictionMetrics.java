@@ -0,0 +1,97 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
+
+public class PredictionMetrics implements PredictionMetricsMXBean {
+
+    private final PredictionService predictionService;
+
+    public PredictionMetrics(PredictionService predictionService) {
+        this.predictionService = predictionService;
+    }
+
+    @Override
+    public long getCacheSize() {
+        return predictionService.getCache().getSize();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return predictionService.getCache().getHitCount();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return predictionService.getCache().getMissCount();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return predictionService.getCache().getEvictionCount();
+    }
+
+    @Override
+    public long getStoreSize() {
+        return predictionService.getStore().getSize();
+    }
+
+    @Override
+    public long getStoreBytes() {
+        return predictionService.getStore().getByteCount();
+    }
+
+    @Override
+    public long getStoreHits() {
+        return predictionService.getStore().getHitCount();
+    }
+
+    @Override
+    public long getStoreMisses() {
+        return predictionService.getStore().getMissCount();
+    }
+
+    @Override
+    public long getStoreCompactions() {
+        return predictionService.getStore().getCompactionCount();
+    }
+
+    @Override
+    public long getCalls() {
+        return predictionService.getPredictions().getCallCount();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return predictionService.getPredictions().getCoalescedCount();
+    }
+
+    @Override
+    public int getInFlight() {
+        return predictionService.getPredictions().getInFlightCount();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return predictionService.getLimiter().getConcurrencyLimit();
+    }
+
+    @Override
+    public long getRejected() {
+        return predictionService.getLimiter().getRejectedCount();
+    }
+
+    @Override
+    public long getRetried() {
+        return predictionService.getLimiter().getRetriedCount();
+    }
+
+    @Override
+    public long getHedged() {
+        return predictionService.getLimiter().getHedgedCount();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return predictionService.getLimiter().getTimedOutCount();
+    }
+}
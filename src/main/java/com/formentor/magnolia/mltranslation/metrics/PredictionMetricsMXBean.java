@@ -0,0 +1,59 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+/**
+ * Counters of the predictions since the start of the module
+ */
+public interface PredictionMetricsMXBean {
+
+    long getCacheSize();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    /**
+     * Translations kept on disk by the store
+     */
+    long getStoreSize();
+
+    long getStoreBytes();
+
+    long getStoreHits();
+
+    long getStoreMisses();
+
+    long getStoreCompactions();
+
+    /**
+     * Predictions sent to the backend
+     */
+    long getCalls();
+
+    /**
+     * Predictions that got the result of an identical prediction in flight instead of calling the backend
+     */
+    long getCoalesced();
+
+    int getInFlight();
+
+    /**
+     * Current limit of concurrent predictions of the limiter
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Predictions rejected by the limiter, without a token of the rate limit or a slot of concurrency in time
+     */
+    long getRejected();
+
+    long getRetried();
+
+    /**
+     * Predictions sent a second time because the first was slower than the hedge quantile
+     */
+    long getHedged();
+
+    long getTimedOut();
+}
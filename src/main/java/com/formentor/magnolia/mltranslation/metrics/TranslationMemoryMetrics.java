@@ -0,0 +1,37 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+import com.formentor.magnolia.mltranslation.memory.TranslationMemory;
+
+public class TranslationMemoryMetrics implements TranslationMemoryMetricsMXBean {
+
+    private final TranslationMemory translationMemory;
+
+    public TranslationMemoryMetrics(TranslationMemory translationMemory) {
+        this.translationMemory = translationMemory;
+    }
+
+    @Override
+    public long getSize() {
+        return translationMemory.getSize();
+    }
+
+    @Override
+    public long getLookups() {
+        return translationMemory.getLookupCount();
+    }
+
+    @Override
+    public long getExactHits() {
+        return translationMemory.getExactHitCount();
+    }
+
+    @Override
+    public long getFuzzyHits() {
+        return translationMemory.getFuzzyHitCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return translationMemory.getHitRatio();
+    }
+}
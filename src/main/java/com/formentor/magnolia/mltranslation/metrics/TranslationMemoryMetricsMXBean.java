@@ -0,0 +1,23 @@
+package com.formentor.magnolia.mltranslation.metrics;
+
+/**
+ * Counters of the translation memory since the start of the module
+ */
+public interface TranslationMemoryMetricsMXBean {
+
+    /**
+     * Translations of the memory
+     */
+    long getSize();
+
+    long getLookups();
+
+    long getExactHits();
+
+    long getFuzzyHits();
+
+    /**
+     * Fraction of the lookups answered by the memory
+     */
+    double getHitRatio();
+}
@@ -0,0 +1,458 @@
+package com.formentor.magnolia.mltranslation.observation;
+
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import com.formentor.magnolia.mltranslation.dataset.UntranslatedProperties;
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
+import info.magnolia.cms.i18n.I18nContentSupport;
+import info.magnolia.context.MgnlContext;
+import info.magnolia.module.site.Site;
+import info.magnolia.module.site.SiteManager;
+import info.magnolia.objectfactory.Components;
+import info.magnolia.observation.WorkspaceEventListenerRegistration;
+import info.magnolia.repository.RepositoryConstants;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFormatException;
+import javax.jcr.observation.Event;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates in background the properties changed under the watched paths.
+ *
+ * A {@link TranslationListener} per watch puts the changed properties on the {@link TranslationQueue}, the editor
+ * never waits for a prediction. A dispatcher takes micro-batches of up to batchSize entries of a watch from the queue,
+ * every pollMillis or as soon as changes are queued, and a pool of workers translates them: the distinct
+ * texts of a batch are predicted once, the target properties written and saved together, and the entries removed.
+ * Failed entries are retried after retrySeconds, doubled on every failure, up to maxAttempts. Entries not translated
+ * when Magnolia stops stay in the queue and are translated on the next start.
+ *
+ * Configured at <tt>config:/modules/magnolia-content-translation-ml/config/autoTranslator</tt>.
+ */
+@Slf4j
+@Getter
+public class AutoTranslator implements AutoCloseable {
+
+    /**
+     * Watches by name
+     */
+    @Setter
+    private Map<String, TranslationWatch> watches = new LinkedHashMap<>();
+
+    /**
+     * Batches translated at the same time
+     */
+    @Setter
+    private int workers = 2;
+
+    /**
+     * Entries of a batch
+     */
+    @Setter
+    private int batchSize = 50;
+
+    /**
+     * Milliseconds between checks of the queue
+     */
+    @Setter
+    private long pollMillis = 1000;
+
+    /**
+     * Milliseconds the events of a save are gathered before they are queued
+     */
+    @Setter
+    private long observationDelayMillis = 500;
+
+    @Setter
+    private long observationMaxDelayMillis = 5000;
+
+    @Setter
+    private int maxAttempts = 5;
+
+    @Setter
+    private long retrySeconds = 30;
+
+    @Getter(AccessLevel.NONE)
+    private final Object queueLock = new Object();
+    @Getter(AccessLevel.NONE)
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    @Getter(AccessLevel.NONE)
+    private final List<WorkspaceEventListenerRegistration.Handle> handles = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private PredictionService predictionService;
+    @Getter(AccessLevel.NONE)
+    private volatile ScheduledExecutorService dispatcher;
+    @Getter(AccessLevel.NONE)
+    private volatile ExecutorService workerPool;
+    @Getter(AccessLevel.NONE)
+    private volatile boolean closed = true;
+
+    /**
+     * Observes the enabled watches and starts translating the queue
+     * @param predictionService
+     */
+    public void start(PredictionService predictionService) {
+        this.predictionService = predictionService;
+        closed = false;
+        claimed.clear();
+        busyWorkers.set(0);
+        dispatcher = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-autotranslate-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger workerCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(Math.max(workers, 1), (runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-autotranslate-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (Map.Entry<String, TranslationWatch> watch : watches.entrySet()) {
+            if (!watch.getValue().isEnabled()) {
+                continue;
+            }
+            try {
+                handles.add(WorkspaceEventListenerRegistration.observe(watch.getValue().getWorkspace(), watch.getValue().getPath(), new TranslationListener(watch.getKey(), watch.getValue(), this))
+                        .withSubNodes(true)
+                        .withEventTypes(Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED)
+                        .withDelay(observationDelayMillis, observationMaxDelayMillis)
+                        .register());
+                log.info("AutoTranslator - watching {}:{} to translate to {}", watch.getValue().getWorkspace(), watch.getValue().getPath(), watch.getValue().getLangTarget());
+            } catch (RepositoryException e) {
+                log.error("AutoTranslator - unable to watch {}", watch.getKey(), e);
+            }
+        }
+
+        // The queue may hold changes of the previous run
+        dispatcher.scheduleWithFixedDelay(this::dispatch, 0, Math.max(pollMillis, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops observing and translating, queued entries are translated on the next start
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (WorkspaceEventListenerRegistration.Handle handle : handles) {
+            try {
+                handle.unregister();
+            } catch (RepositoryException e) {
+                log.warn("AutoTranslator - unable to unregister a listener", e);
+            }
+        }
+        handles.clear();
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+            dispatcher = null;
+        }
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+            workerPool = null;
+        }
+    }
+
+    /**
+     * Queues the changed properties and wakes up the dispatcher
+     * @param watch
+     * @param changes
+     */
+    public void enqueue(String watch, Collection<PendingTranslation> changes) {
+        try {
+            withQueue((queue) -> {
+                queue.add(watch, changes);
+                return null;
+            });
+            log.debug("AutoTranslator - {} changes of {} queued", changes.size(), watch);
+        } catch (RepositoryException e) {
+            log.error("AutoTranslator - unable to queue {} changes of {}", changes.size(), watch, e);
+            return;
+        }
+        wakeUp();
+    }
+
+    /**
+     * Returns the number of entries of the queue
+     * @return
+     * @throws RepositoryException
+     */
+    public long getQueueSize() throws RepositoryException {
+        return withQueue(TranslationQueue::size);
+    }
+
+    /**
+     * Runs the dispatcher now instead of on its next poll
+     */
+    private void wakeUp() {
+        final ScheduledExecutorService currentDispatcher = dispatcher;
+        if (!closed && currentDispatcher != null) {
+            try {
+                currentDispatcher.execute(this::dispatch);
+            } catch (RejectedExecutionException e) {
+                // The module is stopping
+            }
+        }
+    }
+
+    /**
+     * Hands a batch to every idle worker, runs on the dispatcher thread
+     */
+    private void dispatch() {
+        try {
+            while (!closed && busyWorkers.get() < Math.max(workers, 1)) {
+                final List<QueuedTranslation> entries = withQueue((queue) -> queue.peek(Math.max(batchSize, 1), claimed));
+                if (entries.isEmpty()) {
+                    return;
+                }
+                // A batch has the entries of a single watch, the first one
+                final String watch = entries.get(0).getWatch();
+                final List<QueuedTranslation> batch = new ArrayList<>();
+                for (QueuedTranslation entry : entries) {
+                    if (entry.getWatch().equals(watch)) {
+                        batch.add(entry);
+                        claimed.add(entry.getId());
+                    }
+                }
+                busyWorkers.incrementAndGet();
+                workerPool.execute(() -> {
+                    try {
+                        translate(watch, batch);
+                    } finally {
+                        batch.forEach((entry) -> claimed.remove(entry.getId()));
+                        busyWorkers.decrementAndGet();
+                        wakeUp();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            log.warn("AutoTranslator - unable to dispatch the queue", e);
+        }
+    }
+
+    /**
+     * Translates a batch of entries of a watch
+     * @param watchName
+     * @param batch
+     */
+    private void translate(String watchName, List<QueuedTranslation> batch) {
+        final TranslationWatch watch = watches.get(watchName);
+        if (watch == null || !watch.isEnabled()) {
+            // The watch was removed from the configuration
+            removeQuietly(batch);
+            return;
+        }
+
+        final List<QueuedTranslation> failed = new ArrayList<>();
+        final int written;
+        try {
+            written = withSession(watch.getWorkspace(), (session) -> translate(session, watch, batch, failed));
+        } catch (RepositoryException | RuntimeException e) {
+            log.error("AutoTranslator - unable to translate {} changes of {}", batch.size(), watchName, e);
+            failQuietly(batch);
+            return;
+        }
+
+        final List<QueuedTranslation> done = new ArrayList<>(batch);
+        done.removeAll(failed);
+        removeQuietly(done);
+        failQuietly(failed);
+        log.debug("AutoTranslator - {} properties of {} translated, {} failed", written, watchName, failed.size());
+    }
+
+    private int translate(Session session, TranslationWatch watch, List<QueuedTranslation> batch, List<QueuedTranslation> failed) throws RepositoryException {
+        final SiteManager siteManager = Components.getComponent(SiteManager.class);
+        final Map<String, UntranslatedProperties> propertiesBySite = new HashMap<>();
+
+        /**
+         * Target properties of the changed source properties grouped by source text
+         */
+        Map<String, List<Target>> targets = new LinkedHashMap<>();
+        for (QueuedTranslation entry : batch) {
+            final Node node;
+            try {
+                node = session.getNodeByIdentifier(entry.getNodeIdentifier());
+            } catch (ItemNotFoundException e) {
+                continue;
+            }
+            if (!isUnderPath(node.getPath(), watch.getPath())) {
+                continue;
+            }
+            final Site site = siteManager.getAssignedSite(node);
+            final UntranslatedProperties properties = propertiesBySite.computeIfAbsent(site.getName(), (name) -> buildProperties(site, watch));
+            if (properties == null) {
+                continue;
+            }
+            final String targetProperty = properties.getTargetProperty(node, entry.getPropertyName());
+            if (targetProperty == null || (!watch.isOverwrite() && node.hasProperty(targetProperty))) {
+                continue;
+            }
+            final String text;
+            try {
+                text = node.getProperty(entry.getPropertyName()).getString();
+            } catch (PathNotFoundException e) {
+                // The property was removed after the change was queued
+                continue;
+            } catch (ValueFormatException e) {
+                // Multi-valued properties are not translated, a retry would fail again
+                log.warn("AutoTranslator - {} of {} is not a single value, not translated", entry.getPropertyName(), node.getPath());
+                continue;
+            }
+            targets.computeIfAbsent(text, (key) -> new ArrayList<>()).add(new Target(node, targetProperty, entry));
+        }
+
+        int written = 0;
+        for (Map.Entry<String, List<Target>> text : targets.entrySet()) {
+            String translation = null;
+            try {
+                translation = (watch.getModelDisplayName() != null) ?
+                        predictionService.predictByModelDisplayName(watch.getProjectId(), watch.getComputeRegion(), watch.getModelDisplayName(), text.getKey()) :
+                        predictionService.predict(watch.getProjectId(), watch.getComputeRegion(), watch.getModelId(), text.getKey());
+            } catch (Exception e) {
+                log.warn("AutoTranslator - unable to translate {}", text.getKey(), e);
+            }
+            for (Target target : text.getValue()) {
+                if (translation == null) {
+                    failed.add(target.entry);
+                } else {
+                    try {
+                        target.node.setProperty(target.property, translation);
+                        written++;
+                    } catch (ValueFormatException e) {
+                        // The target property is multi-valued, a retry would fail again
+                        log.warn("AutoTranslator - {} of {} is not a single value, not written", target.property, target.node.getPath());
+                    }
+                }
+            }
+        }
+        session.save();
+
+        return written;
+    }
+
+    /**
+     * Returns the properties of the langs of the watch in the site, null if the site does not have the langs
+     * @param site
+     * @param watch
+     * @return
+     */
+    private UntranslatedProperties buildProperties(Site site, TranslationWatch watch) {
+        final I18nContentSupport i18nContentSupport = site.getI18n();
+        final Collection<Locale> locales = i18nContentSupport.getLocales();
+        final String fallback = i18nContentSupport.getFallbackLocale().toString();
+        final String langSource = (watch.getLangSource() != null) ? watch.getLangSource() : fallback;
+        if (langSource.equals(watch.getLangTarget())) {
+            log.error("AutoTranslator - translate from {} to {}, really??", langSource, watch.getLangTarget());
+            return null;
+        }
+        return new UntranslatedProperties(watch.getNodeType(), locales,
+                fallback.equals(langSource) ? "" : langSource,
+                fallback.equals(watch.getLangTarget()) ? "" : watch.getLangTarget());
+    }
+
+    private boolean isUnderPath(String nodePath, String path) {
+        return path == null || "/".equals(path) || nodePath.equals(path) || nodePath.startsWith(path + "/");
+    }
+
+    private void removeQuietly(List<QueuedTranslation> entries) {
+        if (entries.isEmpty() || closed) {
+            return;
+        }
+        try {
+            withQueue((queue) -> {
+                queue.remove(entries);
+                return null;
+            });
+        } catch (RepositoryException e) {
+            // They are translated again, their translations are written again
+            log.warn("AutoTranslator - unable to remove {} translated entries", entries.size(), e);
+        }
+    }
+
+    private void failQuietly(List<QueuedTranslation> entries) {
+        // Failures caused by the stop of the module are not counted
+        if (entries.isEmpty() || closed) {
+            return;
+        }
+        try {
+            final List<QueuedTranslation> dropped = withQueue((queue) -> queue.fail(entries, maxAttempts, retrySeconds));
+            for (QueuedTranslation entry : dropped) {
+                log.error("AutoTranslator - {} of node {} not translated after {} attempts, dropped", entry.getPropertyName(), entry.getNodeIdentifier(), maxAttempts);
+            }
+        } catch (RepositoryException e) {
+            log.warn("AutoTranslator - unable to update {} failed entries", entries.size(), e);
+        }
+    }
+
+    /**
+     * Runs op with the queue, queue updates of the listeners and the workers are serialized
+     * @param op
+     * @param <T>
+     * @return
+     * @throws RepositoryException
+     */
+    private <T> T withQueue(QueueOp<T> op) throws RepositoryException {
+        synchronized (queueLock) {
+            return withSession(RepositoryConstants.CONFIG, (session) -> op.exec(new TranslationQueue(session)));
+        }
+    }
+
+    /**
+     * Runs op with a session of the workspace of the system context, listeners and workers run out of any request
+     * @param workspace
+     * @param op
+     * @param <T>
+     * @return
+     * @throws RepositoryException
+     */
+    private <T> T withSession(String workspace, SessionOp<T> op) throws RepositoryException {
+        return MgnlContext.doInSystemContext(new MgnlContext.Op<T, RepositoryException>() {
+            @Override
+            public T exec() throws RepositoryException {
+                return op.exec(MgnlContext.getJCRSession(workspace));
+            }
+        }, true);
+    }
+
+    private interface SessionOp<T> {
+        T exec(Session session) throws RepositoryException;
+    }
+
+    private interface QueueOp<T> {
+        T exec(TranslationQueue queue) throws RepositoryException;
+    }
+
+    private static class Target {
+        private final Node node;
+        private final String property;
+        private final QueuedTranslation entry;
+
+        Target(Node node, String property, QueuedTranslation entry) {
+            this.node = node;
+            this.property = property;
+            this.entry = entry;
+        }
+    }
+}
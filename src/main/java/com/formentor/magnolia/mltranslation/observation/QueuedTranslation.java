@@ -0,0 +1,33 @@
+package com.formentor.magnolia.mltranslation.observation;
+
+import lombok.Value;
+
+/**
+ * Property changed in the source language waiting in the {@link TranslationQueue}
+ */
+@Value
+public class QueuedTranslation {
+    /**
+     * Name of the entry in the queue
+     */
+    String id;
+
+    /**
+     * Name of the {@link TranslationWatch} that observed the change
+     */
+    String watch;
+
+    String nodeIdentifier;
+
+    String propertyName;
+
+    /**
+     * Incremented on every change of the property, the entry is kept if the property changed while it was translated
+     */
+    long version;
+
+    /**
+     * Failed translations of the entry
+     */
+    int attempts;
+}
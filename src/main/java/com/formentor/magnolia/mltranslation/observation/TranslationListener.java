@@ -0,0 +1,54 @@
+package com.formentor.magnolia.mltranslation.observation;
+
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Queues the properties added or changed under the path of a watch.
+ *
+ * Events are received once the changes are saved, out of the session of the editor, and only the names of the
+ * properties are queued: whether they are source properties is decided when they are translated.
+ */
+@Slf4j
+public class TranslationListener implements EventListener {
+
+    private final String watch;
+    private final String targetSuffix;
+    private final AutoTranslator autoTranslator;
+
+    public TranslationListener(String watch, TranslationWatch translationWatch, AutoTranslator autoTranslator) {
+        this.watch = watch;
+        this.targetSuffix = "_" + translationWatch.getLangTarget();
+        this.autoTranslator = autoTranslator;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        Set<PendingTranslation> changes = new LinkedHashSet<>();
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            if (event.getType() != Event.PROPERTY_ADDED && event.getType() != Event.PROPERTY_CHANGED) {
+                continue;
+            }
+            try {
+                final String propertyName = event.getPath().substring(event.getPath().lastIndexOf('/') + 1);
+                // jcr: and mgnl: properties are never translated, nor the translations written by the workers
+                if (propertyName.indexOf(':') == -1 && !propertyName.endsWith(targetSuffix)) {
+                    changes.add(new PendingTranslation(event.getIdentifier(), propertyName));
+                }
+            } catch (RepositoryException e) {
+                log.warn("TranslationListener - unable to read an event of {}", watch, e);
+            }
+        }
+        if (!changes.isEmpty()) {
+            autoTranslator.enqueue(watch, changes);
+        }
+    }
+}
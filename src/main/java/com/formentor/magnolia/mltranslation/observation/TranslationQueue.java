@@ -0,0 +1,157 @@
+package com.formentor.magnolia.mltranslation.observation;
+
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import info.magnolia.cms.core.Path;
+import info.magnolia.jcr.util.NodeTypes;
+import info.magnolia.jcr.util.NodeUtil;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Properties waiting for translation, stored at <tt>config:/modules/magnolia-content-translation-ml/queue</tt> so the
+ * changes not translated yet survive a restart or a crash.
+ *
+ * There is one entry per watch, node and property: a property changed several times before it is translated is
+ * translated once, with its last text. Entries are removed once their translation is saved.
+ */
+public class TranslationQueue {
+
+    public static final String QUEUE_PATH = "/modules/magnolia-content-translation-ml/queue";
+
+    private static final String PROPERTY_WATCH = "watch";
+    private static final String PROPERTY_NODE_IDENTIFIER = "node_identifier";
+    private static final String PROPERTY_PROPERTY_NAME = "property_name";
+    private static final String PROPERTY_VERSION = "version";
+    private static final String PROPERTY_ATTEMPTS = "attempts";
+    private static final String PROPERTY_ENQUEUED = "enqueued";
+    private static final String PROPERTY_RETRY_AFTER = "retry_after";
+
+    private final Session configSession;
+
+    public TranslationQueue(Session configSession) {
+        this.configSession = configSession;
+    }
+
+    /**
+     * Adds the changes to the queue, the entries already queued get a new version
+     * @param watch name of the watch
+     * @param changes properties changed
+     * @throws RepositoryException
+     */
+    public void add(String watch, Collection<PendingTranslation> changes) throws RepositoryException {
+        for (PendingTranslation change : changes) {
+            final Node entry = NodeUtil.createPath(configSession.getRootNode(),
+                    buildPath(watch, change.getNodeIdentifier(), change.getPropertyName()).substring(1), NodeTypes.ContentNode.NAME);
+            entry.setProperty(PROPERTY_WATCH, watch);
+            entry.setProperty(PROPERTY_NODE_IDENTIFIER, change.getNodeIdentifier());
+            entry.setProperty(PROPERTY_PROPERTY_NAME, change.getPropertyName());
+            entry.setProperty(PROPERTY_VERSION, entry.hasProperty(PROPERTY_VERSION) ? entry.getProperty(PROPERTY_VERSION).getLong() + 1 : 1);
+            entry.setProperty(PROPERTY_ATTEMPTS, 0);
+            entry.setProperty(PROPERTY_ENQUEUED, Calendar.getInstance());
+            entry.setProperty(PROPERTY_RETRY_AFTER, (Calendar) null);
+        }
+        configSession.save();
+    }
+
+    /**
+     * Returns the oldest entries, but those waiting to be retried
+     * @param limit maximum number of entries
+     * @param exclude ids of the entries being translated
+     * @return
+     * @throws RepositoryException
+     */
+    public List<QueuedTranslation> peek(int limit, Set<String> exclude) throws RepositoryException {
+        List<QueuedTranslation> entries = new ArrayList<>();
+        if (!configSession.nodeExists(QUEUE_PATH)) {
+            return entries;
+        }
+        final Calendar now = Calendar.getInstance();
+        NodeIterator nodeIterator = configSession.getNode(QUEUE_PATH).getNodes();
+        while (nodeIterator.hasNext() && entries.size() < limit) {
+            final Node entry = nodeIterator.nextNode();
+            if (entry.hasProperty(PROPERTY_RETRY_AFTER) && entry.getProperty(PROPERTY_RETRY_AFTER).getDate().after(now)) {
+                continue;
+            }
+            if (!exclude.contains(entry.getName())) {
+                entries.add(new QueuedTranslation(entry.getName(),
+                        entry.getProperty(PROPERTY_WATCH).getString(),
+                        entry.getProperty(PROPERTY_NODE_IDENTIFIER).getString(),
+                        entry.getProperty(PROPERTY_PROPERTY_NAME).getString(),
+                        entry.getProperty(PROPERTY_VERSION).getLong(),
+                        (int) entry.getProperty(PROPERTY_ATTEMPTS).getLong()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the translated entries, unless the property changed again since they were read
+     * @param entries
+     * @throws RepositoryException
+     */
+    public void remove(Collection<QueuedTranslation> entries) throws RepositoryException {
+        for (QueuedTranslation entry : entries) {
+            final Node node = getEntry(entry);
+            if (node != null && node.getProperty(PROPERTY_VERSION).getLong() == entry.getVersion()) {
+                node.remove();
+            }
+        }
+        configSession.save();
+    }
+
+    /**
+     * Counts a failed translation of the entries, they are retried after retrySeconds, doubled on every failure, and
+     * removed once they failed maxAttempts times
+     * @param entries
+     * @param maxAttempts
+     * @param retrySeconds
+     * @return entries removed
+     * @throws RepositoryException
+     */
+    public List<QueuedTranslation> fail(Collection<QueuedTranslation> entries, int maxAttempts, long retrySeconds) throws RepositoryException {
+        List<QueuedTranslation> dropped = new ArrayList<>();
+        for (QueuedTranslation entry : entries) {
+            final Node node = getEntry(entry);
+            if (node == null || node.getProperty(PROPERTY_VERSION).getLong() != entry.getVersion()) {
+                continue;
+            }
+            if (entry.getAttempts() + 1 >= maxAttempts) {
+                node.remove();
+                dropped.add(entry);
+            } else {
+                final Calendar retryAfter = Calendar.getInstance();
+                retryAfter.add(Calendar.SECOND, (int) Math.min(retrySeconds << Math.min(entry.getAttempts(), 16), Integer.MAX_VALUE));
+                node.setProperty(PROPERTY_ATTEMPTS, entry.getAttempts() + 1);
+                node.setProperty(PROPERTY_RETRY_AFTER, retryAfter);
+            }
+        }
+        configSession.save();
+        return dropped;
+    }
+
+    /**
+     * Returns the number of entries
+     * @return
+     * @throws RepositoryException
+     */
+    public long size() throws RepositoryException {
+        return configSession.nodeExists(QUEUE_PATH) ? configSession.getNode(QUEUE_PATH).getNodes().getSize() : 0;
+    }
+
+    private Node getEntry(QueuedTranslation entry) throws RepositoryException {
+        final String entryPath = QUEUE_PATH + "/" + entry.getId();
+        return configSession.nodeExists(entryPath) ? configSession.getNode(entryPath) : null;
+    }
+
+    private String buildPath(String watch, String nodeIdentifier, String propertyName) {
+        return QUEUE_PATH + "/" + Path.getValidatedLabel(watch + "-" + nodeIdentifier + "-" + propertyName);
+    }
+}
@@ -0,0 +1,51 @@
+package com.formentor.magnolia.mltranslation.observation;
+
+import lombok.Data;
+
+/**
+ * Tree of contents translated automatically when its properties in the source language change, configured at
+ * <tt>config:/modules/magnolia-content-translation-ml/config/autoTranslator/watches/&lt;name&gt;</tt>
+ */
+@Data
+public class TranslationWatch {
+
+    private boolean enabled = true;
+
+    private String workspace;
+
+    /**
+     * Root path of the observed contents
+     */
+    private String path = "/";
+
+    /**
+     * Type of the nodes translated, null for every node
+     */
+    private String nodeType;
+
+    /**
+     * Source lang, the default language of the site when null
+     */
+    private String langSource;
+
+    private String langTarget;
+
+    private String projectId;
+
+    private String computeRegion;
+
+    /**
+     * Model display name, incompatible with modelId
+     */
+    private String modelDisplayName;
+
+    /**
+     * Model Id, incompatible with modelDisplayName
+     */
+    private String modelId;
+
+    /**
+     * Replace the existing translations of the changed properties, otherwise only missing translations are written
+     */
+    private boolean overwrite = false;
+}
@@ -0,0 +1,167 @@
+package com.formentor.magnolia.mltranslation.operation;
+
+import info.magnolia.cms.core.Path;
+import info.magnolia.jcr.util.NodeTypes;
+import info.magnolia.jcr.util.NodeUtil;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Tracked operations, stored at <tt>config:/modules/magnolia-content-translation-ml/operations</tt> so the operations
+ * running on a restart are followed again. Finished operations are kept until {@link #removeFinished(Calendar)}.
+ */
+public class OperationStore {
+
+    public static final String OPERATIONS_PATH = "/modules/magnolia-content-translation-ml/operations";
+
+    private static final String PROPERTY_NAME = "name";
+    private static final String PROPERTY_TYPE = "type";
+    private static final String PROPERTY_PROJECT_ID = "project_id";
+    private static final String PROPERTY_COMPUTE_REGION = "compute_region";
+    private static final String PROPERTY_DATASET_ID = "dataset_id";
+    private static final String PROPERTY_DISPLAY_NAME = "display_name";
+    private static final String PROPERTY_STATUS = "status";
+    private static final String PROPERTY_ERROR = "error";
+    private static final String PROPERTY_POLLS = "polls";
+    private static final String PROPERTY_ACTION_ATTEMPTS = "action_attempts";
+    private static final String PROPERTY_CREATED = "created";
+    private static final String PROPERTY_FINISHED = "finished";
+    private static final String PROPERTY_TRAIN_MODEL_NAME = "train_model_name";
+    private static final String PROPERTY_WATERMARK = "watermark";
+    private static final String PROPERTY_CONTENT_MD5 = "content_md5";
+    private static final String PROPERTY_WORKSPACE = "workspace";
+    private static final String PROPERTY_PATH = "path";
+    private static final String PROPERTY_LANG_SOURCE = "lang_source";
+    private static final String PROPERTY_LANG_TARGET = "lang_target";
+    private static final String PROPERTY_BATCH_URI = "batch_uri";
+
+    private final Session configSession;
+
+    public OperationStore(Session configSession) {
+        this.configSession = configSession;
+    }
+
+    /**
+     * Stores the operation
+     * @param operation
+     * @throws RepositoryException
+     */
+    public void save(TrackedOperation operation) throws RepositoryException {
+        final Node node = NodeUtil.createPath(configSession.getRootNode(), buildPath(operation).substring(1), NodeTypes.ContentNode.NAME);
+        node.setProperty(PROPERTY_NAME, operation.getName());
+        node.setProperty(PROPERTY_TYPE, operation.getType());
+        node.setProperty(PROPERTY_PROJECT_ID, operation.getProjectId());
+        node.setProperty(PROPERTY_COMPUTE_REGION, operation.getComputeRegion());
+        node.setProperty(PROPERTY_DATASET_ID, operation.getDatasetId());
+        node.setProperty(PROPERTY_DISPLAY_NAME, operation.getDisplayName());
+        node.setProperty(PROPERTY_STATUS, operation.getStatus().name());
+        node.setProperty(PROPERTY_ERROR, operation.getError());
+        node.setProperty(PROPERTY_POLLS, operation.getPolls());
+        node.setProperty(PROPERTY_ACTION_ATTEMPTS, operation.getActionAttempts());
+        node.setProperty(PROPERTY_CREATED, operation.getCreated());
+        node.setProperty(PROPERTY_FINISHED, operation.getFinished());
+        node.setProperty(PROPERTY_TRAIN_MODEL_NAME, operation.getTrainModelName());
+        node.setProperty(PROPERTY_WATERMARK, operation.getWatermark());
+        node.setProperty(PROPERTY_CONTENT_MD5, operation.getContentMd5());
+        node.setProperty(PROPERTY_WORKSPACE, operation.getWorkspace());
+        node.setProperty(PROPERTY_PATH, operation.getPath());
+        node.setProperty(PROPERTY_LANG_SOURCE, operation.getLangSource());
+        node.setProperty(PROPERTY_LANG_TARGET, operation.getLangTarget());
+        node.setProperty(PROPERTY_BATCH_URI, operation.getBatchUri());
+        configSession.save();
+    }
+
+    /**
+     * Returns the operations not finished yet
+     * @return
+     * @throws RepositoryException
+     */
+    public List<TrackedOperation> getRunning() throws RepositoryException {
+        List<TrackedOperation> operations = new ArrayList<>();
+        if (!configSession.nodeExists(OPERATIONS_PATH)) {
+            return operations;
+        }
+        NodeIterator nodeIterator = configSession.getNode(OPERATIONS_PATH).getNodes();
+        while (nodeIterator.hasNext()) {
+            final Node node = nodeIterator.nextNode();
+            if (TrackedOperation.Status.RUNNING.name().equals(getString(node, PROPERTY_STATUS))) {
+                operations.add(read(node));
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Removes the operations finished before the date, the ones stored without finish time by their creation
+     * @param before
+     * @return number of operations removed
+     * @throws RepositoryException
+     */
+    public int removeFinished(Calendar before) throws RepositoryException {
+        if (!configSession.nodeExists(OPERATIONS_PATH)) {
+            return 0;
+        }
+        List<Node> finished = new ArrayList<>();
+        NodeIterator nodeIterator = configSession.getNode(OPERATIONS_PATH).getNodes();
+        while (nodeIterator.hasNext()) {
+            final Node node = nodeIterator.nextNode();
+            if (TrackedOperation.Status.RUNNING.name().equals(getString(node, PROPERTY_STATUS))) {
+                continue;
+            }
+            final Calendar time = (getDate(node, PROPERTY_FINISHED) != null) ? getDate(node, PROPERTY_FINISHED) : getDate(node, PROPERTY_CREATED);
+            if (time == null || time.before(before)) {
+                finished.add(node);
+            }
+        }
+        for (Node node : finished) {
+            node.remove();
+        }
+        if (!finished.isEmpty()) {
+            configSession.save();
+        }
+        return finished.size();
+    }
+
+    private TrackedOperation read(Node node) throws RepositoryException {
+        return TrackedOperation.builder()
+                .name(getString(node, PROPERTY_NAME))
+                .type(getString(node, PROPERTY_TYPE))
+                .projectId(getString(node, PROPERTY_PROJECT_ID))
+                .computeRegion(getString(node, PROPERTY_COMPUTE_REGION))
+                .datasetId(getString(node, PROPERTY_DATASET_ID))
+                .displayName(getString(node, PROPERTY_DISPLAY_NAME))
+                .status(TrackedOperation.Status.valueOf(getString(node, PROPERTY_STATUS)))
+                .error(getString(node, PROPERTY_ERROR))
+                .polls(node.hasProperty(PROPERTY_POLLS) ? (int) node.getProperty(PROPERTY_POLLS).getLong() : 0)
+                .actionAttempts(node.hasProperty(PROPERTY_ACTION_ATTEMPTS) ? (int) node.getProperty(PROPERTY_ACTION_ATTEMPTS).getLong() : 0)
+                .created(getDate(node, PROPERTY_CREATED))
+                .finished(getDate(node, PROPERTY_FINISHED))
+                .trainModelName(getString(node, PROPERTY_TRAIN_MODEL_NAME))
+                .watermark(getDate(node, PROPERTY_WATERMARK))
+                .contentMd5(getString(node, PROPERTY_CONTENT_MD5))
+                .workspace(getString(node, PROPERTY_WORKSPACE))
+                .path(getString(node, PROPERTY_PATH))
+                .langSource(getString(node, PROPERTY_LANG_SOURCE))
+                .langTarget(getString(node, PROPERTY_LANG_TARGET))
+                .batchUri(getString(node, PROPERTY_BATCH_URI))
+                .build();
+    }
+
+    private String getString(Node node, String property) throws RepositoryException {
+        return node.hasProperty(property) ? node.getProperty(property).getString() : null;
+    }
+
+    private Calendar getDate(Node node, String property) throws RepositoryException {
+        return node.hasProperty(property) ? node.getProperty(property).getDate() : null;
+    }
+
+    private String buildPath(TrackedOperation operation) {
+        return OPERATIONS_PATH + "/" + Path.getValidatedLabel(operation.getId());
+    }
+}
@@ -0,0 +1,285 @@
+package com.formentor.magnolia.mltranslation.operation;
+
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.dataset.ImportWatermarks;
+import com.formentor.magnolia.mltranslation.prediction.BatchPredictionJob;
+import com.formentor.magnolia.mltranslation.prediction.PredictionService;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.longrunning.Operation;
+import info.magnolia.context.MgnlContext;
+import info.magnolia.repository.RepositoryConstants;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the long running operations of AutoML in background.
+ *
+ * Operations are polled from a single thread with exponential backoff, from pollSeconds up to maxPollSeconds, so
+ * neither commands nor the threads of the client wait for imports and trainings that last minutes or hours.
+ * Operations are stored by {@link OperationStore} and resumed by {@link #start()}, when one succeeds its actions are
+ * run: store the watermark and train the model of an import, discard the cached translations of a trained model,
+ * write the translations of a batch prediction. Actions that fail are run again on the next polls up to maxAttempts
+ * times, then the operation is stored as failed. Finished operations are removed once retentionDays have passed.
+ */
+@Slf4j
+public class OperationTracker {
+
+    private static final int MAX_BACKOFF_EXPONENT = 16;
+    private static final int BATCH_PREDICT_SAVE_SIZE = 500;
+
+    private final TranslationBackend backend;
+    private final PredictionService predictionService;
+    private final long pollSeconds;
+    private final long maxPollSeconds;
+    private final int maxAttempts;
+    private final int retentionDays;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Futures of the operations tracked since the start of the module
+     */
+    private final Map<String, CompletableFuture<TrackedOperation>> completions = new ConcurrentHashMap<>();
+
+    public OperationTracker(TranslationBackend backend, PredictionService predictionService, long pollSeconds, long maxPollSeconds,
+                            int maxAttempts, int retentionDays) {
+        this.backend = backend;
+        this.predictionService = predictionService;
+        this.pollSeconds = Math.max(pollSeconds, 1);
+        this.maxPollSeconds = Math.max(maxPollSeconds, this.pollSeconds);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.retentionDays = retentionDays;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-operation-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Resumes the operations that were running when the module stopped and removes the finished ones every day
+     */
+    public void start() {
+        if (retentionDays > 0) {
+            scheduler.scheduleWithFixedDelay(this::removeFinished, 0, 1, TimeUnit.DAYS);
+        }
+        try {
+            final List<TrackedOperation> running = withConfigSession((session) -> new OperationStore(session).getRunning());
+            for (TrackedOperation operation : running) {
+                log.info("OperationTracker - resuming {} {} of {}", operation.getType(), operation.getName(), operation.getDisplayName());
+                completions.put(operation.getName(), new CompletableFuture<>());
+                schedule(operation);
+            }
+        } catch (RepositoryException e) {
+            log.error("OperationTracker - unable to resume operations", e);
+        }
+    }
+
+    /**
+     * Stores and follows the operation
+     * @param operation
+     * @return future completed with the operation once it finishes, or exceptionally if it can not be stored
+     */
+    public CompletableFuture<TrackedOperation> track(TrackedOperation operation) {
+        final CompletableFuture<TrackedOperation> completion = new CompletableFuture<>();
+        if (operation.getCreated() == null) {
+            operation.setCreated(Calendar.getInstance());
+        }
+        try {
+            withConfigSession((session) -> {
+                new OperationStore(session).save(operation);
+                return null;
+            });
+        } catch (RepositoryException e) {
+            completion.completeExceptionally(e);
+            return completion;
+        }
+        completions.put(operation.getName(), completion);
+        schedule(operation);
+        log.info("OperationTracker - tracking {} {} of {}", operation.getType(), operation.getName(), operation.getDisplayName());
+        return completion;
+    }
+
+    /**
+     * Stops polling, running operations are resumed on the next start
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(TrackedOperation operation) {
+        final long delay = Math.min(pollSeconds << Math.min(operation.getPolls(), MAX_BACKOFF_EXPONENT), maxPollSeconds);
+        scheduler.schedule(() -> poll(operation), delay, TimeUnit.SECONDS);
+    }
+
+    private void poll(TrackedOperation operation) {
+        final Operation remote;
+        try {
+            remote = backend.getOperation(operation.getName());
+        } catch (NotFoundException e) {
+            // The backend forgot the operation (i.e. a LocalBackend restarted), it will never finish
+            operation.setError(e.getMessage());
+            log.error("OperationTracker - {} {} of {} not found", operation.getType(), operation.getName(), operation.getDisplayName());
+            finish(operation, TrackedOperation.Status.FAILED);
+            return;
+        } catch (Exception e) {
+            // Network errors, quota... the operation keeps running, retry later
+            log.warn("OperationTracker - unable to poll {}", operation.getName(), e);
+            operation.setPolls(operation.getPolls() + 1);
+            schedule(operation);
+            return;
+        }
+
+        if (!remote.getDone()) {
+            operation.setPolls(operation.getPolls() + 1);
+            schedule(operation);
+            return;
+        }
+        if (remote.hasError()) {
+            operation.setError(remote.getError().getMessage());
+            log.error("OperationTracker - {} {} of {} failed: {}", operation.getType(), operation.getName(), operation.getDisplayName(), operation.getError());
+            finish(operation, TrackedOperation.Status.FAILED);
+            return;
+        }
+
+        try {
+            onSuccess(operation);
+        } catch (Exception e) {
+            operation.setActionAttempts(operation.getActionAttempts() + 1);
+            if (operation.getActionAttempts() < maxAttempts) {
+                // Run again on the next poll, the attempts are stored so a restart does not reset them
+                log.warn("OperationTracker - actions of {} {} of {} failed, attempt {} of {}", operation.getType(), operation.getName(), operation.getDisplayName(),
+                        operation.getActionAttempts(), maxAttempts, e);
+                operation.setPolls(operation.getPolls() + 1);
+                store(operation);
+                schedule(operation);
+                return;
+            }
+            operation.setError("Actions failed " + maxAttempts + " times: " + e.getMessage());
+            log.error("OperationTracker - actions of {} {} of {} failed {} times, giving up", operation.getType(), operation.getName(), operation.getDisplayName(), maxAttempts, e);
+            finish(operation, TrackedOperation.Status.FAILED);
+            return;
+        }
+        log.info("OperationTracker - {} {} of {} succeeded", operation.getType(), operation.getName(), operation.getDisplayName());
+        finish(operation, TrackedOperation.Status.SUCCEEDED);
+    }
+
+    /**
+     * Stores the operation as finished and completes its future
+     * @param operation
+     * @param status
+     */
+    private void finish(TrackedOperation operation, TrackedOperation.Status status) {
+        operation.setStatus(status);
+        operation.setFinished(Calendar.getInstance());
+        store(operation);
+        final CompletableFuture<TrackedOperation> completion = completions.remove(operation.getName());
+        if (completion != null) {
+            completion.complete(operation);
+        }
+    }
+
+    private void store(TrackedOperation operation) {
+        try {
+            withConfigSession((session) -> {
+                new OperationStore(session).save(operation);
+                return null;
+            });
+        } catch (RepositoryException e) {
+            log.warn("OperationTracker - unable to store {}", operation.getName(), e);
+        }
+    }
+
+    /**
+     * Removes the operations finished more than retentionDays ago
+     */
+    private void removeFinished() {
+        final Calendar before = Calendar.getInstance();
+        before.add(Calendar.DAY_OF_MONTH, -retentionDays);
+        try {
+            final int removed = withConfigSession((session) -> new OperationStore(session).removeFinished(before));
+            if (removed > 0) {
+                log.info("OperationTracker - {} operations finished before {} removed", removed, before.getTime());
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            // A failure would cancel the next removals
+            log.warn("OperationTracker - unable to remove finished operations", e);
+        }
+    }
+
+    /**
+     * Runs the actions of a succeeded operation
+     * @param operation
+     * @throws Exception
+     */
+    private void onSuccess(TrackedOperation operation) throws Exception {
+        if (TrackedOperation.TYPE_IMPORT_DATA.equals(operation.getType())) {
+            if (operation.getWatermark() != null) {
+                withConfigSession((session) -> {
+                    new ImportWatermarks(session).set(operation.getWorkspace(), operation.getPath(), operation.getLangSource(), operation.getLangTarget(), operation.getWatermark(), operation.getContentMd5());
+                    return null;
+                });
+            }
+            if (operation.getTrainModelName() != null) {
+                final String trainingName = backend.startCreateModel(operation.getProjectId(), operation.getComputeRegion(), operation.getDatasetId(), operation.getTrainModelName()).get();
+                track(TrackedOperation.builder()
+                        .name(trainingName)
+                        .type(TrackedOperation.TYPE_CREATE_MODEL)
+                        .projectId(operation.getProjectId())
+                        .computeRegion(operation.getComputeRegion())
+                        .datasetId(operation.getDatasetId())
+                        .displayName(operation.getTrainModelName())
+                        .build());
+            }
+        } else if (TrackedOperation.TYPE_CREATE_MODEL.equals(operation.getType())) {
+            // Translations cached for a previous model with the same name are stale
+            predictionService.invalidateModelDisplayName(operation.getDisplayName());
+        } else if (TrackedOperation.TYPE_BATCH_PREDICT.equals(operation.getType())) {
+            final BatchPredictionJob job = BatchPredictionJob.of(backend, operation.getBatchUri());
+            final int written = withSession(operation.getWorkspace(), (session) -> {
+                try {
+                    return job.writeTranslations(session, BATCH_PREDICT_SAVE_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            log.info("OperationTracker - {} properties of {}:{} translated to {} by {}", written, operation.getWorkspace(), operation.getPath(), operation.getLangTarget(), operation.getName());
+        }
+    }
+
+    /**
+     * Runs op with a session of the config workspace of the system context, trackers run out of any request
+     * @param op
+     * @param <T>
+     * @return
+     * @throws RepositoryException
+     */
+    private <T> T withConfigSession(SessionOp<T> op) throws RepositoryException {
+        return withSession(RepositoryConstants.CONFIG, op);
+    }
+
+    private <T> T withSession(String workspace, SessionOp<T> op) throws RepositoryException {
+        return MgnlContext.doInSystemContext(new MgnlContext.Op<T, RepositoryException>() {
+            @Override
+            public T exec() throws RepositoryException {
+                return op.exec(MgnlContext.getJCRSession(workspace));
+            }
+        }, true);
+    }
+
+    private interface SessionOp<T> {
+        T exec(Session session) throws RepositoryException;
+    }
+}
@@ -0,0 +1,105 @@
+package com.formentor.magnolia.mltranslation.operation;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Calendar;
+
+/**
+ * Long running operation of AutoML (dataset import, model training, batch prediction) followed by the {@link OperationTracker},
+ * with the actions to run when it succeeds.
+ */
+@Data
+@Builder
+public class TrackedOperation {
+
+    public static final String TYPE_IMPORT_DATA = "importData";
+    public static final String TYPE_CREATE_MODEL = "createModel";
+    public static final String TYPE_BATCH_PREDICT = "batchPredict";
+
+    public enum Status {
+        RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * Full name of the operation, projects/{project_id}/locations/{location_id}/operations/{operation_id}
+     */
+    String name;
+
+    /**
+     * {@link #TYPE_IMPORT_DATA}, {@link #TYPE_CREATE_MODEL} or {@link #TYPE_BATCH_PREDICT}
+     */
+    String type;
+
+    String projectId;
+
+    String computeRegion;
+
+    String datasetId;
+
+    /**
+     * Display name of the dataset of an import or of the model of a training or a batch prediction
+     */
+    String displayName;
+
+    @Builder.Default
+    Status status = Status.RUNNING;
+
+    /**
+     * Error message of a failed operation
+     */
+    String error;
+
+    /**
+     * Number of polls of an unfinished operation
+     */
+    int polls;
+
+    /**
+     * Number of failed runs of the actions of the operation once it succeeded
+     */
+    int actionAttempts;
+
+    Calendar created;
+
+    /**
+     * Time the operation finished, succeeded or failed
+     */
+    Calendar finished;
+
+    /**
+     * Import: name of the model to train once the data is imported, null to not train
+     */
+    String trainModelName;
+
+    /**
+     * Import: watermark of the workspace, path and langs stored once the data is imported, see ImportWatermarks
+     */
+    Calendar watermark;
+
+    /**
+     * Import: MD5 of the file imported in full stored with the watermark, null for incremental imports
+     */
+    String contentMd5;
+
+    String workspace;
+
+    String path;
+
+    String langSource;
+
+    String langTarget;
+
+    /**
+     * Batch prediction: gs://bucket/prefix of the files of the prediction, see BatchPredictionJob
+     */
+    String batchUri;
+
+    /**
+     * Returns the id of the operation, last segment of its name
+     * @return
+     */
+    public String getId() {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+}
@@ -5,12 +5,22 @@ import org.jsoup.internal.StringUtil;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * HTML to plain-text.
  * This implementation is based in https://raw.githubusercontent.com/jhy/jsoup/master/src/main/java/org/jsoup/examples/HtmlToPlainText.java
+ *
+ * Text without markup is returned without parsing. Markup made of the usual rich-text tags (paragraphs, lists,
+ * headings, links and inline formatting) is converted by a streaming tokenizer that does not build a DOM. Anything
+ * else (tables, comments, scripts, malformed nesting...) is parsed by Jsoup. The three paths apply the same
+ * {@link FormattingVisitor} rules so they produce the same text.
  */
 public class HtmlToPlainText {
 
@@ -20,6 +30,23 @@ public class HtmlToPlainText {
      * @return formatted text
      */
     public static String getPlainText(String html) {
+        if (html != null && isPlainText(html)) {
+            return StringUtil.normaliseWhitespace(html).trim();
+        }
+
+        String plainText = StreamingExtractor.extract(html);
+        if (plainText == null) {
+            plainText = getPlainTextFromDom(html);
+        }
+        return plainText;
+    }
+
+    /**
+     * Format an Html text to plain-text building the DOM of the html
+     * @param html html string
+     * @return formatted text
+     */
+    public static String getPlainTextFromDom(String html) {
         Document doc = Jsoup.parse(html);
         FormattingVisitor formatter = new FormattingVisitor();
         NodeTraversor.traverse(formatter, doc); // walk the DOM, and call .head() and .tail() for each node
@@ -29,70 +56,44 @@ public class HtmlToPlainText {
         return plainText;
     }
 
-    // the formatting rules, implemented in a breadth-first DOM traverse
-    private static class FormattingVisitorB implements NodeVisitor {
-        private static final int maxWidth = 80;
-        private int width = 0;
+    /**
+     * Returns true if the text has no tags nor character references
+     * @param text
+     * @return
+     */
+    static boolean isPlainText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '<' || c == '&' || c == '\u0000') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class FormattingVisitor implements NodeVisitor {
         private StringBuilder accum = new StringBuilder(); // holds the accumulated text
 
         // hit when the node is first seen
         public void head(Node node, int depth) {
-            String name = node.nodeName();
             if (node instanceof TextNode)
-                append(((TextNode) node).text()); // TextNodes carry all user-readable text in the DOM.
-            else if (name.equals("dt"))
-                append("  ");
+                text(((TextNode) node).text()); // TextNodes carry all user-readable text in the DOM.
+            else
+                headElement(node.nodeName());
         }
 
         // hit when all of the node's children (if any) have been visited
         public void tail(Node node, int depth) {
+            String name = node.nodeName();
+            tailElement(name, name.equals("a") ? node.absUrl("href") : null);
         }
 
-        // appends text to the string builder with a simple word wrap method
-        private void append(String text) {
-            if (text.startsWith("\n"))
-                width = 0; // reset counter if starts with a newline. only from formats above, not in natural text
-            if (text.equals(" ") &&
-                    (accum.length() == 0 || StringUtil.in(accum.substring(accum.length() - 1), " ", "\n")))
-                return; // don't accumulate long runs of empty spaces
-
-            if (text.length() + width > maxWidth) { // won't fit, needs to wrap
-                String[] words = text.split("\\s+");
-                for (int i = 0; i < words.length; i++) {
-                    String word = words[i];
-                    boolean last = i == words.length - 1;
-                    if (!last) // insert a space if not the last word
-                        word = word + " ";
-                    if (word.length() + width > maxWidth) { // wrap and reset counter
-                        accum.append("\n").append(word);
-                        width = word.length();
-                    } else {
-                        accum.append(word);
-                        width += word.length();
-                    }
-                }
-            } else { // fits as is, without need to wrap text
-                accum.append(text);
-                width += text.length();
-            }
+        void text(String text) {
+            append(text);
         }
 
-        @Override
-        public String toString() {
-            return accum.toString();
-        }
-    }
-
-
-    private static class FormattingVisitor implements NodeVisitor {
-        private StringBuilder accum = new StringBuilder(); // holds the accumulated text
-
-        // hit when the node is first seen
-        public void head(Node node, int depth) {
-            String name = node.nodeName();
-            if (node instanceof TextNode)
-                append(((TextNode) node).text()); // TextNodes carry all user-readable text in the DOM.
-            else if (name.equals("li"))
+        void headElement(String name) {
+            if (name.equals("li"))
                 append("\n * ");
             else if (name.equals("dt"))
                 append("  ");
@@ -100,28 +101,300 @@ public class HtmlToPlainText {
                 append(" ");
         }
 
-        // hit when all of the node's children (if any) have been visited
-        public void tail(Node node, int depth) {
-            String name = node.nodeName();
+        void tailElement(String name, String absHref) {
             if (StringUtil.in(name, "br", "dd", "dt", "p", "h1", "h2", "h3", "h4", "h5"))
                 append(" ");
             else if (name.equals("a"))
-                append(String.format(" <%s>", node.absUrl("href")));
+                accum.append(" <").append(absHref).append('>');
         }
 
-        // appends text to the string builder with a simple word wrap method
+        // appends text to the string builder
         private void append(String text) {
             if (text.equals(" ") &&
-                    (accum.length() == 0 || StringUtil.in(accum.substring(accum.length() - 1), " ", "\n")))
+                    (accum.length() == 0 || isSpaceOrNewLine(accum.charAt(accum.length() - 1))))
                 return; // don't accumulate long runs of empty spaces
 
             accum.append(text);
         }
 
+        private static boolean isSpaceOrNewLine(char c) {
+            return c == ' ' || c == '\n';
+        }
+
         @Override
         public String toString() {
             return accum.toString();
         }
     }
 
+    /**
+     * Tokenizer of the rich-text subset of html that feeds the {@link FormattingVisitor} in document order.
+     *
+     * It gives up (returns null) on any construction where the tree built by Jsoup would not mirror the tags of the
+     * source: unknown tags, comments, end tags not matching the open element, implicitly closed elements...
+     */
+    static class StreamingExtractor {
+
+        private static final String[] INLINE_TAGS = {"a", "b", "code", "em", "i", "s", "small", "span", "strike", "strong", "sub", "sup", "u"};
+        private static final String[] BLOCK_TAGS = {"blockquote", "dd", "div", "dl", "dt", "h1", "h2", "h3", "h4", "h5", "h6", "li", "ol", "p", "ul"};
+        private static final String[] HEADING_TAGS = {"h1", "h2", "h3", "h4", "h5", "h6"};
+
+        private final String html;
+        private final FormattingVisitor formatter = new FormattingVisitor();
+        private final List<String> stack = new ArrayList<>();
+        private final List<String> hrefs = new ArrayList<>();
+        private int pos = 0;
+
+        private StreamingExtractor(String html) {
+            this.html = html;
+        }
+
+        /**
+         * Returns the plain-text of html or null if html is not supported
+         * @param html
+         * @return
+         */
+        static String extract(String html) {
+            if (html == null || html.indexOf('\u0000') > -1) {
+                return null;
+            }
+            return new StreamingExtractor(html).run();
+        }
+
+        private String run() {
+            while (pos < html.length()) {
+                int tagStart = html.indexOf('<', pos);
+                int textEnd = (tagStart < 0) ? html.length() : tagStart;
+                if (textEnd > pos) {
+                    text(html.substring(pos, textEnd));
+                }
+                if (tagStart < 0) {
+                    break;
+                }
+                pos = tagStart + 1;
+                if (!tag()) {
+                    return null;
+                }
+            }
+            if (!stack.isEmpty()) {
+                return null;
+            }
+            return formatter.toString().trim();
+        }
+
+        private void text(String raw) {
+            String text = (raw.indexOf('&') > -1) ? Parser.unescapeEntities(raw, false) : raw;
+            formatter.text(StringUtil.normaliseWhitespace(text));
+        }
+
+        private boolean tag() {
+            final boolean endTag = (pos < html.length() && html.charAt(pos) == '/');
+            if (endTag) {
+                pos++;
+            }
+            final String name = tagName();
+            if (name == null) {
+                return false;
+            }
+            return endTag ? endTag(name) : startTag(name);
+        }
+
+        private boolean startTag(String name) {
+            String href = null;
+            boolean selfClosing = false;
+            List<String> attributeNames = new ArrayList<>(2);
+            while (true) {
+                skipWhitespace();
+                if (pos >= html.length()) {
+                    return false;
+                }
+                final char c = html.charAt(pos);
+                if (c == '>') {
+                    pos++;
+                    break;
+                }
+                if (c == '/') {
+                    if (pos + 1 < html.length() && html.charAt(pos + 1) == '>') {
+                        selfClosing = true;
+                        pos += 2;
+                        break;
+                    }
+                    return false;
+                }
+                final String attributeName = attributeName();
+                if (attributeName == null || attributeNames.contains(attributeName)) {
+                    return false;
+                }
+                attributeNames.add(attributeName);
+                String value = "";
+                skipWhitespace();
+                if (pos < html.length() && html.charAt(pos) == '=') {
+                    pos++;
+                    skipWhitespace();
+                    value = attributeValue();
+                    if (value == null) {
+                        return false;
+                    }
+                }
+                if ("href".equals(attributeName)) {
+                    href = value;
+                }
+            }
+
+            if (name.equals("br")) {
+                formatter.headElement(name);
+                formatter.tailElement(name, null);
+                return true;
+            }
+            if (selfClosing || !isSupported(name) || closesImplicitly(name)) {
+                return false;
+            }
+            formatter.headElement(name);
+            stack.add(name);
+            hrefs.add(href);
+            return true;
+        }
+
+        private boolean endTag(String name) {
+            skipWhitespace();
+            if (pos >= html.length() || html.charAt(pos) != '>' || stack.isEmpty()) {
+                return false;
+            }
+            pos++;
+            final String current = stack.remove(stack.size() - 1);
+            final String href = hrefs.remove(hrefs.size() - 1);
+            if (!current.equals(name)) {
+                return false;
+            }
+            // same as Node.absUrl("href") of a document parsed without base uri
+            formatter.tailElement(name, name.equals("a") ? ((href == null) ? "" : StringUtil.resolve("", href)) : null);
+            return true;
+        }
+
+        /**
+         * Returns true if the start tag would make Jsoup close or reparent open elements
+         * @param name
+         * @return
+         */
+        private boolean closesImplicitly(String name) {
+            if (name.equals("a")) {
+                return stack.contains("a");
+            }
+            if (StringUtil.in(name, BLOCK_TAGS) && stack.contains("p")) {
+                return true;
+            }
+            if (StringUtil.in(name, HEADING_TAGS)) {
+                return !stack.isEmpty() && StringUtil.in(stack.get(stack.size() - 1), HEADING_TAGS);
+            }
+            if (name.equals("li")) {
+                return closesListItem("li");
+            }
+            if (name.equals("dd") || name.equals("dt")) {
+                return closesListItem("dd", "dt");
+            }
+            return false;
+        }
+
+        private boolean closesListItem(String... items) {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                final String open = stack.get(i);
+                if (StringUtil.in(open, items)) {
+                    return true;
+                }
+                if (StringUtil.in(open, BLOCK_TAGS) && !open.equals("div") && !open.equals("p")) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private boolean isSupported(String name) {
+            return StringUtil.in(name, INLINE_TAGS) || StringUtil.in(name, BLOCK_TAGS);
+        }
+
+        private String tagName() {
+            final int start = pos;
+            if (pos >= html.length() || !isAsciiLetter(html.charAt(pos))) {
+                return null;
+            }
+            while (pos < html.length() && (isAsciiLetter(html.charAt(pos)) || isAsciiDigit(html.charAt(pos)))) {
+                pos++;
+            }
+            if (pos >= html.length()) {
+                return null;
+            }
+            final char next = html.charAt(pos);
+            if (!isWhitespace(next) && next != '/' && next != '>') {
+                return null;
+            }
+            return html.substring(start, pos).toLowerCase(Locale.ENGLISH);
+        }
+
+        private String attributeName() {
+            final int start = pos;
+            while (pos < html.length()) {
+                final char c = html.charAt(pos);
+                if (isWhitespace(c) || c == '=' || c == '>' || c == '/') {
+                    break;
+                }
+                if (c == '"' || c == '\'' || c == '<') {
+                    return null;
+                }
+                pos++;
+            }
+            return (pos > start) ? html.substring(start, pos).toLowerCase(Locale.ENGLISH) : null;
+        }
+
+        private String attributeValue() {
+            if (pos >= html.length()) {
+                return null;
+            }
+            final char quote = html.charAt(pos);
+            String raw;
+            if (quote == '"' || quote == '\'') {
+                final int end = html.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    return null;
+                }
+                raw = html.substring(pos + 1, end);
+                pos = end + 1;
+                if (pos < html.length() && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>' && html.charAt(pos) != '/') {
+                    return null;
+                }
+            } else {
+                final int start = pos;
+                while (pos < html.length() && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+                    final char c = html.charAt(pos);
+                    if (c == '"' || c == '\'' || c == '<' || c == '=' || c == '`') {
+                        return null;
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    return null;
+                }
+                raw = html.substring(start, pos);
+            }
+            return (raw.indexOf('&') > -1) ? Parser.unescapeEntities(raw, true) : raw;
+        }
+
+        private void skipWhitespace() {
+            while (pos < html.length() && isWhitespace(html.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+        }
+
+        private static boolean isAsciiLetter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        private static boolean isAsciiDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+    }
+
 }
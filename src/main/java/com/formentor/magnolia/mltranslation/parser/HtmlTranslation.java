@@ -0,0 +1,385 @@
+package com.formentor.magnolia.mltranslation.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rich-text translated segment by segment, keeping its markup.
+ *
+ * The html is parsed once by Jsoup and every run of inline content of a block element (text and inline elements as
+ * a, strong or em) is a segment, so a sentence is translated as a whole: <tt>Click &lt;a href="..."&gt;here&lt;/a&gt;
+ * to continue</tt> is the segment <tt>Click &lt;g1&gt;here&lt;/g1&gt; to continue</tt>. Inline elements are sent as
+ * numbered placeholders without their attributes, <tt>&lt;gN&gt;...&lt;/gN&gt;</tt> around their content and
+ * <tt>&lt;xN/&gt;</tt> for elements without translated content (br, img, code...), and are put back where the
+ * translation places them. A translation whose placeholders are missing or unbalanced is written as text, without the
+ * inline elements of its segment. The alt and title attributes are segments too.
+ *
+ * Identical segments are translated once and the body is serialized without pretty printing, so the markup is written
+ * as it was parsed. Text of script, style, code and pre elements and segments without letters (numbers, symbols...)
+ * are not translated. Text without markup is not parsed.
+ */
+@Slf4j
+public class HtmlTranslation {
+
+    private static final String[] SKIPPED_TAGS = {"script", "style", "code", "pre"};
+    private static final String[] TRANSLATED_ATTRIBUTES = {"alt", "title"};
+
+    /**
+     * Placeholders of inline elements: &lt;gN&gt;, &lt;/gN&gt; and &lt;xN/&gt;, with the spaces a model may add
+     */
+    private static final Pattern PLACEHOLDER = Pattern.compile("<\\s*(/?)\\s*g\\s*(\\d+)\\s*>|<\\s*x\\s*(\\d+)\\s*/\\s*>");
+
+    private final String html;
+    private final Document document;
+
+    /**
+     * Writers of the translation of every segment in the document
+     */
+    private final Map<String, List<Consumer<String>>> segments = new LinkedHashMap<>();
+
+    private HtmlTranslation(String html, Document document) {
+        this.html = html;
+        this.document = document;
+    }
+
+    /**
+     * Parses the html and collects its segments
+     * @param html
+     * @return
+     */
+    public static HtmlTranslation parse(String html) {
+        if (html == null || HtmlToPlainText.isPlainText(html)) {
+            final HtmlTranslation translation = new HtmlTranslation(html, null);
+            if (html != null) {
+                translation.addSegment(html, html, null);
+            }
+            return translation;
+        }
+
+        final Document document = Jsoup.parseBodyFragment(html);
+        document.outputSettings().prettyPrint(false);
+        final HtmlTranslation translation = new HtmlTranslation(html, document);
+        translation.collectBlock(document.body());
+        return translation;
+    }
+
+    /**
+     * Distinct segments to be translated, in document order
+     * @return
+     */
+    public Set<String> getSegments() {
+        return segments.keySet();
+    }
+
+    /**
+     * Returns the html with the translation of every segment
+     * @param translations translation of the segments
+     * @return null if a segment is not translated
+     */
+    public String apply(Map<String, String> translations) {
+        if (!translations.keySet().containsAll(segments.keySet())) {
+            return null;
+        }
+        if (document == null) {
+            // plain text, translated as a single segment or without letters
+            return segments.isEmpty() ? html : surround(html, translations.get(segments.keySet().iterator().next()));
+        }
+        segments.forEach((segment, writers) -> writers.forEach((writer) -> writer.accept(translations.get(segment))));
+        return document.body().html();
+    }
+
+    /**
+     * Collects the segments of the children of a block element, every run of inline children is a segment
+     * @param block
+     */
+    private void collectBlock(Element block) {
+        List<Node> run = new ArrayList<>();
+        for (Node child : new ArrayList<>(block.childNodes())) {
+            if (isInline(child)) {
+                run.add(child);
+                continue;
+            }
+            addRun(run);
+            run = new ArrayList<>();
+            final Element element = (Element) child;
+            if (!isSkipped(element)) {
+                collectAttributes(element);
+                collectBlock(element);
+            }
+        }
+        addRun(run);
+    }
+
+    /**
+     * Text, inline elements without block descendants and other nodes (comments...) are inline
+     */
+    private static boolean isInline(Node node) {
+        if (!(node instanceof Element)) {
+            return true;
+        }
+        final Element element = (Element) node;
+        if (element.isBlock()) {
+            return false;
+        }
+        for (Element descendant : element.getAllElements()) {
+            if (descendant != element && descendant.isBlock()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSkipped(Element element) {
+        return StringUtil.in(element.nodeName(), SKIPPED_TAGS);
+    }
+
+    /**
+     * Adds the run of inline nodes as a segment, its inline elements as placeholders
+     * @param run
+     */
+    private void addRun(List<Node> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        final Run placeholders = new Run(run);
+        final StringBuilder text = new StringBuilder();
+        for (Node node : run) {
+            placeholders.append(node, text);
+        }
+        if (placeholders.elements.isEmpty() && run.size() == 1) {
+            // a single text node
+            final TextNode textNode = (TextNode) run.get(0);
+            addSegment(textNode.getWholeText(), textNode.getWholeText(), textNode::text);
+            return;
+        }
+        addSegment(text.toString(), PLACEHOLDER.matcher(text).replaceAll(""), placeholders::write);
+    }
+
+    /**
+     * Adds the alt and title attributes of the element as segments
+     */
+    private void collectAttributes(Element element) {
+        for (String attribute : TRANSLATED_ATTRIBUTES) {
+            if (element.hasAttr(attribute)) {
+                final String value = element.attr(attribute);
+                addSegment(value, value, (translation) -> element.attr(attribute, translation));
+            }
+        }
+    }
+
+    /**
+     * Adds the text as a segment
+     * @param text
+     * @param plainText text without placeholders, a segment is only translated if it has letters
+     * @param writer writes the translation of the text, with the whitespace around the text
+     */
+    private void addSegment(String text, String plainText, Consumer<String> writer) {
+        final String segment = StringUtil.normaliseWhitespace(text).trim();
+        if (!hasLetter(plainText)) {
+            return;
+        }
+        final List<Consumer<String>> writers = segments.computeIfAbsent(segment, (key) -> new ArrayList<>());
+        if (writer != null) {
+            writers.add((translation) -> writer.accept(surround(text, translation)));
+        }
+    }
+
+    /**
+     * Returns the translation with the leading and trailing whitespace of text
+     */
+    private static String surround(String text, String translation) {
+        int start = 0;
+        while (start < text.length() && StringUtil.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = text.length();
+        while (end > start && StringUtil.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, start) + translation + text.substring(end);
+    }
+
+    private static void detach(Node node) {
+        if (node.parentNode() != null) {
+            node.remove();
+        }
+    }
+
+    private static boolean hasLetter(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetter(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run of inline nodes of a block and the elements of its placeholders, numbered from 1
+     */
+    private class Run {
+        /**
+         * Nodes of the run in the document, replaced by the nodes of the translation
+         */
+        private List<Node> nodes;
+        private final List<Node> elements = new ArrayList<>();
+        private final List<Boolean> paired = new ArrayList<>();
+
+        Run(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        /**
+         * Appends the node to the text of the segment, collecting the attributes of its elements
+         */
+        void append(Node node, StringBuilder text) {
+            if (node instanceof TextNode) {
+                text.append(((TextNode) node).getWholeText());
+                return;
+            }
+            final int number = elements.size() + 1;
+            elements.add(node);
+            final boolean hasText = node instanceof Element && !isSkipped((Element) node) && hasLetter(((Element) node).text());
+            paired.add(hasText);
+            if (node instanceof Element && !isSkipped((Element) node)) {
+                collectAttributes((Element) node);
+                if (!hasText) {
+                    for (Element descendant : ((Element) node).getAllElements()) {
+                        if (descendant != node) {
+                            collectAttributes(descendant);
+                        }
+                    }
+                }
+            }
+            if (!hasText) {
+                // kept as it is, i.e. br, img or code
+                text.append("<x").append(number).append("/>");
+                return;
+            }
+            text.append("<g").append(number).append('>');
+            for (Node child : node.childNodes()) {
+                append(child, text);
+            }
+            text.append("</g").append(number).append('>');
+        }
+
+        /**
+         * Replaces the nodes of the run with the translation
+         */
+        void write(String translation) {
+            final boolean valid = isValid(translation);
+            if (!valid) {
+                log.debug("HtmlTranslation - placeholders of {} not found in its translation, written as text", translation);
+            }
+            final Node marker = new TextNode("");
+            nodes.get(0).before(marker);
+            nodes.forEach(HtmlTranslation::detach);
+            final List<Node> translated = valid ? build(translation) : new ArrayList<>();
+            if (!valid) {
+                translated.add(new TextNode(PLACEHOLDER.matcher(translation).replaceAll("")));
+            }
+            for (Node node : translated) {
+                marker.before(node);
+            }
+            marker.remove();
+            nodes = translated;
+        }
+
+        /**
+         * Every placeholder of the run is in the translation once, balanced
+         */
+        private boolean isValid(String translation) {
+            final Deque<Integer> open = new ArrayDeque<>();
+            final boolean[] used = new boolean[elements.size() + 1];
+            final Matcher matcher = PLACEHOLDER.matcher(translation);
+            while (matcher.find()) {
+                final boolean pair = matcher.group(2) != null;
+                final int number = Integer.parseInt(pair ? matcher.group(2) : matcher.group(3));
+                if (number < 1 || number > elements.size() || paired.get(number - 1) != pair) {
+                    return false;
+                }
+                if ("/".equals(matcher.group(1))) {
+                    if (open.isEmpty() || open.pop() != number) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (used[number]) {
+                    return false;
+                }
+                used[number] = true;
+                if (pair) {
+                    open.push(number);
+                }
+            }
+            for (int number = 1; number < used.length; number++) {
+                if (!used[number]) {
+                    return false;
+                }
+            }
+            return open.isEmpty();
+        }
+
+        /**
+         * Returns the nodes of a valid translation, the elements of the run filled with their translated content
+         */
+        private List<Node> build(String translation) {
+            final List<Node> roots = new ArrayList<>();
+            final Deque<Element> open = new ArrayDeque<>();
+            final Matcher matcher = PLACEHOLDER.matcher(translation);
+            int position = 0;
+            while (matcher.find()) {
+                appendText(translation.substring(position, matcher.start()), roots, open);
+                position = matcher.end();
+                final boolean pair = matcher.group(2) != null;
+                if ("/".equals(matcher.group(1))) {
+                    open.pop();
+                    continue;
+                }
+                final Node element = elements.get(Integer.parseInt(pair ? matcher.group(2) : matcher.group(3)) - 1);
+                detach(element);
+                if (open.isEmpty()) {
+                    roots.add(element);
+                } else {
+                    open.peek().appendChild(element);
+                }
+                if (pair) {
+                    // removed one by one, Element.empty() keeps the parent of the children
+                    while (element.childNodeSize() > 0) {
+                        element.childNode(0).remove();
+                    }
+                    open.push((Element) element);
+                }
+            }
+            appendText(translation.substring(position), roots, open);
+            return roots;
+        }
+
+        private void appendText(String text, List<Node> roots, Deque<Element> open) {
+            if (text.isEmpty()) {
+                return;
+            }
+            if (open.isEmpty()) {
+                roots.add(new TextNode(text));
+            } else {
+                open.peek().appendChild(new TextNode(text));
+            }
+        }
+    }
+}
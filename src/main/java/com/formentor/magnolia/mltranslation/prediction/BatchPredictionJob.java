@@ -0,0 +1,222 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.formentor.magnolia.mltranslation.dataset.PendingTranslation;
+import com.formentor.magnolia.mltranslation.dataset.TsvSentenceWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Files of a batch prediction at gs://bucket/prefix.
+ *
+ * The texts to translate are written one per line to input-00000.txt, input-00001.txt... listed by input.csv, and
+ * manifest.tsv maps every line to the properties that get its translation: "file\tline\tnode identifier\tproperty".
+ * AutoML writes the translations of every input file, line by line, to
+ * output/prediction-&lt;model&gt;-&lt;timestamp&gt;/input-00000_&lt;target lang&gt;_translations.txt, once the prediction
+ * finishes the translations are written to the properties of the manifest.
+ */
+@Slf4j
+public class BatchPredictionJob {
+
+    private static final String INPUT_CSV = "input.csv";
+    private static final String MANIFEST = "manifest.tsv";
+    private static final String OUTPUT = "output";
+    private static final Pattern INPUT_FILE = Pattern.compile("input-(\\d{5})(_[\\w-]+_translations)?\\.txt");
+
+    private final TranslationBackend backend;
+    private final String bucketName;
+    private final String prefix;
+
+    public BatchPredictionJob(TranslationBackend backend, String bucketName, String prefix) {
+        this.backend = backend;
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the job of the files at the uri
+     * @param backend
+     * @param uri gs://bucket/prefix
+     * @return
+     */
+    public static BatchPredictionJob of(TranslationBackend backend, String uri) {
+        final String path = uri.substring("gs://".length());
+        final int slash = path.indexOf('/');
+        return new BatchPredictionJob(backend, path.substring(0, slash), path.substring(slash + 1));
+    }
+
+    /**
+     * Returns gs://bucket/prefix
+     * @return
+     */
+    public String getUri() {
+        return "gs://" + bucketName + "/" + prefix;
+    }
+
+    public String getInputUri() {
+        return getUri() + "/" + INPUT_CSV;
+    }
+
+    public String getOutputUriPrefix() {
+        return getUri() + "/" + OUTPUT;
+    }
+
+    /**
+     * Uploads the texts to translate and the manifest
+     * @param pending properties by source text
+     * @param linesPerFile texts of every input file
+     * @param chunkSize size of the chunks of the uploads
+     * @return number of input files
+     * @throws IOException
+     */
+    public int writeInput(Map<String, List<PendingTranslation>> pending, int linesPerFile, int chunkSize) throws IOException {
+        final int maxLines = Math.max(linesPerFile, 1);
+        List<String> inputs = new ArrayList<>();
+        Writer input = null;
+        int line = 0;
+        try (Writer manifest = openWriter(prefix + "/" + MANIFEST, chunkSize)) {
+            for (Map.Entry<String, List<PendingTranslation>> entry : pending.entrySet()) {
+                if (input == null || line == maxLines) {
+                    if (input != null) {
+                        input.close();
+                    }
+                    final String inputName = String.format("%s/input-%05d.txt", prefix, inputs.size());
+                    input = openWriter(inputName, chunkSize);
+                    inputs.add(inputName);
+                    line = 0;
+                }
+                // One text per line, AutoML translates line by line
+                input.write(TsvSentenceWriter.escape(entry.getKey()));
+                input.write('\n');
+                for (PendingTranslation pendingTranslation : entry.getValue()) {
+                    manifest.write((inputs.size() - 1) + "\t" + line + "\t" + pendingTranslation.getNodeIdentifier() + "\t" + pendingTranslation.getPropertyName() + "\n");
+                }
+                line++;
+            }
+        } finally {
+            if (input != null) {
+                input.close();
+            }
+        }
+
+        StringBuilder csv = new StringBuilder();
+        for (String inputName : inputs) {
+            csv.append("gs://").append(bucketName).append('/').append(inputName).append('\n');
+        }
+        backend.createBlob(bucketName, prefix + "/" + INPUT_CSV, csv.toString());
+
+        return inputs.size();
+    }
+
+    /**
+     * Writes the translations of the output files to the properties of the manifest, properties translated since
+     * the prediction started are kept
+     * @param session session of the workspace of the properties
+     * @param batchSize properties written between saves
+     * @return number of properties written
+     * @throws IOException
+     * @throws RepositoryException
+     */
+    public int writeTranslations(Session session, int batchSize) throws IOException, RepositoryException {
+        final Map<Integer, String> outputs = new HashMap<>();
+        for (String name : backend.listBlobNames(bucketName, prefix + "/" + OUTPUT + "/")) {
+            // Output files are in the directory of the prediction, whatever its name
+            final Matcher matcher = INPUT_FILE.matcher(name.substring(name.lastIndexOf('/') + 1));
+            if (matcher.matches()) {
+                outputs.put(Integer.parseInt(matcher.group(1)), name);
+            }
+        }
+
+        int written = 0;
+        int currentFile = -1;
+        List<String> translations = null;
+        try (BufferedReader manifest = openReader(prefix + "/" + MANIFEST)) {
+            String entry;
+            while ((entry = manifest.readLine()) != null) {
+                final String[] columns = entry.split("\t", 4);
+                final int file = Integer.parseInt(columns[0]);
+                final int line = Integer.parseInt(columns[1]);
+                if (file != currentFile) {
+                    // The manifest is ordered by file, a single output file is kept in memory
+                    currentFile = file;
+                    translations = readOutput(file, outputs.get(file));
+                }
+                if (translations == null || line >= translations.size()) {
+                    continue;
+                }
+                try {
+                    final Node node = session.getNodeByIdentifier(columns[2]);
+                    if (!node.hasProperty(columns[3])) {
+                        node.setProperty(columns[3], translations.get(line));
+                        if (++written % Math.max(batchSize, 1) == 0) {
+                            session.save();
+                        }
+                    }
+                } catch (ItemNotFoundException e) {
+                    log.debug("BatchPrediction - node {} was deleted", columns[2]);
+                }
+            }
+        }
+        session.save();
+
+        return written;
+    }
+
+    /**
+     * Returns the translations of an input file, null when the output is missing or its lines do not match the input
+     * @param file index of the input file
+     * @param name output blob
+     * @return
+     * @throws IOException
+     */
+    private List<String> readOutput(int file, String name) throws IOException {
+        final String inputName = String.format("%s/input-%05d.txt", prefix, file);
+        if (name == null) {
+            log.error("BatchPrediction - output of {} is missing", inputName);
+            return null;
+        }
+        final List<String> lines = readLines(name);
+        final int inputLines = readLines(inputName).size();
+        if (lines.size() != inputLines) {
+            log.error("BatchPrediction - {} has {} lines and its output {} has {}, skipping it", inputName, inputLines, name, lines.size());
+            return null;
+        }
+        return lines;
+    }
+
+    private List<String> readLines(String blobName) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = openReader(blobName)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private Writer openWriter(String blobName, int chunkSize) {
+        return new BufferedWriter(Channels.newWriter(backend.createBlobWriter(bucketName, blobName, "text/plain", null, chunkSize), UTF_8.newEncoder(), -1));
+    }
+
+    private BufferedReader openReader(String blobName) {
+        return new BufferedReader(Channels.newReader(backend.createBlobReader(bucketName, blobName), UTF_8.newDecoder(), -1));
+    }
+}
@@ -0,0 +1,109 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import com.google.cloud.automl.v1beta1.Model;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves model display names to model ids.
+ *
+ * Resolved ids are cached for ttlSeconds and refreshed in background after refreshSeconds, so predictions by
+ * display name do not list the models of the project on every request.
+ */
+@Slf4j
+public class ModelResolver implements AutoCloseable {
+
+    private final TranslationBackend backend;
+    private final ExecutorService refreshExecutor;
+    private final LoadingCache<ModelKey, Optional<String>> modelIds;
+
+    /**
+     * @param backend backend used to look up the models
+     * @param ttlSeconds seconds a resolved id is kept
+     * @param refreshSeconds seconds after which a resolved id is refreshed in background, 0 to disable
+     */
+    public ModelResolver(TranslationBackend backend, long ttlSeconds, long refreshSeconds) {
+        this.backend = backend;
+        this.refreshExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-model-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        if (refreshSeconds > 0 && refreshSeconds < ttlSeconds) {
+            builder.refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS);
+        }
+        this.modelIds = builder.build(CacheLoader.asyncReloading(new CacheLoader<ModelKey, Optional<String>>() {
+            @Override
+            public Optional<String> load(ModelKey key) throws IOException {
+                return lookupModelId(key);
+            }
+        }, refreshExecutor));
+    }
+
+    /**
+     * Returns the id of the model with the display name or null if there is no such model
+     * @param projectId
+     * @param computeRegion
+     * @param modelDisplayName
+     * @return
+     * @throws IOException
+     */
+    public String resolve(String projectId, String computeRegion, String modelDisplayName) throws IOException {
+        try {
+            return modelIds.get(new ModelKey(projectId, computeRegion, modelDisplayName)).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to resolve model " + modelDisplayName, e.getCause());
+        }
+    }
+
+    /**
+     * Discards the resolved id of the display name, i.e. when a new model is launched with that name
+     * @param modelDisplayName
+     */
+    public void invalidate(String modelDisplayName) {
+        modelIds.asMap().keySet().removeIf((key) -> key.getModelDisplayName().equals(modelDisplayName));
+    }
+
+    public void invalidateAll() {
+        modelIds.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private Optional<String> lookupModelId(ModelKey key) throws IOException {
+        log.debug("ModelResolver - looking up model {}", key.getModelDisplayName());
+        final Model model = backend.getModelByDisplayName(key.getProjectId(), key.getComputeRegion(), key.getModelDisplayName());
+        if (model == null) {
+            return Optional.empty();
+        }
+        return Optional.of(TranslationBackend.getId(model.getName()));
+    }
+
+    @Value
+    private static class ModelKey {
+        String projectId;
+        String computeRegion;
+        String modelDisplayName;
+    }
+}
@@ -0,0 +1,497 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.formentor.google.LatencyHistogram;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control of the predictions sent to the backend.
+ *
+ * A prediction waits up to queueTimeoutMillis for a token of the rate limit, rateLimit per second with bursts of
+ * burst, and for one of the limit of concurrent predictions, it is rejected otherwise. The limit grows by one every
+ * limit successes and is multiplied by backoffRatio when the backend is out of quota or too slow (AIMD), between
+ * minConcurrency and maxConcurrency.
+ * Every attempt lasts at most attemptTimeoutMillis and failed attempts are retried with jittered exponential backoff
+ * until maxAttempts or deadlineMillis. With hedging, an attempt still running after the hedgeQuantile latency is
+ * sent again if the limits allow it and the first answer wins.
+ *
+ * The limiter is configured at <tt>config:/modules/magnolia-content-translation-ml/config/predictionLimiter</tt>.
+ */
+@Slf4j
+@Getter
+public class PredictionLimiter implements AutoCloseable {
+
+    /**
+     * Predictions per second, 0 to not limit the rate
+     */
+    @Setter
+    private double rateLimit = 0;
+
+    /**
+     * Predictions sent at once after an idle period when the rate is limited
+     */
+    @Setter
+    private int burst = 10;
+
+    @Setter
+    private int initialConcurrency = 16;
+
+    @Setter
+    private int minConcurrency = 1;
+
+    @Setter
+    private int maxConcurrency = 64;
+
+    /**
+     * Factor applied to the concurrency limit on quota errors and timeouts
+     */
+    @Setter
+    private double backoffRatio = 0.5;
+
+    /**
+     * Maximum wait for a token or a slot of concurrency before the prediction is rejected
+     */
+    @Setter
+    private long queueTimeoutMillis = 1000;
+
+    /**
+     * Attempts of a prediction, 1 to not retry
+     */
+    @Setter
+    private int maxAttempts = 3;
+
+    @Setter
+    private long attemptTimeoutMillis = 10000;
+
+    /**
+     * Maximum duration of a prediction including its retries
+     */
+    @Setter
+    private long deadlineMillis = 30000;
+
+    /**
+     * Backoff before the first retry, doubled on every retry up to maxRetryBackoffMillis
+     */
+    @Setter
+    private long retryBackoffMillis = 100;
+
+    @Setter
+    private long maxRetryBackoffMillis = 2000;
+
+    /**
+     * Send again the predictions slower than the hedgeQuantile latency
+     */
+    @Setter
+    private boolean hedging = false;
+
+    @Setter
+    private double hedgeQuantile = 0.95;
+
+    /**
+     * Minimum delay of a hedged prediction
+     */
+    @Setter
+    private long hedgeMinMillis = 50;
+
+    /**
+     * Predictions measured before predictions are hedged
+     */
+    @Setter
+    private int hedgeMinSamples = 100;
+
+    /**
+     * Source of the time in nanoseconds of the rate limit, timeouts and latencies, the tests replace it
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private LongSupplier clock = System::nanoTime;
+
+    @Getter(AccessLevel.NONE)
+    private final Object lock = new Object();
+    @Getter(AccessLevel.NONE)
+    private double limit;
+    @Getter(AccessLevel.NONE)
+    private int inFlight;
+    @Getter(AccessLevel.NONE)
+    private double tokens;
+    @Getter(AccessLevel.NONE)
+    private long refilledNanos;
+    @Getter(AccessLevel.NONE)
+    private long lastDecreaseNanos;
+
+    @Getter(AccessLevel.NONE)
+    private ExecutorService executor;
+    @Getter(AccessLevel.NONE)
+    private LatencyHistogram latencies;
+
+    @Getter(AccessLevel.NONE)
+    private final LongAdder rejected = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder retried = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder hedged = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder timedOut = new LongAdder();
+
+    public void start() {
+        synchronized (lock) {
+            limit = Math.min(Math.max(initialConcurrency, minConcurrency), maxConcurrency);
+            inFlight = 0;
+            tokens = Math.max(burst, 1);
+            refilledNanos = clock.getAsLong();
+            lastDecreaseNanos = refilledNanos;
+        }
+        latencies = new LatencyHistogram();
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-limiter-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("PredictionLimiter - rate {}/s, concurrency {} ({} to {}), {} attempts, hedging {}",
+                rateLimit, (int) limit, minConcurrency, maxConcurrency, maxAttempts, hedging);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the prediction within the limits, retrying it on transient failures
+     * @param call
+     * @param <V>
+     * @return
+     * @throws IOException the failure of the last attempt, or {@link RejectedException} when the limits were not met in time
+     */
+    public <V> V execute(SingleFlight.Call<V> call) throws IOException {
+        final long deadline = clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(call, deadline);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                // Full jitter, retries of concurrent failures do not arrive together
+                final long backoff = Math.min(retryBackoffMillis << Math.min(attempt - 1, 20), maxRetryBackoffMillis);
+                final long sleepNanos = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(backoff + 1));
+                if (clock.getAsLong() + sleepNanos >= deadline) {
+                    throw e;
+                }
+                log.debug("PredictionLimiter - attempt {} failed, retrying: {}", attempt, e.getMessage());
+                retried.increment();
+                sleep(sleepNanos);
+            }
+        }
+    }
+
+    /**
+     * Current limit of concurrent predictions
+     * @return
+     */
+    public int getConcurrencyLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Predictions rejected because a token or a slot of concurrency was not available in time
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    public long getHedgedCount() {
+        return hedged.sum();
+    }
+
+    /**
+     * Attempts that did not finish in attemptTimeoutMillis or before the deadline
+     * @return
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    private <V> V attempt(SingleFlight.Call<V> call, long deadline) throws IOException {
+        final long admissionDeadline = Math.min(deadline, clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis));
+        if (!acquire(admissionDeadline)) {
+            rejected.increment();
+            throw new RejectedException("Prediction rejected, rate limit " + rateLimit + "/s, concurrency limit " + getConcurrencyLimit());
+        }
+
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger running = new AtomicInteger(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Future<?>> tasks = new ArrayList<>(2);
+        final long start = clock.getAsLong();
+        final long timeout = Math.min(start + TimeUnit.MILLISECONDS.toNanos(attemptTimeoutMillis), deadline);
+        try {
+            tasks.add(launch(call, result, running, failure));
+            final long hedgeDelay = getHedgeDelayNanos();
+            if (hedgeDelay > 0 && start + hedgeDelay < timeout) {
+                try {
+                    return result.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // Slower than most predictions, a second one wins if the first is stuck
+                    if (!result.isDone() && tryAcquire()) {
+                        hedged.increment();
+                        running.incrementAndGet();
+                        tasks.add(launch(call, result, running, failure));
+                    }
+                }
+            }
+            return result.get(Math.max(timeout - clock.getAsLong(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            onOverload(start);
+            throw new PredictionTimeoutException("Prediction timed out after " + TimeUnit.NANOSECONDS.toMillis(clock.getAsLong() - start) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a prediction");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // The losers of a hedge and timed out attempts release their slot when they stop
+            tasks.forEach((task) -> task.cancel(true));
+        }
+    }
+
+    private <V> Future<?> launch(SingleFlight.Call<V> call, CompletableFuture<V> result, AtomicInteger running, AtomicReference<Throwable> failure) {
+        final long start = clock.getAsLong();
+        // The slot is released by the task once it stops, or on cancel if it never ran
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final FutureTask<Void> task = new FutureTask<Void>(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                final V prediction = call.call();
+                latencies.record(clock.getAsLong() - start);
+                onSuccess();
+                result.complete(prediction);
+            } catch (Throwable t) {
+                if (isOverload(t)) {
+                    onOverload(start);
+                }
+                failure.compareAndSet(null, t);
+                if (running.decrementAndGet() == 0) {
+                    result.completeExceptionally(failure.get());
+                }
+            } finally {
+                release();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (claimed.compareAndSet(false, true)) {
+                    release();
+                }
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for a token and a slot of concurrency
+     * @param admissionDeadline
+     * @return false if they were not available before the deadline
+     * @throws InterruptedIOException
+     */
+    private boolean acquire(long admissionDeadline) throws InterruptedIOException {
+        synchronized (lock) {
+            try {
+                while (true) {
+                    refill();
+                    final long now = clock.getAsLong();
+                    if (tokens >= 1 && inFlight < (int) limit) {
+                        take();
+                        return true;
+                    }
+                    long waitNanos = admissionDeadline - now;
+                    if (waitNanos <= 0) {
+                        return false;
+                    }
+                    if (tokens < 1) {
+                        // Slots released notify the lock, tokens do not
+                        waitNanos = Math.min(waitNanos, (long) ((1 - tokens) / rateLimit * 1e9) + 1);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the prediction limits");
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        synchronized (lock) {
+            refill();
+            if (tokens >= 1 && inFlight < (int) limit) {
+                take();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void take() {
+        if (rateLimit > 0) {
+            tokens -= 1;
+        }
+        inFlight++;
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    private void refill() {
+        if (rateLimit <= 0) {
+            tokens = 1;
+            return;
+        }
+        final long now = clock.getAsLong();
+        tokens = Math.min(tokens + (now - refilledNanos) / 1e9 * rateLimit, Math.max(burst, 1));
+        refilledNanos = now;
+    }
+
+    /**
+     * Additive increase, one slot every limit successes
+     */
+    private void onSuccess() {
+        synchronized (lock) {
+            limit = Math.min(limit + 1 / limit, maxConcurrency);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Multiplicative decrease, once per round trip: predictions started before the last decrease do not decrease it again
+     * @param start
+     */
+    private void onOverload(long start) {
+        synchronized (lock) {
+            if (start - lastDecreaseNanos < 0) {
+                return;
+            }
+            limit = Math.max(limit * backoffRatio, minConcurrency);
+            lastDecreaseNanos = clock.getAsLong();
+            log.debug("PredictionLimiter - concurrency limit decreased to {}", (int) limit);
+        }
+    }
+
+    /**
+     * Returns the delay of a hedged prediction, 0 to not hedge
+     * @return
+     */
+    private long getHedgeDelayNanos() {
+        if (!hedging || latencies.getCount() < hedgeMinSamples) {
+            return 0;
+        }
+        return TimeUnit.MICROSECONDS.toNanos(Math.max(latencies.getPercentileMicros(hedgeQuantile), TimeUnit.MILLISECONDS.toMicros(hedgeMinMillis)));
+    }
+
+    private static boolean isOverload(Throwable t) {
+        if (t instanceof ApiException) {
+            final StatusCode.Code code = ((ApiException) t).getStatusCode().getCode();
+            return code == StatusCode.Code.RESOURCE_EXHAUSTED || code == StatusCode.Code.DEADLINE_EXCEEDED;
+        }
+        return false;
+    }
+
+    private static boolean isRetryable(Throwable t) {
+        if (t instanceof PredictionTimeoutException) {
+            return true;
+        }
+        if (t instanceof ApiException) {
+            final StatusCode.Code code = ((ApiException) t).getStatusCode().getCode();
+            return ((ApiException) t).isRetryable() || code == StatusCode.Code.UNAVAILABLE
+                    || code == StatusCode.Code.RESOURCE_EXHAUSTED || code == StatusCode.Code.DEADLINE_EXCEEDED;
+        }
+        return false;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to retry a prediction");
+        }
+    }
+
+    /**
+     * The prediction was not sent, the backend is at its limits
+     */
+    public static class RejectedException extends IOException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An attempt did not finish in time
+     */
+    public static class PredictionTimeoutException extends IOException {
+        public PredictionTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
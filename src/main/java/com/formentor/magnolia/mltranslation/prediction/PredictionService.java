@@ -0,0 +1,228 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.formentor.magnolia.mltranslation.backend.TranslationBackend;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Entry point of the module for predictions.
+ * Serves translations from the {@link TranslationCache}, then from the {@link TranslationStore} that keeps them across
+ * restarts, and calls the backend on misses.
+ * Concurrent misses of the same model and content share a single call, see {@link SingleFlight}, and calls are sent
+ * within the limits of the {@link PredictionLimiter}.
+ */
+@Slf4j
+public class PredictionService {
+
+    /**
+     * Wait before a text rejected by the limiter is sent again by predictAll, on top of the admission wait of the limiter
+     */
+    private static final long REJECTED_BACKOFF_MILLIS = 100;
+
+    private final TranslationBackend backend;
+    private final ModelResolver modelResolver;
+    private final TranslationCache cache;
+    private final TranslationStore store;
+    private final PredictionLimiter limiter;
+    private final ExecutorService executor;
+    private final SingleFlight<PredictionKey, String> predictions = new SingleFlight<>();
+
+    public PredictionService(TranslationBackend backend, ModelResolver modelResolver, TranslationCache cache, TranslationStore store,
+                             PredictionLimiter limiter, ExecutorService executor) {
+        this.backend = backend;
+        this.modelResolver = modelResolver;
+        this.cache = cache;
+        this.store = store;
+        this.limiter = limiter;
+        this.executor = executor;
+    }
+
+    /**
+     * Predicts the translation of content using the model
+     * @param projectId
+     * @param computeRegion
+     * @param modelId
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    public String predict(String projectId, String computeRegion, String modelId, String content) throws IOException {
+        String translation = cache.get(modelId, content);
+        if (translation != null) {
+            return translation;
+        }
+        translation = store.get(modelId, content);
+        if (translation != null) {
+            cache.put(modelId, content, translation);
+            return translation;
+        }
+
+        return predictions.execute(new PredictionKey(projectId, computeRegion, modelId, content), () -> {
+            final String prediction = limiter.execute(() -> backend.predict(projectId, computeRegion, modelId, content));
+            cache.put(modelId, content, prediction);
+            store.put(modelId, content, prediction);
+            return prediction;
+        });
+    }
+
+    /**
+     * Predicts the translation of content using the model with the display name
+     * @param projectId
+     * @param computeRegion
+     * @param modelDisplayName
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    public String predictByModelDisplayName(String projectId, String computeRegion, String modelDisplayName, String content) throws IOException {
+        // Get model id by displayName
+        final String modelId = modelResolver.resolve(projectId, computeRegion, modelDisplayName);
+
+        if (modelId == null) {
+            return null;
+        }
+
+        cache.registerModelDisplayName(modelDisplayName, modelId);
+
+        return predict(projectId, computeRegion, modelId, content);
+    }
+
+    /**
+     * Predicts the translations of the texts with at most concurrency predictions in flight on the executor of the
+     * module. Texts rejected by the limits of the {@link PredictionLimiter} are sent again until timeoutMillis, the
+     * texts whose prediction fails are logged and left out
+     * @param projectId
+     * @param computeRegion
+     * @param modelDisplayName model display name, null to use modelId
+     * @param modelId
+     * @param texts
+     * @param concurrency
+     * @param timeoutMillis time the texts rejected by the limiter are sent again
+     * @return translation of every text translated
+     * @throws InterruptedException
+     */
+    public Map<String, String> predictAll(String projectId, String computeRegion, String modelDisplayName, String modelId,
+                                          Collection<String> texts, int concurrency, long timeoutMillis) throws InterruptedException {
+        final Map<String, String> translations = new ConcurrentHashMap<>();
+        if (texts.isEmpty()) {
+            return translations;
+        }
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        // The executor is shared, a text is submitted once one of the concurrency slots of this call is free
+        final Semaphore slots = new Semaphore(Math.max(concurrency, 1));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (String text : texts) {
+                slots.acquire();
+                final FutureTask<Void> task = new FutureTask<Void>(() -> {
+                    try {
+                        String translation = predictAdmitted(projectId, computeRegion, modelDisplayName, modelId, text, deadline);
+                        if (translation != null) {
+                            translations.put(text, translation);
+                        }
+                    } catch (Exception e) {
+                        log.error("PredictionService - unable to translate {}", text, e);
+                    }
+                }, null) {
+                    @Override
+                    protected void done() {
+                        // Also when the task is cancelled before it runs
+                        slots.release();
+                    }
+                };
+                try {
+                    executor.execute(task);
+                    futures.add(task);
+                } catch (RejectedExecutionException e) {
+                    // The module is stopping
+                    slots.release();
+                    log.error("PredictionService - unable to translate {}, the module is stopped", text);
+                    break;
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("PredictionService - translation failure", e.getCause());
+                } catch (CancellationException e) {
+                    log.error("PredictionService - translation cancelled, the module is stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach((future) -> future.cancel(true));
+            throw e;
+        }
+
+        return translations;
+    }
+
+    /**
+     * Predicts the translation of the text, sending it again while the limiter rejects it before the deadline
+     */
+    private String predictAdmitted(String projectId, String computeRegion, String modelDisplayName, String modelId, String text, long deadline)
+            throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return (modelDisplayName != null) ?
+                        predictByModelDisplayName(projectId, computeRegion, modelDisplayName, text) :
+                        predict(projectId, computeRegion, modelId, text);
+            } catch (PredictionLimiter.RejectedException e) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw e;
+                }
+                Thread.sleep(Math.min(REJECTED_BACKOFF_MILLIS, remaining));
+            }
+        }
+    }
+
+    /**
+     * Discards the resolved id and cached translations of models with the display name, i.e. when the model is retrained
+     * @param modelDisplayName
+     */
+    public void invalidateModelDisplayName(String modelDisplayName) {
+        log.info("PredictionService - invalidating cached translations of model {}", modelDisplayName);
+        modelResolver.invalidate(modelDisplayName);
+        cache.invalidateModelDisplayName(modelDisplayName).forEach(store::invalidateModel);
+    }
+
+    public TranslationCache getCache() {
+        return cache;
+    }
+
+    public TranslationStore getStore() {
+        return store;
+    }
+
+    public SingleFlight<?, ?> getPredictions() {
+        return predictions;
+    }
+
+    public PredictionLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Value
+    private static class PredictionKey {
+        String projectId;
+        String computeRegion;
+        String modelId;
+        String content;
+    }
+}
@@ -0,0 +1,103 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls with the same key into a single call.
+ *
+ * The first caller of a key runs the call, callers arriving while it is in flight wait for it and get its result,
+ * or its error, instead of repeating it. Calls are not cached, once a call completes the next caller runs a new one.
+ *
+ * @param <K> key of the call
+ * @param <V> result of the call
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Runs the call or waits for the call in flight with the same key
+     * @param key
+     * @param call
+     * @return
+     * @throws IOException
+     */
+    public V execute(K key, Call<V> call) throws IOException {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> current = inFlight.putIfAbsent(key, flight);
+        if (current != null) {
+            coalesced.increment();
+            return await(current);
+        }
+
+        calls.increment();
+        try {
+            final V result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Number of calls run
+     * @return
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * Number of callers that got the result of a call in flight
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Number of calls in flight
+     * @return
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private V await(CompletableFuture<V> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a call in flight");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+}
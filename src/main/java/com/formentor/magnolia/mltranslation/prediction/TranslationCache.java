@@ -0,0 +1,124 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded cache of predicted translations.
+ *
+ * Entries are keyed by model id plus the normalized source text and evicted in LRU order once the maximum
+ * size is reached. An optional TTL expires entries after being written.
+ */
+public class TranslationCache {
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final Cache<String, String> cache;
+
+    /**
+     * Model ids resolved for every model display name, used to invalidate entries when a model is retrained.
+     */
+    private final Map<String, Set<String>> modelIdsByDisplayName = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize maximum number of translations kept in memory
+     * @param ttlSeconds seconds an entry stays in the cache after being written, 0 to keep it until evicted
+     */
+    public TranslationCache(long maxSize, long ttlSeconds) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * Returns the cached translation or null
+     * @param modelId
+     * @param text
+     * @return
+     */
+    public String get(String modelId, String text) {
+        return cache.getIfPresent(buildKey(modelId, text));
+    }
+
+    public void put(String modelId, String text, String translation) {
+        if (translation != null) {
+            cache.put(buildKey(modelId, text), translation);
+        }
+    }
+
+    /**
+     * Records that the display name resolves to the model id
+     * @param modelDisplayName
+     * @param modelId
+     */
+    public void registerModelDisplayName(String modelDisplayName, String modelId) {
+        modelIdsByDisplayName.computeIfAbsent(modelDisplayName, (name) -> ConcurrentHashMap.newKeySet()).add(modelId);
+    }
+
+    /**
+     * Removes the translations of a model
+     * @param modelId
+     */
+    public void invalidateModel(String modelId) {
+        final String prefix = modelId + KEY_SEPARATOR;
+        cache.asMap().keySet().removeIf((key) -> key.startsWith(prefix));
+    }
+
+    /**
+     * Removes the translations of every model known by the display name
+     * @param modelDisplayName
+     * @return ids of the models invalidated
+     */
+    public Set<String> invalidateModelDisplayName(String modelDisplayName) {
+        Set<String> modelIds = modelIdsByDisplayName.remove(modelDisplayName);
+        if (modelIds == null) {
+            return Collections.emptySet();
+        }
+        modelIds.forEach(this::invalidateModel);
+        return modelIds;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        modelIdsByDisplayName.clear();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * Normalizes the text so that strings differing only in surrounding or repeated whitespace share the entry
+     * @param text
+     * @return
+     */
+    static String normalize(String text) {
+        return (text == null) ? "" : text.trim().replaceAll("\\s+", " ");
+    }
+
+    private String buildKey(String modelId, String text) {
+        return modelId + KEY_SEPARATOR + normalize(text);
+    }
+}
@@ -0,0 +1,1094 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.formentor.magnolia.mltranslation.TranslationModule;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Predicted translations kept on disk, served again after a restart without calling the model.
+ *
+ * Translations are appended to a segment file and found through an open addressing hash index of (model id, text),
+ * both memory-mapped: opening the store does not read the entries and they are kept out of the heap.
+ * A record of the segment is [length][type][model id][text][translation][crc32], a slot of the index is
+ * [hash][offset][hash of the model id].
+ * Invalidating a model removes its slots and appends a record, so an index rebuilt from the segment does not serve
+ * them again. When the records no longer indexed exceed compactionRatio of the segment, the live ones are copied to
+ * a new generation of files in background, predictions are not stored meanwhile.
+ *
+ * The directory is locked while the store is open, a second instance on the same directory (i.e. author and public
+ * on one host) does not store translations instead of corrupting the files.
+ *
+ * The store is configured at <tt>config:/modules/magnolia-content-translation-ml/config/translationStore</tt>.
+ */
+@Slf4j
+@Getter
+public class TranslationStore implements AutoCloseable {
+
+    private static final Pattern FILE_NAME = Pattern.compile("translations-(\\d+)\\.(seg|idx)");
+    private static final String LOCK_FILE = "translations.lock";
+
+    @Setter
+    private boolean enabled = true;
+
+    /**
+     * Directory of the segment and index files, by default translationml/store under the Magnolia home
+     */
+    @Setter
+    private String directory;
+
+    /**
+     * Maximum size of the segment, at most 2047, translations are not stored once full
+     */
+    @Setter
+    private int maxSegmentMegabytes = 1024;
+
+    /**
+     * Fraction of the segment taken by removed translations that starts a compaction
+     */
+    @Setter
+    private double compactionRatio = 0.5;
+
+    /**
+     * Segments smaller than this are not compacted
+     */
+    @Setter
+    private int minCompactionMegabytes = 64;
+
+    /**
+     * Buffers of the lookups of every thread
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    @Getter(AccessLevel.NONE)
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Getter(AccessLevel.NONE)
+    private Generation current;
+
+    /**
+     * Lock of the directory held while the store is open, another instance mapping the same files would corrupt them
+     */
+    @Getter(AccessLevel.NONE)
+    private FileChannel lockChannel;
+
+    @Getter(AccessLevel.NONE)
+    private ExecutorService compactor;
+
+    @Getter(AccessLevel.NONE)
+    private volatile boolean compacting = false;
+
+    @Getter(AccessLevel.NONE)
+    private boolean fullLogged = false;
+
+    @Getter(AccessLevel.NONE)
+    private final LongAdder hits = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder misses = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder compactions = new LongAdder();
+
+    /**
+     * Opens the last generation of files, replaying the records appended after the last update of its index
+     */
+    public void start() {
+        close();
+        if (!enabled) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        final Path root = getRoot();
+        final Generation generation;
+        try {
+            if (!lock(root)) {
+                log.error("TranslationStore - {} is used by another instance, translations are not stored. Configure a directory per instance", root);
+                return;
+            }
+            generation = open(root);
+        } catch (IOException e) {
+            log.warn("TranslationStore - unable to open {}, translations are not stored", root, e);
+            unlock();
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            current = generation;
+            fullLogged = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactor = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "translationml-store-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("TranslationStore - {} translations, {} bytes opened in {} ms", generation.getSize(), generation.getWritePosition(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Returns the stored translation or null
+     * @param modelId
+     * @param text
+     * @return
+     */
+    public String get(String modelId, String text) {
+        // The key is encoded to the buffer of the thread and compared with the mapped records, a lookup only allocates the translation
+        final Scratch scratch = SCRATCH.get();
+        scratch.encodeKey(modelId, text);
+        String translation = null;
+        lock.readLock().lock();
+        try {
+            if (current == null) {
+                return null;
+            }
+            translation = current.find(scratch);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (translation != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return translation;
+    }
+
+    public void put(String modelId, String text, String translation) {
+        // Predictions made during a compaction are only cached in memory
+        if (translation == null || compacting) {
+            return;
+        }
+        final byte[] modelIdBytes = modelId.getBytes(UTF_8);
+        final byte[] textBytes = TranslationCache.normalize(text).getBytes(UTF_8);
+        lock.writeLock().lock();
+        try {
+            if (current == null) {
+                return;
+            }
+            if (!current.append(Generation.PUT, modelIdBytes, textBytes, translation.getBytes(UTF_8))) {
+                if (!fullLogged) {
+                    log.warn("TranslationStore - segment of {} bytes full, translations are not stored", current.getWritePosition());
+                    fullLogged = true;
+                }
+                if (current.getDeadBytes() > 0) {
+                    scheduleCompaction();
+                }
+                return;
+            }
+            final long deadBytes = current.getDeadBytes();
+            if (current.getWritePosition() > (long) minCompactionMegabytes << 20 && deadBytes > current.getWritePosition() * compactionRatio) {
+                scheduleCompaction();
+            }
+        } catch (IOException e) {
+            log.warn("TranslationStore - unable to store the translation of model {}", modelId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the translations of a model, i.e. when it is retrained
+     * @param modelId
+     */
+    public void invalidateModel(String modelId) {
+        final byte[] modelIdBytes = modelId.getBytes(UTF_8);
+        lock.writeLock().lock();
+        try {
+            if (current == null) {
+                return;
+            }
+            final int size = current.getSize();
+            if (current.append(Generation.INVALIDATE, modelIdBytes)) {
+                log.info("TranslationStore - {} translations of model {} removed", size - current.getSize(), modelId);
+            } else {
+                // the segment is full, the model is only removed from the index
+                current.removeModel(modelHash(modelIdBytes), modelIdBytes);
+            }
+        } catch (IOException e) {
+            log.warn("TranslationStore - unable to invalidate the translations of model {}", modelId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of translations stored
+     * @return
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return (current != null) ? current.getSize() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bytes of the segment, removed translations included
+     * @return
+     */
+    public long getByteCount() {
+        lock.readLock().lock();
+        try {
+            return (current != null) ? current.getWritePosition() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getCompactionCount() {
+        return compactions.sum();
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            try {
+                compactor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compactor = null;
+        }
+        lock.writeLock().lock();
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } catch (IOException e) {
+            log.warn("TranslationStore - unable to close {}", getRoot(), e);
+        } finally {
+            unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Locks the directory for this instance
+     * @param root
+     * @return false if another instance, in this or other process, holds the lock
+     * @throws IOException
+     */
+    private boolean lock(Path root) throws IOException {
+        Files.createDirectories(root);
+        final FileChannel channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() != null) {
+                lockChannel = channel;
+                return true;
+            }
+        } catch (OverlappingFileLockException e) {
+            // held by another store of this JVM
+        }
+        channel.close();
+        return false;
+    }
+
+    /**
+     * Releases the lock of the directory, closing its channel
+     */
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                log.warn("TranslationStore - unable to release the lock of {}", getRoot(), e);
+            }
+            lockChannel = null;
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compacting || compactor == null) {
+            return;
+        }
+        compacting = true;
+        compactor.execute(this::compact);
+    }
+
+    /**
+     * Copies the live translations to the next generation, then the records appended during the copy and swaps both
+     */
+    private void compact() {
+        final long startTime = System.currentTimeMillis();
+        final Generation source;
+        Generation target = null;
+        int copied;
+        try {
+            // Readers go on during the copy, writers wait
+            lock.readLock().lock();
+            try {
+                source = current;
+                if (source == null) {
+                    return;
+                }
+                target = Generation.create(getRoot(), source.number + 1, maxSegmentBytes(), capacityFor(source.getSize()));
+                copied = source.copyTo(target);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (current != source) {
+                    target.delete();
+                    return;
+                }
+                source.replay(copied, target);
+                target.complete();
+                current = target;
+                fullLogged = false;
+                source.delete();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            compactions.increment();
+            log.info("TranslationStore - compacted {} to {} bytes in {} ms", source.getWritePosition(), target.getWritePosition(),
+                    System.currentTimeMillis() - startTime);
+        } catch (IOException | RuntimeException e) {
+            log.warn("TranslationStore - unable to compact {}", getRoot(), e);
+            if (target != null && target != current) {
+                try {
+                    target.delete();
+                } catch (IOException ex) {
+                    log.warn("TranslationStore - unable to delete {}", target.segmentFile, ex);
+                }
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    /**
+     * Opens the last generation with a complete index, an index is rebuilt from the last segment if there is none
+     * @param root
+     * @return
+     * @throws IOException
+     */
+    private Generation open(Path root) throws IOException {
+        Files.createDirectories(root);
+        long lastIndexed = 0;
+        long lastSegment = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "translations-*")) {
+            for (Path file : files) {
+                final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                final long number = Long.parseLong(matcher.group(1));
+                if ("seg".equals(matcher.group(2))) {
+                    lastSegment = Math.max(lastSegment, number);
+                } else if (number > lastIndexed && Files.exists(Generation.segmentFile(root, number)) && Generation.isComplete(file)) {
+                    lastIndexed = number;
+                }
+            }
+        }
+
+        Generation generation = null;
+        if (lastIndexed > 0) {
+            try {
+                generation = Generation.open(root, lastIndexed, maxSegmentBytes());
+            } catch (IOException e) {
+                log.warn("TranslationStore - unable to open generation {}, rebuilding its index", lastIndexed, e);
+                generation = Generation.rebuild(root, lastIndexed, maxSegmentBytes());
+            }
+        } else if (lastSegment > 0) {
+            log.warn("TranslationStore - no index of generation {}, rebuilding it", lastSegment);
+            generation = Generation.rebuild(root, lastSegment, maxSegmentBytes());
+        } else {
+            generation = Generation.create(root, 1, maxSegmentBytes(), capacityFor(0));
+            generation.complete();
+        }
+
+        // Files of older generations and of interrupted compactions
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "translations-*")) {
+            for (Path file : files) {
+                final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches() || Long.parseLong(matcher.group(1)) != generation.number) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        return generation;
+    }
+
+    private Path getRoot() {
+        return (directory != null) ? Paths.get(directory) : TranslationModule.getDataDirectory("store");
+    }
+
+    private int maxSegmentBytes() {
+        return Math.min(Math.max(maxSegmentMegabytes, 1), 2047) << 20;
+    }
+
+    private static int capacityFor(long size) {
+        final long capacity = Long.highestOneBit(Math.max((long) (size / Generation.LOAD_FACTOR) * 2, Generation.INITIAL_CAPACITY) - 1) << 1;
+        return (int) Math.min(capacity, Generation.MAX_CAPACITY);
+    }
+
+    /**
+     * FNV-1a hash of model id and text with the final avalanche of MurmurHash3
+     */
+    private static long hash(byte[] modelId, byte[] text) {
+        return hash(modelId, 0, modelId.length, text, 0, text.length);
+    }
+
+    private static long hash(byte[] modelId, int modelIdOffset, int modelIdLength, byte[] text, int textOffset, int textLength) {
+        // a zero byte separates model id and text
+        final long hash = fnv(0xcbf29ce484222325L, modelId, modelIdOffset, modelIdLength) * 0x100000001b3L;
+        return fmix64(fnv(hash, text, textOffset, textLength));
+    }
+
+    private static int modelHash(byte[] modelId) {
+        return (int) fmix64(fnv(0xcbf29ce484222325L, modelId, 0, modelId.length));
+    }
+
+    private static long fnv(long hash, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Segment and index files of a generation of the store.
+     *
+     * Buffers are only accessed with absolute gets and puts, readers share them under the read lock of the store.
+     */
+    private static class Generation {
+
+        static final byte PUT = 1;
+        static final byte INVALIDATE = 2;
+
+        static final float LOAD_FACTOR = 0.5f;
+        static final int INITIAL_CAPACITY = 1 << 16;
+        static final int MAX_CAPACITY = 1 << 26;
+
+        private static final int SEGMENT_MAGIC = 0x544d5347;
+        private static final int INDEX_MAGIC = 0x544d4958;
+        private static final int VERSION = 1;
+        private static final int SEGMENT_HEADER = 16;
+        private static final int INITIAL_SEGMENT_BYTES = 16 << 20;
+
+        // Header of the index
+        private static final int INDEX_HEADER = 64;
+        private static final int H_CAPACITY = 8;
+        private static final int H_SIZE = 12;
+        private static final int H_USED = 16;
+        private static final int H_COMPLETE = 20;
+        private static final int H_WRITE_POSITION = 24;
+        private static final int H_LIVE_BYTES = 32;
+
+        // Slot of the index: hash, offset of the record (0 empty, -1 removed), hash of the model id
+        private static final int SLOT_SIZE = 16;
+        private static final int EMPTY = 0;
+        private static final int REMOVED = -1;
+
+        // Record: length of type and fields, type, fields, crc32 of type and fields
+        private static final int RECORD_OVERHEAD = 8;
+
+        final long number;
+        final Path segmentFile;
+        final Path indexFile;
+        private final int maxSegmentBytes;
+
+        private FileChannel segmentChannel;
+        private MappedByteBuffer segment;
+        private FileChannel indexChannel;
+        private MappedByteBuffer index;
+        private int capacity;
+        private int writePosition;
+
+        private Generation(Path root, long number, int maxSegmentBytes) {
+            this.number = number;
+            this.segmentFile = segmentFile(root, number);
+            this.indexFile = root.resolve("translations-" + number + ".idx");
+            this.maxSegmentBytes = maxSegmentBytes;
+        }
+
+        static Path segmentFile(Path root, long number) {
+            return root.resolve("translations-" + number + ".seg");
+        }
+
+        static boolean isComplete(Path indexFile) {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                if (channel.size() < INDEX_HEADER) {
+                    return false;
+                }
+                final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER);
+                return header.getInt(0) == INDEX_MAGIC && header.getInt(4) == VERSION && header.getInt(H_COMPLETE) == 1;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * New empty generation, not complete
+         */
+        static Generation create(Path root, long number, int maxSegmentBytes, int capacity) throws IOException {
+            final Generation generation = new Generation(root, number, maxSegmentBytes);
+            Files.deleteIfExists(generation.segmentFile);
+            Files.deleteIfExists(generation.indexFile);
+            generation.openSegment(true);
+            generation.createIndex(generation.indexFile, capacity);
+            generation.writePosition = SEGMENT_HEADER;
+            generation.index.putLong(H_WRITE_POSITION, SEGMENT_HEADER);
+            return generation;
+        }
+
+        static Generation open(Path root, long number, int maxSegmentBytes) throws IOException {
+            final Generation generation = new Generation(root, number, maxSegmentBytes);
+            try {
+                generation.openSegment(false);
+                generation.indexChannel = FileChannel.open(generation.indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                generation.index = generation.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, generation.indexChannel.size());
+                generation.capacity = generation.index.getInt(H_CAPACITY);
+                if (Integer.bitCount(generation.capacity) != 1 || generation.indexChannel.size() != INDEX_HEADER + (long) generation.capacity * SLOT_SIZE) {
+                    throw new IOException("Corrupted index " + generation.indexFile);
+                }
+                generation.writePosition = (int) generation.index.getLong(H_WRITE_POSITION);
+                // Records appended after the index was last updated, i.e. the process was killed
+                generation.replay(generation.writePosition, generation);
+                return generation;
+            } catch (IOException | RuntimeException e) {
+                generation.close();
+                throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+            }
+        }
+
+        static Generation rebuild(Path root, long number, int maxSegmentBytes) throws IOException {
+            final Generation generation = new Generation(root, number, maxSegmentBytes);
+            generation.openSegment(false);
+            Files.deleteIfExists(generation.indexFile);
+            generation.createIndex(generation.indexFile, INITIAL_CAPACITY);
+            generation.writePosition = SEGMENT_HEADER;
+            generation.replay(SEGMENT_HEADER, generation);
+            generation.complete();
+            return generation;
+        }
+
+        int getSize() {
+            return index.getInt(H_SIZE);
+        }
+
+        int getWritePosition() {
+            return writePosition;
+        }
+
+        long getDeadBytes() {
+            return writePosition - SEGMENT_HEADER - index.getLong(H_LIVE_BYTES);
+        }
+
+        void complete() {
+            index.putInt(H_COMPLETE, 1);
+            segment.force();
+            index.force();
+        }
+
+        /**
+         * Returns the translation of the key encoded in scratch
+         */
+        String find(Scratch scratch) {
+            final int mask = capacity - 1;
+            int slot = (int) scratch.hash & mask;
+            while (true) {
+                final int position = INDEX_HEADER + slot * SLOT_SIZE;
+                final int offset = index.getInt(position + 8);
+                if (offset == EMPTY) {
+                    return null;
+                }
+                if (offset != REMOVED && index.getLong(position) == scratch.hash && matches(offset, scratch)) {
+                    final String translation = readTranslation(offset, scratch);
+                    if (translation != null) {
+                        return translation;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Compares the key of the record at offset with the key encoded in scratch, without copying the record
+         */
+        private boolean matches(int offset, Scratch scratch) {
+            if (offset < SEGMENT_HEADER || offset + (long) RECORD_OVERHEAD > writePosition) {
+                return false;
+            }
+            final int length = segment.getInt(offset);
+            // type, model id, text and the length of the translation
+            if ((long) 1 + 4 + scratch.modelIdLength + 4 + scratch.textLength + 4 > length
+                    || offset + (long) RECORD_OVERHEAD + length > writePosition || segment.get(offset + 4) != PUT) {
+                return false;
+            }
+            int position = offset + 5;
+            if (segment.getInt(position) != scratch.modelIdLength) {
+                return false;
+            }
+            position += 4;
+            for (int i = 0; i < scratch.modelIdLength; i++) {
+                if (segment.get(position + i) != scratch.key[i]) {
+                    return false;
+                }
+            }
+            position += scratch.modelIdLength;
+            if (segment.getInt(position) != scratch.textLength) {
+                return false;
+            }
+            position += 4;
+            for (int i = 0; i < scratch.textLength; i++) {
+                if (segment.get(position + i) != scratch.key[scratch.modelIdLength + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks the crc of the record at offset, copied to the buffer of scratch, and decodes its translation
+         * @return null if the record is not valid
+         */
+        private String readTranslation(int offset, Scratch scratch) {
+            final int length = segment.getInt(offset);
+            final byte[] record = scratch.record(length);
+            for (int i = 0; i < length; i++) {
+                record[i] = segment.get(offset + 4 + i);
+            }
+            final CRC32 crc = scratch.crc;
+            crc.reset();
+            crc.update(record, 0, length);
+            if (segment.getInt(offset + 4 + length) != (int) crc.getValue()) {
+                return null;
+            }
+            final int start = 1 + 4 + scratch.modelIdLength + 4 + scratch.textLength;
+            final int translationLength = (record[start] & 0xff) << 24 | (record[start + 1] & 0xff) << 16 | (record[start + 2] & 0xff) << 8 | (record[start + 3] & 0xff);
+            if (translationLength < 0 || start + 4 + (long) translationLength > length) {
+                return null;
+            }
+            return new String(record, start + 4, translationLength, UTF_8);
+        }
+
+        /**
+         * Appends a record and indexes it
+         * @return false if the segment is full
+         */
+        boolean append(byte type, byte[]... fields) throws IOException {
+            int length = 1;
+            for (byte[] field : fields) {
+                length += 4 + field.length;
+            }
+            final ByteBuffer record = ByteBuffer.allocate(length);
+            record.put(type);
+            for (byte[] field : fields) {
+                record.putInt(field.length);
+                record.put(field);
+            }
+            return append(record.array());
+        }
+
+        private boolean append(byte[] record) throws IOException {
+            final long end = (long) writePosition + RECORD_OVERHEAD + record.length;
+            // the index is not grown past MAX_CAPACITY, it is full before probing gets slow
+            if (end > maxSegmentBytes || (record[0] == PUT && index.getInt(H_USED) >= capacity - (capacity >> 3))) {
+                return false;
+            }
+            if (end > segment.capacity()) {
+                segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Math.max((long) segment.capacity() << 1, end), maxSegmentBytes));
+            }
+            final int offset = writePosition;
+            final CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            segment.putInt(offset, record.length);
+            for (int i = 0; i < record.length; i++) {
+                segment.put(offset + 4 + i, record[i]);
+            }
+            segment.putInt(offset + 4 + record.length, (int) crc.getValue());
+            apply(record, offset);
+            writePosition = (int) end;
+            index.putLong(H_WRITE_POSITION, writePosition);
+            return true;
+        }
+
+        /**
+         * Applies the record to the index
+         */
+        private void apply(byte[] record, int offset) throws IOException {
+            final byte[] modelId = field(record, 0);
+            if (record[0] == INVALIDATE) {
+                removeModel(modelHash(modelId), modelId);
+                return;
+            }
+            final byte[] text = field(record, 1);
+            final long hash = hash(modelId, text);
+            final int recordLength = RECORD_OVERHEAD + record.length;
+            final int mask = capacity - 1;
+            int slot = (int) hash & mask;
+            int free = -1;
+            while (true) {
+                final int position = INDEX_HEADER + slot * SLOT_SIZE;
+                final int existing = index.getInt(position + 8);
+                if (existing == EMPTY) {
+                    break;
+                }
+                if (existing == REMOVED) {
+                    free = (free == -1) ? slot : free;
+                } else if (index.getLong(position) == hash) {
+                    final byte[] stored = readRecord(existing, writePosition);
+                    if (stored == null || sameKey(stored, modelId, text)) {
+                        index.putInt(position + 8, offset);
+                        index.putLong(H_LIVE_BYTES, index.getLong(H_LIVE_BYTES) + recordLength - ((stored != null) ? RECORD_OVERHEAD + stored.length : 0));
+                        return;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (free == -1) {
+                free = slot;
+                index.putInt(H_USED, index.getInt(H_USED) + 1);
+            }
+            final int position = INDEX_HEADER + free * SLOT_SIZE;
+            index.putLong(position, hash);
+            index.putInt(position + 8, offset);
+            index.putInt(position + 12, modelHash(modelId));
+            index.putInt(H_SIZE, index.getInt(H_SIZE) + 1);
+            index.putLong(H_LIVE_BYTES, index.getLong(H_LIVE_BYTES) + recordLength);
+            if (index.getInt(H_USED) > capacity * LOAD_FACTOR) {
+                rehash(Math.min(capacity << 1, MAX_CAPACITY));
+            }
+        }
+
+        /**
+         * Removes the slots of the model
+         * @return number of translations removed
+         */
+        int removeModel(int modelHash, byte[] modelId) {
+            int removed = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                final int position = INDEX_HEADER + slot * SLOT_SIZE;
+                final int offset = index.getInt(position + 8);
+                if (offset == EMPTY || offset == REMOVED || index.getInt(position + 12) != modelHash) {
+                    continue;
+                }
+                final byte[] record = readRecord(offset, writePosition);
+                if (record == null || sameField(record, 0, modelId)) {
+                    index.putInt(position + 8, REMOVED);
+                    index.putInt(H_SIZE, index.getInt(H_SIZE) - 1);
+                    index.putLong(H_LIVE_BYTES, index.getLong(H_LIVE_BYTES) - ((record != null) ? RECORD_OVERHEAD + record.length : 0));
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Appends the live records to the target
+         * @return position of the segment copied
+         */
+        int copyTo(Generation target) throws IOException {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Compaction interrupted");
+                }
+                final int offset = index.getInt(INDEX_HEADER + slot * SLOT_SIZE + 8);
+                if (offset == EMPTY || offset == REMOVED) {
+                    continue;
+                }
+                final byte[] record = readRecord(offset, writePosition);
+                if (record != null && !target.append(record)) {
+                    throw new IOException("Segment full during compaction");
+                }
+            }
+            return writePosition;
+        }
+
+        /**
+         * Applies the records from the position to the target, itself to recover the records not indexed
+         */
+        void replay(int from, Generation target) throws IOException {
+            int offset = from;
+            while (true) {
+                final byte[] record = readRecord(offset, (target == this) ? segment.capacity() : writePosition);
+                if (record == null || (record[0] != PUT && record[0] != INVALIDATE)) {
+                    break;
+                }
+                if (target == this) {
+                    apply(record, offset);
+                    writePosition = offset + RECORD_OVERHEAD + record.length;
+                    index.putLong(H_WRITE_POSITION, writePosition);
+                } else if (!target.append(record)) {
+                    throw new IOException("Segment full during compaction");
+                }
+                offset += RECORD_OVERHEAD + record.length;
+            }
+            if (target == this && offset != from) {
+                log.info("TranslationStore - {} bytes of {} recovered", offset - from, segmentFile);
+            }
+        }
+
+        /**
+         * Reads the record at offset
+         * @return type and fields, null if there is no valid record
+         */
+        private byte[] readRecord(int offset, long limit) {
+            if (offset < SEGMENT_HEADER || offset + (long) RECORD_OVERHEAD > limit) {
+                return null;
+            }
+            final int length = segment.getInt(offset);
+            if (length < 1 || offset + (long) RECORD_OVERHEAD + length > limit) {
+                return null;
+            }
+            final byte[] record = new byte[length];
+            for (int i = 0; i < length; i++) {
+                record[i] = segment.get(offset + 4 + i);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(record, 0, length);
+            return (segment.getInt(offset + 4 + length) == (int) crc.getValue()) ? record : null;
+        }
+
+        private void rehash(int newCapacity) throws IOException {
+            if (newCapacity == capacity) {
+                return;
+            }
+            final Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            final FileChannel oldChannel = indexChannel;
+            final MappedByteBuffer oldIndex = index;
+            final int oldCapacity = capacity;
+            createIndex(tmp, newCapacity);
+            for (int i = H_SIZE; i < INDEX_HEADER; i += 4) {
+                index.putInt(i, oldIndex.getInt(i));
+            }
+            final int mask = newCapacity - 1;
+            int used = 0;
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                final int position = INDEX_HEADER + slot * SLOT_SIZE;
+                final int offset = oldIndex.getInt(position + 8);
+                if (offset == EMPTY || offset == REMOVED) {
+                    continue;
+                }
+                final long hash = oldIndex.getLong(position);
+                int newSlot = (int) hash & mask;
+                while (index.getInt(INDEX_HEADER + newSlot * SLOT_SIZE + 8) != EMPTY) {
+                    newSlot = (newSlot + 1) & mask;
+                }
+                final int newPosition = INDEX_HEADER + newSlot * SLOT_SIZE;
+                index.putLong(newPosition, hash);
+                index.putInt(newPosition + 8, offset);
+                index.putInt(newPosition + 12, oldIndex.getInt(position + 12));
+                used++;
+            }
+            index.putInt(H_USED, used);
+            index.force();
+            oldChannel.close();
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void openSegment(boolean create) throws IOException {
+            segmentChannel = create
+                    ? FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+                    : FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final long size = Math.min(Math.max(segmentChannel.size(), INITIAL_SEGMENT_BYTES), Math.max(maxSegmentBytes, segmentChannel.size()));
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large " + segmentFile);
+            }
+            segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (create) {
+                segment.putInt(0, SEGMENT_MAGIC);
+                segment.putInt(4, VERSION);
+            } else if (segment.getInt(0) != SEGMENT_MAGIC || segment.getInt(4) != VERSION) {
+                throw new IOException("Unknown segment " + segmentFile);
+            }
+        }
+
+        private void createIndex(Path file, int capacity) throws IOException {
+            indexChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT_SIZE);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, VERSION);
+            index.putInt(H_CAPACITY, capacity);
+            this.capacity = capacity;
+        }
+
+        void close() throws IOException {
+            if (segment != null) {
+                segment.force();
+            }
+            if (index != null) {
+                index.force();
+            }
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        }
+
+        /**
+         * Closes and deletes the files, the mappings are released by the garbage collector
+         */
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(segmentFile);
+            Files.deleteIfExists(indexFile);
+        }
+
+        private static boolean sameKey(byte[] record, byte[] modelId, byte[] text) {
+            return record[0] == PUT && sameField(record, 0, modelId) && sameField(record, 1, text);
+        }
+
+        private static boolean sameField(byte[] record, int field, byte[] value) {
+            final int start = fieldStart(record, field);
+            if (ByteBuffer.wrap(record).getInt(start) != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (record[start + 4 + i] != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte[] field(byte[] record, int field) {
+            final int start = fieldStart(record, field);
+            final byte[] value = new byte[ByteBuffer.wrap(record).getInt(start)];
+            System.arraycopy(record, start + 4, value, 0, value.length);
+            return value;
+        }
+
+        private static int fieldStart(byte[] record, int field) {
+            int start = 1;
+            for (int i = 0; i < field; i++) {
+                start += 4 + ByteBuffer.wrap(record).getInt(start);
+            }
+            return start;
+        }
+    }
+    /**
+     * Key of a lookup encoded as UTF-8, normalized like {@link TranslationCache#normalize(String)}, and the record
+     * found, reused by the lookups of a thread
+     */
+    static class Scratch {
+        byte[] key = new byte[256];
+        int modelIdLength;
+        int textLength;
+        long hash;
+        final CRC32 crc = new CRC32();
+        private byte[] record = new byte[1024];
+
+        void encodeKey(String modelId, String text) {
+            modelIdLength = encode(modelId, 0, modelId.length(), 0, false);
+            int start = 0;
+            int end = (text != null) ? text.length() : 0;
+            // trimmed as String.trim()
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            textLength = encode(text, start, end, modelIdLength, true) - modelIdLength;
+            hash = hash(key, 0, modelIdLength, key, modelIdLength, textLength);
+        }
+
+        byte[] record(int length) {
+            if (record.length < length) {
+                record = new byte[Math.max(length, record.length << 1)];
+            }
+            return record;
+        }
+
+        /**
+         * Encodes the chars from start to end as String.getBytes(UTF_8) does, an unpaired surrogate as '?'
+         * @param collapseWhitespace runs of \s as a single space
+         * @return position after the last byte
+         */
+        private int encode(String value, int start, int end, int position, boolean collapseWhitespace) {
+            for (int i = start; i < end; i++) {
+                char c = value.charAt(i);
+                if (collapseWhitespace && isWhitespace(c)) {
+                    if (i > start && isWhitespace(value.charAt(i - 1))) {
+                        continue;
+                    }
+                    c = ' ';
+                }
+                if (key.length < position + 4) {
+                    key = Arrays.copyOf(key, Math.max(position + 4, key.length << 1));
+                }
+                if (c < 0x80) {
+                    key[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    key[position++] = (byte) (0xc0 | (c >> 6));
+                    key[position++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    key[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    key[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    key[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    key[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    key[position++] = '?';
+                } else {
+                    key[position++] = (byte) (0xe0 | (c >> 12));
+                    key[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    key[position++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return position;
+        }
+
+        /**
+         * Whitespace of the \s class of java.util.regex
+         */
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.formentor.magnolia.mltranslation.setup;
 
 import info.magnolia.module.DefaultModuleVersionHandler;
+import info.magnolia.module.delta.BootstrapSingleResource;
+import info.magnolia.module.delta.DeltaBuilder;
+import info.magnolia.module.delta.NodeExistsDelegateTask;
+import info.magnolia.module.delta.Task;
+import info.magnolia.repository.RepositoryConstants;
 
 /**
  * This class is optional and lets you manage the versions of your module,
@@ -13,4 +18,25 @@ import info.magnolia.module.DefaultModuleVersionHandler;
  */
 public class TranslationModuleVersionHandler extends DefaultModuleVersionHandler {
 
+    private static final String COMMANDS_PATH = "/modules/magnolia-content-translation-ml/commands/translationml";
+    private static final String UPDATE_RESOURCES = "/mgnl-bootstrap-update/magnolia-content-translation-ml/";
+
+    public TranslationModuleVersionHandler() {
+        // New installs get the commands from the bootstrap of commands, updates get the ones added since
+        register(DeltaBuilder.update("1.1", "Adds the batchtranslate and batchpredict commands")
+                .addTask(bootstrapCommand("batchtranslate"))
+                .addTask(bootstrapCommand("batchpredict")));
+    }
+
+    /**
+     * Bootstraps the command of the update resources unless it is already configured
+     * @param command
+     * @return
+     */
+    private Task bootstrapCommand(String command) {
+        return new NodeExistsDelegateTask("Command " + command, "Adds the command translationml-" + command,
+                RepositoryConstants.CONFIG, COMMANDS_PATH + "/" + command, null,
+                new BootstrapSingleResource("Command " + command, "Bootstraps the command translationml-" + command,
+                        UPDATE_RESOURCES + "config.modules.magnolia-content-translation-ml.commands.translationml." + command + ".xml"));
+    }
 }
@@ -0,0 +1,138 @@
+package com.formentor.magnolia.mltranslation.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of html texts like the ones written by editors in the rich-text fields of Magnolia.
+ *
+ * The corpus is generated from a fixed seed so every run of the benchmarks works on the same texts. It lives with the
+ * tests, which check the conversions on it, and the jmh profile adds the benchmarks to the test sources.
+ */
+public final class HtmlCorpus {
+
+    /**
+     * Texts without markup
+     */
+    public static final String PLAIN = "plain";
+
+    /**
+     * Texts written with the rich-text editor: paragraphs, lists, headings, links and inline formatting
+     */
+    public static final String RICH_TEXT = "richtext";
+
+    /**
+     * Rich-text mixed with markup pasted from other sources: tables, comments, unclosed tags...
+     */
+    public static final String MIXED = "mixed";
+
+    private static final String[] WORDS = {
+            "the", "content", "translation", "page", "model", "magnolia", "dataset", "editor", "component", "site",
+            "language", "training", "menu", "news", "product", "cat\u00e1logo", "p\u00e1gina", "\u00fcber", "contenido", "r\u00e9gion",
+            "&amp;", "&nbsp;", "&quot;offer&quot;", "2019", "caf\u00e9", "ni\u00f1o", "search", "contact", "about", "privacy"
+    };
+
+    private static final String[] INLINE = {"b", "i", "em", "strong", "span", "u"};
+
+    private HtmlCorpus() {
+    }
+
+    /**
+     * Returns size texts of the given kind
+     * @param kind {@link #PLAIN}, {@link #RICH_TEXT} or {@link #MIXED}
+     * @param size
+     * @param seed
+     * @return
+     */
+    public static List<String> generate(String kind, int size, long seed) {
+        final Random random = new Random(seed);
+        List<String> corpus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            switch (kind) {
+                case PLAIN:
+                    corpus.add(sentence(random, 3 + random.nextInt(12)).replace("&amp;", "and").replace("&nbsp;", " ").replace("&quot;", "\""));
+                    break;
+                case RICH_TEXT:
+                    corpus.add(richText(random));
+                    break;
+                case MIXED:
+                    corpus.add((random.nextInt(4) == 0) ? pasted(random) : richText(random));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown corpus " + kind);
+            }
+        }
+        return corpus;
+    }
+
+    private static String richText(Random random) {
+        StringBuilder html = new StringBuilder();
+        final int blocks = 1 + random.nextInt(4);
+        for (int i = 0; i < blocks; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    final int level = 2 + random.nextInt(3);
+                    html.append("<h").append(level).append('>').append(sentence(random, 2 + random.nextInt(6))).append("</h").append(level).append(">\n");
+                    break;
+                case 1:
+                    html.append("<ul>\n");
+                    final int items = 2 + random.nextInt(4);
+                    for (int j = 0; j < items; j++) {
+                        html.append("  <li>").append(inlineText(random, 3 + random.nextInt(6))).append("</li>\n");
+                    }
+                    html.append("</ul>\n");
+                    break;
+                default:
+                    html.append("<p>").append(inlineText(random, 8 + random.nextInt(30))).append("</p>\n");
+                    break;
+            }
+        }
+        return html.toString();
+    }
+
+    private static String pasted(Random random) {
+        StringBuilder html = new StringBuilder();
+        html.append("<!-- pasted -->");
+        html.append("<table><tr><td>").append(sentence(random, 3)).append("</td><td>").append(sentence(random, 3)).append("</td></tr></table>");
+        html.append("<p>").append(inlineText(random, 10)).append("<p>").append(sentence(random, 6));
+        return html.toString();
+    }
+
+    private static String inlineText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < words) {
+            final int run = Math.min(words - i, 1 + random.nextInt(5));
+            switch (random.nextInt(6)) {
+                case 0:
+                    final String tag = INLINE[random.nextInt(INLINE.length)];
+                    text.append('<').append(tag).append('>').append(sentence(random, run)).append("</").append(tag).append('>');
+                    break;
+                case 1:
+                    text.append("<a href=\"https://www.example.com/").append(WORDS[random.nextInt(10)]).append(".html\">").append(sentence(random, run)).append("</a>");
+                    break;
+                case 2:
+                    text.append(sentence(random, run)).append("<br />");
+                    break;
+                default:
+                    text.append(sentence(random, run));
+                    break;
+            }
+            text.append(' ');
+            i += run;
+        }
+        return text.toString();
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
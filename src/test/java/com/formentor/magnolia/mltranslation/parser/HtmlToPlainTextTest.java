@@ -0,0 +1,90 @@
+package com.formentor.magnolia.mltranslation.parser;
+
+import com.formentor.magnolia.mltranslation.benchmark.HtmlCorpus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HtmlToPlainTextTest {
+
+    @Test
+    public void streamingExtractorConvertsRichTextAsTheDom() {
+        int streamed = 0;
+        for (String html : HtmlCorpus.generate(HtmlCorpus.RICH_TEXT, 2000, 42)) {
+            final String plainText = HtmlToPlainText.StreamingExtractor.extract(html);
+            if (plainText != null) {
+                assertEquals(html, HtmlToPlainText.getPlainTextFromDom(html), plainText);
+                streamed++;
+            }
+        }
+        assertEquals("rich-text is not parsed by Jsoup", 2000, streamed);
+    }
+
+    @Test
+    public void getPlainTextConvertsMixedHtmlAsTheDom() {
+        int parsed = 0;
+        for (String html : HtmlCorpus.generate(HtmlCorpus.MIXED, 2000, 42)) {
+            if (HtmlToPlainText.StreamingExtractor.extract(html) == null) {
+                parsed++;
+            }
+            assertEquals(html, HtmlToPlainText.getPlainTextFromDom(html), HtmlToPlainText.getPlainText(html));
+        }
+        assertTrue("pasted html is parsed by Jsoup", parsed > 0);
+    }
+
+    @Test
+    public void getPlainTextOfPlainTextNormalizesWhitespace() {
+        for (String text : HtmlCorpus.generate(HtmlCorpus.PLAIN, 500, 42)) {
+            assertEquals(text, HtmlToPlainText.getPlainTextFromDom(text), HtmlToPlainText.getPlainText(text));
+        }
+    }
+
+    @Test
+    public void paragraphInParagraphIsParsedByJsoup() {
+        assertBailsOut("<p>First <p>Second</p></p>");
+        assertBailsOut("<p>Intro <ul><li>item</li></ul></p>");
+    }
+
+    @Test
+    public void listItemInDivInListItemIsParsedByJsoup() {
+        assertBailsOut("<ul><li>One <div>nested <li>Two</li></div></li></ul>");
+    }
+
+    @Test
+    public void duplicateAttributesAreParsedByJsoup() {
+        assertBailsOut("<p>Go <a href=\"/first\" href=\"/second\">there</a></p>");
+    }
+
+    @Test
+    public void bareLessThanIsParsedByJsoup() {
+        assertBailsOut("<p>1 < 2 and 3 <= 4</p>");
+        assertBailsOut("<p>a <</p>");
+    }
+
+    @Test
+    public void entitiesInHrefAreStreamed() {
+        final String html = "<p>Search <a href=\"https://www.example.com/search?q=caf&eacute;&amp;page=2&copy\">caf&eacute; &amp; more</a></p>";
+
+        assertNotNull(HtmlToPlainText.StreamingExtractor.extract(html));
+        assertEquals(HtmlToPlainText.getPlainTextFromDom(html), HtmlToPlainText.StreamingExtractor.extract(html));
+    }
+
+    @Test
+    public void relativeHrefIsStreamed() {
+        final String html = "<ul><li><a href=page.html>Page</a></li><li><a>No link</a></li></ul>";
+
+        assertNotNull(HtmlToPlainText.StreamingExtractor.extract(html));
+        assertEquals(HtmlToPlainText.getPlainTextFromDom(html), HtmlToPlainText.StreamingExtractor.extract(html));
+    }
+
+    /**
+     * The streaming extractor gives up on the html and the conversion is the one of the DOM
+     */
+    private static void assertBailsOut(String html) {
+        assertNull(HtmlToPlainText.StreamingExtractor.extract(html));
+        assertEquals(HtmlToPlainText.getPlainTextFromDom(html), HtmlToPlainText.getPlainText(html));
+    }
+}
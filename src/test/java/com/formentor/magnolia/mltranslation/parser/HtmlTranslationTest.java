@@ -0,0 +1,95 @@
+package com.formentor.magnolia.mltranslation.parser;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HtmlTranslationTest {
+
+    @Test
+    public void plainTextIsASingleSegment() {
+        final HtmlTranslation translation = HtmlTranslation.parse(" Hello world ");
+
+        assertEquals(Arrays.asList("Hello world"), Arrays.asList(translation.getSegments().toArray()));
+        assertEquals(" Hallo Welt ", translation.apply(translations("Hello world", "Hallo Welt")));
+    }
+
+    @Test
+    public void inlineElementsArePlaceholdersOfTheSegmentOfTheirBlock() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>Click <a href=\"/next?a=1&amp;b=2\">here</a> to continue</p><p>Bye</p>");
+
+        assertEquals(Arrays.asList("Click <g1>here</g1> to continue", "Bye"), Arrays.asList(translation.getSegments().toArray()));
+        // the translation moves the link
+        assertEquals("<p>Klicken Sie <a href=\"/next?a=1&amp;b=2\">hier</a>, um fortzufahren</p><p>Tsch\u00fcss</p>",
+                translation.apply(translations("Click <g1>here</g1> to continue", "Klicken Sie <g1>hier</g1>, um fortzufahren",
+                        "Bye", "Tsch\u00fcss")));
+    }
+
+    @Test
+    public void placeholdersKeepNestedAndVoidElements() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<li>A <b>bold <i>word</i></b><br>and <code>x()</code> <img src=\"a.png\" alt=\"Logo\"></li>");
+
+        assertEquals(Arrays.asList("Logo", "A <g1>bold <g2>word</g2></g1><x3/>and <x4/> <x5/>"), Arrays.asList(translation.getSegments().toArray()));
+        assertEquals("<li>Un <b><i>mot</i> gras</b><br>et <code>x()</code> <img src=\"a.png\" alt=\"Logo FR\"></li>",
+                translation.apply(translations("Logo", "Logo FR",
+                        "A <g1>bold <g2>word</g2></g1><x3/>and <x4/> <x5/>", "Un <g1><g2>mot</g2> gras</g1><x3/>et <x4/> <x5/>")));
+    }
+
+    @Test
+    public void placeholdersWithSpacesAddedByTheModelAreFound() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>Read <em>this</em></p>");
+
+        assertEquals("<p>Lee <em>esto</em></p>", translation.apply(translations("Read <g1>this</g1>", "Lee < g1 >esto</ g1>")));
+    }
+
+    @Test
+    public void translationWithBrokenPlaceholdersIsWrittenAsText() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>Click <a href=\"/next\">here</a> now</p>");
+
+        assertEquals("<p>Klicken Sie hier jetzt</p>", translation.apply(translations("Click <g1>here</g1> now", "Klicken Sie <g1>hier jetzt")));
+    }
+
+    @Test
+    public void blocksInsideInlineElementsAreSegmentedOnTheirOwn() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<div>Intro<a href=\"#\"><p>First</p><p>Second</p></a></div>");
+
+        assertEquals(Arrays.asList("Intro", "First", "Second"), Arrays.asList(translation.getSegments().toArray()));
+    }
+
+    @Test
+    public void skippedElementsAndTextWithoutLettersAreNotTranslated() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>Run</p><pre>ls -l</pre><script>var a = 1;</script><p> 42 % </p>");
+
+        assertEquals(Arrays.asList("Run"), Arrays.asList(translation.getSegments().toArray()));
+        assertEquals("<p>Ejecutar</p><pre>ls -l</pre><script>var a = 1;</script><p> 42 % </p>", translation.apply(translations("Run", "Ejecutar")));
+    }
+
+    @Test
+    public void identicalSegmentsAreTranslatedOnce() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>Yes</p><div><span title=\"Yes\">Yes</span></div>");
+
+        assertEquals(Arrays.asList("Yes", "<g1>Yes</g1>"), Arrays.asList(translation.getSegments().toArray()));
+        assertEquals("<p>S\u00ed</p><div><span title=\"S\u00ed\">S\u00ed</span></div>",
+                translation.apply(translations("Yes", "S\u00ed", "<g1>Yes</g1>", "<g1>S\u00ed</g1>")));
+    }
+
+    @Test
+    public void applyWithoutEverySegmentReturnsNull() {
+        final HtmlTranslation translation = HtmlTranslation.parse("<p>One</p><p>Two</p>");
+
+        assertNull(translation.apply(translations("One", "Uno")));
+    }
+
+    private static Map<String, String> translations(String... pairs) {
+        final Map<String, String> translations = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            translations.put(pairs[i], pairs[i + 1]);
+        }
+        return translations;
+    }
+}
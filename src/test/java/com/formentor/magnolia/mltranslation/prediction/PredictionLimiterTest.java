@@ -0,0 +1,321 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PredictionLimiterTest {
+
+    /**
+     * Time of the limiter, it only moves when the test advances it
+     */
+    private final AtomicLong now = new AtomicLong(1000000000L);
+
+    private final List<PredictionLimiter> limiters = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        limiters.forEach(PredictionLimiter::close);
+    }
+
+    @Test
+    public void tokenBucketAdmitsBurstThenRate() throws IOException {
+        final PredictionLimiter limiter = limiter();
+        limiter.setRateLimit(10);
+        limiter.setBurst(3);
+        limiter.setQueueTimeoutMillis(0);
+        limiter.start();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ok", limiter.execute(() -> "ok"));
+        }
+        assertRejected(limiter);
+
+        // 100 ms is a token at 10 per second
+        advanceMillis(100);
+        assertEquals("ok", limiter.execute(() -> "ok"));
+        assertRejected(limiter);
+
+        // tokens are not accumulated beyond the burst
+        advanceMillis(10000);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ok", limiter.execute(() -> "ok"));
+        }
+        assertRejected(limiter);
+        assertEquals(3, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void concurrencyLimitIncreasesAdditivelyAndDecreasesMultiplicatively() throws IOException {
+        final PredictionLimiter limiter = limiter();
+        limiter.setInitialConcurrency(8);
+        limiter.setMinConcurrency(1);
+        limiter.setMaxConcurrency(10);
+        limiter.setBackoffRatio(0.5);
+        limiter.setMaxAttempts(1);
+        limiter.start();
+
+        advanceMillis(1);
+        assertFails(limiter, Status.Code.RESOURCE_EXHAUSTED);
+        assertEquals(4, limiter.getConcurrencyLimit());
+        advanceMillis(1);
+        assertFails(limiter, Status.Code.DEADLINE_EXCEEDED);
+        assertEquals(2, limiter.getConcurrencyLimit());
+        advanceMillis(1);
+        // other failures are not overload
+        assertFails(limiter, Status.Code.INVALID_ARGUMENT);
+        assertEquals(2, limiter.getConcurrencyLimit());
+        advanceMillis(1);
+        assertFails(limiter, Status.Code.RESOURCE_EXHAUSTED);
+        advanceMillis(1);
+        assertFails(limiter, Status.Code.RESOURCE_EXHAUSTED);
+        assertEquals("never below minConcurrency", 1, limiter.getConcurrencyLimit());
+
+        // one slot every limit successes: 1 -> 2 -> 2.5 -> 2.9 -> 3.2
+        limiter.execute(() -> "ok");
+        assertEquals(2, limiter.getConcurrencyLimit());
+        limiter.execute(() -> "ok");
+        limiter.execute(() -> "ok");
+        assertEquals(2, limiter.getConcurrencyLimit());
+        limiter.execute(() -> "ok");
+        assertEquals(3, limiter.getConcurrencyLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.execute(() -> "ok");
+        }
+        assertEquals("never above maxConcurrency", 10, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    public void overloadOfPredictionStartedBeforeTheLastDecreaseDoesNotDecreaseAgain() throws Exception {
+        final PredictionLimiter limiter = limiter();
+        limiter.setInitialConcurrency(8);
+        limiter.setMaxAttempts(1);
+        limiter.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch fail = new CountDownLatch(1);
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> slow = callers.submit(() -> limiter.execute(() -> {
+                started.countDown();
+                await(fail);
+                throw exception(Status.Code.RESOURCE_EXHAUSTED);
+            }));
+            started.await();
+
+            advanceMillis(1);
+            assertFails(limiter, Status.Code.RESOURCE_EXHAUSTED);
+            assertEquals(4, limiter.getConcurrencyLimit());
+            // the slow prediction was sent before the limit was decreased
+            fail.countDown();
+            try {
+                slow.get(10, TimeUnit.SECONDS);
+                fail("the prediction failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ApiException);
+            }
+            assertEquals(4, limiter.getConcurrencyLimit());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void predictionWaitsForASlotOfConcurrency() throws Exception {
+        final PredictionLimiter limiter = limiter();
+        limiter.setInitialConcurrency(1);
+        limiter.setMaxConcurrency(1);
+        limiter.setQueueTimeoutMillis(0);
+        limiter.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> first = callers.submit(() -> limiter.execute(() -> {
+                started.countDown();
+                await(finish);
+                return "first";
+            }));
+            started.await();
+
+            assertEquals(1, limiter.getInFlightCount());
+            assertRejected(limiter);
+            finish.countDown();
+            assertEquals("first", first.get(10, TimeUnit.SECONDS));
+            awaitInFlight(limiter, 0);
+            assertEquals("second", limiter.execute(() -> "second"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void transientFailuresAreRetried() throws IOException {
+        final PredictionLimiter limiter = limiter();
+        limiter.setMaxAttempts(3);
+        limiter.setRetryBackoffMillis(0);
+        limiter.start();
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("ok", limiter.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw exception(Status.Code.UNAVAILABLE);
+            }
+            return "ok";
+        }));
+        assertEquals(3, calls.get());
+        assertEquals(2, limiter.getRetriedCount());
+
+        calls.set(0);
+        assertFails(limiter, Status.Code.INVALID_ARGUMENT);
+        assertEquals("not retryable", 2, limiter.getRetriedCount());
+    }
+
+    @Test
+    public void slowPredictionIsHedgedAndTheLoserReleasesItsSlotOnce() throws Exception {
+        final PredictionLimiter limiter = limiter();
+        limiter.setHedging(true);
+        limiter.setHedgeMinSamples(5);
+        limiter.setHedgeMinMillis(10);
+        limiter.setInitialConcurrency(2);
+        limiter.setMaxConcurrency(2);
+        limiter.start();
+        for (int i = 0; i < 5; i++) {
+            limiter.execute(() -> "sample");
+        }
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch never = new CountDownLatch(1);
+
+        final String prediction = limiter.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                // stuck until the hedge wins and cancels it
+                await(never);
+                return "stuck";
+            }
+            return "hedged";
+        });
+
+        assertEquals("hedged", prediction);
+        assertEquals(1, limiter.getHedgedCount());
+        awaitInFlight(limiter, 0);
+        // both slots are free, a release on cancel on top of the one of the task would have made room for a third
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                callers.submit(() -> limiter.execute(() -> {
+                    started.countDown();
+                    await(finish);
+                    return "busy";
+                }));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            limiter.setQueueTimeoutMillis(0);
+            assertRejected(limiter);
+            assertEquals(2, limiter.getInFlightCount());
+        } finally {
+            finish.countDown();
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void timedOutPredictionReleasesItsSlotOnce() throws Exception {
+        final PredictionLimiter limiter = limiter();
+        limiter.setAttemptTimeoutMillis(20);
+        limiter.setMaxAttempts(1);
+        limiter.setInitialConcurrency(4);
+        limiter.start();
+        final CountDownLatch never = new CountDownLatch(1);
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                limiter.execute(() -> {
+                    await(never);
+                    return "stuck";
+                });
+                fail("the prediction timed out");
+            } catch (PredictionLimiter.PredictionTimeoutException e) {
+                // expected
+            }
+            awaitInFlight(limiter, 0);
+        }
+        assertEquals(10, limiter.getTimedOutCount());
+        assertTrue("timeouts decrease the limit", limiter.getConcurrencyLimit() < 4);
+    }
+
+    private PredictionLimiter limiter() {
+        final PredictionLimiter limiter = new PredictionLimiter();
+        limiter.setClock(now::get);
+        limiters.add(limiter);
+        return limiter;
+    }
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static void assertRejected(PredictionLimiter limiter) throws IOException {
+        try {
+            limiter.execute(() -> "rejected");
+            fail("the prediction was rejected");
+        } catch (PredictionLimiter.RejectedException e) {
+            // expected
+        }
+    }
+
+    private static void assertFails(PredictionLimiter limiter, Status.Code code) throws IOException {
+        try {
+            limiter.execute(() -> {
+                throw exception(code);
+            });
+            fail("the prediction failed");
+        } catch (ApiException e) {
+            assertEquals(code, ((GrpcStatusCode) e.getStatusCode()).getTransportCode());
+        }
+    }
+
+    /**
+     * Slots are released by the prediction thread once the caller has the result
+     */
+    private static void awaitInFlight(PredictionLimiter limiter, int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (limiter.getInFlightCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, limiter.getInFlightCount());
+    }
+
+    private static ApiException exception(Status.Code code) {
+        return ApiExceptionFactory.createException(new IllegalStateException("Failure " + code), GrpcStatusCode.of(code), false);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+}
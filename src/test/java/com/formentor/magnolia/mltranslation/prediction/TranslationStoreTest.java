@@ -0,0 +1,284 @@
+package com.formentor.magnolia.mltranslation.prediction;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TranslationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<TranslationStore> stores = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        stores.forEach(TranslationStore::close);
+    }
+
+    @Test
+    public void getReturnsStoredTranslation() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+
+        store.put("model-1", "Hello world", "Hallo Welt");
+        store.put("model-2", "Hello world", "Bonjour le monde");
+
+        assertEquals("Hallo Welt", store.get("model-1", "Hello world"));
+        assertEquals("Bonjour le monde", store.get("model-2", "Hello world"));
+        assertNull(store.get("model-1", "Goodbye"));
+        assertEquals(2, store.getSize());
+        assertEquals(3, store.getHitCount() + store.getMissCount());
+    }
+
+    @Test
+    public void getNormalizesTextAsTheCache() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+
+        store.put("model", "  Gr\u00fc\u00dfe\t aus \n\n K\u00f6ln \ud83d\ude00 ", "Greetings from Cologne \ud83d\ude00");
+
+        assertEquals("Greetings from Cologne \ud83d\ude00", store.get("model", "Gr\u00fc\u00dfe aus K\u00f6ln \ud83d\ude00"));
+        assertEquals("Greetings from Cologne \ud83d\ude00", store.get("model", "Gr\u00fc\u00dfe   aus K\u00f6ln \ud83d\ude00\r\n"));
+        assertNull(store.get("model", "gr\u00fc\u00dfe aus K\u00f6ln \ud83d\ude00"));
+    }
+
+    @Test
+    public void putReplacesTranslation() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+
+        store.put("model", "text", "first");
+        store.put("model", "text", "second");
+
+        assertEquals("second", store.get("model", "text"));
+        assertEquals(1, store.getSize());
+    }
+
+    @Test
+    public void invalidateModelRemovesItsTranslations() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+        store.put("model-1", "text", "one");
+        store.put("model-2", "text", "two");
+
+        store.invalidateModel("model-1");
+
+        assertNull(store.get("model-1", "text"));
+        assertEquals("two", store.get("model-2", "text"));
+        store.close();
+        // the invalidation is in the segment, a rebuilt index does not serve the translation again
+        final TranslationStore reopened = open(folder.getRoot());
+        assertNull(reopened.get("model-1", "text"));
+        assertEquals("two", reopened.get("model-2", "text"));
+    }
+
+    @Test
+    public void translationsSurviveReopen() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+        for (int i = 0; i < 1000; i++) {
+            store.put("model", "text " + i, "translation " + i);
+        }
+        store.close();
+
+        final TranslationStore reopened = open(folder.getRoot());
+        assertEquals(1000, reopened.getSize());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("translation " + i, reopened.get("model", "text " + i));
+        }
+    }
+
+    @Test
+    public void reopenAfterUncleanCloseReplaysRecordsNotIndexed() throws IOException {
+        final File crashed = folder.newFolder("crashed");
+        final TranslationStore store = open(folder.newFolder("live"));
+        for (int i = 0; i < 100; i++) {
+            store.put("model", "text " + i, "translation " + i);
+        }
+        // the index as last written to disk before the process was killed
+        copyFiles(folder.getRoot().toPath().resolve("live"), crashed.toPath(), ".idx");
+        for (int i = 100; i < 200; i++) {
+            store.put("model", "text " + i, "translation " + i);
+        }
+        store.invalidateModel("model");
+        store.put("model", "text 0", "retrained 0");
+        copyFiles(folder.getRoot().toPath().resolve("live"), crashed.toPath(), ".seg");
+        // a record torn by the kill after the last complete one
+        appendTornRecord(crashed.toPath());
+
+        final TranslationStore reopened = open(crashed);
+        assertEquals(1, reopened.getSize());
+        assertEquals("retrained 0", reopened.get("model", "text 0"));
+        assertNull(reopened.get("model", "text 150"));
+
+        reopened.put("model", "text 1", "retrained 1");
+        assertEquals("retrained 1", reopened.get("model", "text 1"));
+    }
+
+    @Test
+    public void reopenWithoutIndexRebuildsIt() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+        for (int i = 0; i < 100; i++) {
+            store.put("model", "text " + i, "translation " + i);
+        }
+        store.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(), "*.idx")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+
+        final TranslationStore reopened = open(folder.getRoot());
+        assertEquals(100, reopened.getSize());
+        assertEquals("translation 42", reopened.get("model", "text 42"));
+    }
+
+    @Test
+    public void indexGrowsPastItsInitialCapacity() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+        // the index starts with 65536 slots and grows at half of them used
+        final int count = 100000;
+        for (int i = 0; i < count; i++) {
+            store.put("model", "text " + i, "translation " + i);
+        }
+
+        assertEquals(count, store.getSize());
+        for (int i = 0; i < count; i++) {
+            assertEquals("translation " + i, store.get("model", "text " + i));
+        }
+        store.close();
+        final TranslationStore reopened = open(folder.getRoot());
+        assertEquals(count, reopened.getSize());
+        assertEquals("translation " + (count - 1), reopened.get("model", "text " + (count - 1)));
+    }
+
+    @Test
+    public void compactionKeepsServingReaders() throws Exception {
+        final TranslationStore store = new TranslationStore();
+        store.setDirectory(folder.getRoot().getPath());
+        store.setMinCompactionMegabytes(0);
+        store.setCompactionRatio(0.5);
+        store.start();
+        stores.add(store);
+        for (int i = 0; i < 20000; i++) {
+            store.put("live", "text " + i, "translation " + i);
+            store.put("dead", "text " + i, "translation " + i);
+        }
+
+        final long bytesBefore = store.getByteCount();
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        final ExecutorService readers = Executors.newFixedThreadPool(4);
+        final List<Future<Long>> lookups = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            final int offset = r;
+            lookups.add(readers.submit(() -> {
+                long count = 0;
+                for (int i = offset; reading.get(); i = (i + 7) % 20000) {
+                    assertEquals("translation " + i, store.get("live", "text " + i));
+                    count++;
+                }
+                return count;
+            }));
+        }
+        try {
+            // the dead translations take more than half of the segment, the next put starts a compaction
+            store.invalidateModel("dead");
+            store.put("live", "text 0", "translation 0");
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (store.getCompactionCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            reading.set(false);
+            readers.shutdown();
+        }
+        for (Future<Long> lookup : lookups) {
+            assertTrue(lookup.get(30, TimeUnit.SECONDS) > 0);
+        }
+
+        assertEquals(1, store.getCompactionCount());
+        assertEquals(20000, store.getSize());
+        assertTrue(store.getByteCount() < bytesBefore * 0.6);
+        // translations are stored again once the compaction completes
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (store.get("live", "after") == null && System.currentTimeMillis() < deadline) {
+            store.put("live", "after", "compaction");
+            Thread.sleep(10);
+        }
+        assertEquals("compaction", store.get("live", "after"));
+        store.close();
+
+        final TranslationStore reopened = open(folder.getRoot());
+        assertEquals(20001, reopened.getSize());
+        assertEquals("translation 19999", reopened.get("live", "text 19999"));
+        assertNull(reopened.get("dead", "text 19999"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(), "translations-1.*")) {
+            assertTrue("files of the compacted generation are deleted", !files.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void secondInstanceOnTheSameDirectoryDoesNotStore() throws IOException {
+        final TranslationStore store = open(folder.getRoot());
+        store.put("model", "text", "translation");
+
+        final TranslationStore second = open(folder.getRoot());
+        second.put("model", "other", "not stored");
+
+        assertNull(second.get("model", "text"));
+        assertNull(store.get("model", "other"));
+        assertEquals("translation", store.get("model", "text"));
+    }
+
+    private TranslationStore open(File directory) {
+        final TranslationStore store = new TranslationStore();
+        store.setDirectory(directory.getPath());
+        store.setMaxSegmentMegabytes(64);
+        store.start();
+        stores.add(store);
+        return store;
+    }
+
+    private static void copyFiles(Path from, Path to, String suffix) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from, "translations-*" + suffix)) {
+            for (Path file : files) {
+                Files.write(to.resolve(file.getFileName()), Files.readAllBytes(file));
+            }
+        }
+    }
+
+    /**
+     * Writes the length and type of a record without its fields and crc after the last record
+     */
+    private static void appendTornRecord(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "translations-*.seg")) {
+            for (Path file : files) {
+                final byte[] segment = Files.readAllBytes(file);
+                int end = segment.length;
+                while (end > 0 && segment[end - 1] == 0) {
+                    end--;
+                }
+                segment[end] = 0;
+                segment[end + 1] = 0;
+                segment[end + 2] = 0;
+                segment[end + 3] = 64;
+                segment[end + 4] = 1;
+                Files.write(file, segment);
+            }
+        }
+    }
+}